@@ -0,0 +1,215 @@
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.swing.SwingUtilities;
+
+/**
+ * Asynchronous front end for {@link Database}, {@link AttachmentManager} and {@link ImportExportManager}.
+ *
+ * Work runs on a background executor (one virtual thread per task unless another executor is
+ * given) and every returned {@link Task} is completed on the Swing event dispatch thread, so
+ * callbacks attached with {@code whenComplete}/{@code thenAccept} may touch components directly.
+ * Cancelling a task interrupts the worker; the callbacks then see a CancellationException.
+ */
+public class AsyncVault implements AutoCloseable {
+    private final Database database;
+    private final AttachmentManager attachmentManager;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    public AsyncVault(Database database, AttachmentManager attachmentManager) {
+        this(database, attachmentManager, Executors.newVirtualThreadPerTaskExecutor(), true);
+    }
+
+    /**
+     * @param executor Runs the blocking calls. Not shut down by {@link #close()}.
+     */
+    public AsyncVault(Database database, AttachmentManager attachmentManager, ExecutorService executor) {
+        this(database, attachmentManager, executor, false);
+    }
+
+    private AsyncVault(Database database, AttachmentManager attachmentManager, ExecutorService executor, boolean ownsExecutor) {
+        this.database = database;
+        this.attachmentManager = attachmentManager;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Runs any blocking call in the background and completes the task on the EDT.
+     */
+    public <T> Task<T> submit(Callable<T> work) {
+        Task<T> task = new Task<>();
+        task.worker = executor.submit(() -> {
+            if (task.isDone()) {
+                return;
+            }
+            try {
+                T value = work.call();
+                SwingUtilities.invokeLater(() -> task.complete(value));
+            } catch (Throwable e) {
+                SwingUtilities.invokeLater(() -> task.completeExceptionally(e));
+            }
+        });
+        if (task.isCancelled()) {
+            task.worker.cancel(true);
+        }
+        return task;
+    }
+
+    public Task<List<Database.Credential>> getAllCredentials(int userId) {
+        return submit(() -> database.getAllCredentials(userId));
+    }
+
+    /**
+     * Every credential of a user with passwords decrypted, for export and the health scan.
+     */
+    public Task<List<Database.Credential>> getAllCredentialsDecrypted(int userId) {
+        return submit(() -> database.getAllCredentialsDecrypted(userId));
+    }
+
+    public Task<List<Database.Credential>> decryptAll(List<Database.Credential> credentials) {
+        return submit(() -> database.decryptAll(credentials));
+    }
+
+    public Task<Integer> countCredentials(int userId, Database.CredentialQuery query) {
+        return submit(() -> database.countCredentials(userId, query));
+    }
+
+    public Task<Set<Integer>> findNotesContaining(int userId, String text) {
+        return submit(() -> database.findNotesContaining(userId, text));
+    }
+
+    public Task<Database.Page> getCredentialPage(int userId, Database.CredentialQuery query,
+                                                 Database.PageCursor after, int limit) {
+        return submit(() -> database.getCredentialPage(userId, query, after, limit));
+    }
+
+    /**
+     * @return A task holding the id of the new credential
+     */
+    public Task<Integer> insertCredential(int userId, String title, String username, String password, String notes,
+                                          boolean isFavorite, String category, String websiteUrl, String expiryDate) {
+        return submit(() -> database.insertCredential(userId, title, username, password, notes,
+                                                      isFavorite, category, websiteUrl, expiryDate));
+    }
+
+    public Task<Void> updateCredential(int id, String title, String username, String password, String notes,
+                                       boolean isFavorite, String category, String websiteUrl, String expiryDate) {
+        return submit(() -> {
+            database.updateCredential(id, title, username, password, notes, isFavorite, category, websiteUrl, expiryDate);
+            return null;
+        });
+    }
+
+    public Task<Void> deleteCredential(int id) {
+        return submit(() -> {
+            database.deleteCredential(id);
+            return null;
+        });
+    }
+
+    public Task<Void> toggleFavorite(int id) {
+        return submit(() -> {
+            database.toggleFavorite(id);
+            return null;
+        });
+    }
+
+    public Task<Void> addAttachment(int credentialId, File file) {
+        return submit(() -> {
+            attachmentManager.addAttachment(credentialId, file, database.getEncryptionKey());
+            return null;
+        });
+    }
+
+    public Task<Void> downloadAttachment(int attachmentId, File outputFile) {
+        return submit(() -> {
+            attachmentManager.downloadAttachment(attachmentId, outputFile, database.getEncryptionKey());
+            return null;
+        });
+    }
+
+    public Task<List<AttachmentManager.Attachment>> getAttachments(int credentialId) {
+        return submit(() -> attachmentManager.getAttachments(credentialId));
+    }
+
+    /**
+     * Imports a CSV file, or a ZIP archive together with its attachments.
+     *
+     * @param mode What to do with credentials whose title and username already exist
+     * @return A task holding the number of imported (inserted or updated) credentials
+     */
+    public Task<Integer> importFile(ImportExportManager importExport, File file, Database.ImportMode mode) {
+        return submit(() -> file.getName().toLowerCase().endsWith(".zip")
+            ? importExport.importFromArchive(file, attachmentManager, mode)
+            : importExport.importFromCSV(file, mode));
+    }
+
+    /**
+     * Writes the credentials to an archive, reading all their notes first in a few batched queries.
+     */
+    public Task<Void> exportToArchive(ImportExportManager importExport, File outputFile,
+                                      List<Database.Credential> credentials) {
+        return submit(() -> {
+            importExport.exportToArchive(outputFile, database.withNotes(credentials), attachmentManager);
+            return null;
+        });
+    }
+
+    /**
+     * Copies the vault file from a consistent snapshot; see {@link Database#backupTo}. Cancelling interrupts the copy.
+     */
+    public Task<Void> backupTo(Path target, Database.BackupListener listener) {
+        return submit(() -> {
+            database.backupTo(target, listener);
+            return null;
+        });
+    }
+
+    /**
+     * Unwraps the CompletionException/ExecutionException layers around a task failure.
+     */
+    public static Throwable rootCause(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+               && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Stops accepting work. Running tasks are interrupted if this facade created the executor.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A pending background call. Completed on the event dispatch thread.
+     */
+    public static class Task<T> extends CompletableFuture<T> {
+        private volatile Future<?> worker;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Future<?> running = worker;
+            if (cancelled && running != null) {
+                running.cancel(true);
+            }
+            return cancelled;
+        }
+    }
+}
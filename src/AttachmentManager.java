@@ -1,6 +1,5 @@
-import java.sql.*;
+import java.sql.SQLException;
 import java.io.*;
-import java.util.ArrayList;
 import java.util.List;
 import javax.crypto.SecretKey;
 
@@ -9,11 +8,11 @@ import javax.crypto.SecretKey;
  */
 public class AttachmentManager {
     
-    private Connection connection;
+    private final VaultStore store;
     private static final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10 MB
     
-    public AttachmentManager(Connection connection) {
-        this.connection = connection;
+    public AttachmentManager(VaultStore store) {
+        this.store = store;
     }
     
     /**
@@ -58,73 +57,37 @@ public class AttachmentManager {
             encryptedData = encryptedBase64.getBytes("UTF-8");
         }
         
-        // Store in database
-        String sql = "INSERT INTO attachments (credential_id, filename, file_data, file_size, encrypted, upload_date) VALUES (?, ?, ?, ?, ?, datetime('now'))";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, credentialId);
-            pstmt.setString(2, file.getName());
-            pstmt.setBytes(3, encryptedData);
-            pstmt.setLong(4, file.length());
-            pstmt.setBoolean(5, encryptionKey != null);
-            pstmt.executeUpdate();
-        }
+        store.addAttachment(credentialId, file.getName(), encryptedData, file.length(), encryptionKey != null);
     }
     
     /**
      * Get all attachments for a credential
      */
     public List<Attachment> getAttachments(int credentialId) throws SQLException {
-        List<Attachment> attachments = new ArrayList<>();
-        String sql = "SELECT id, credential_id, filename, file_size, upload_date FROM attachments WHERE credential_id = ? ORDER BY upload_date DESC";
-        
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, credentialId);
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                attachments.add(new Attachment(
-                    rs.getInt("id"),
-                    rs.getInt("credential_id"),
-                    rs.getString("filename"),
-                    rs.getLong("file_size"),
-                    rs.getString("upload_date")
-                ));
-            }
-        }
-        
-        return attachments;
+        return store.getAttachments(credentialId);
     }
     
     /**
      * Download an attachment
      */
     public void downloadAttachment(int attachmentId, File outputFile, SecretKey encryptionKey) throws Exception {
-        String sql = "SELECT file_data, encrypted FROM attachments WHERE id = ?";
+        VaultStore.AttachmentData stored = store.readAttachment(attachmentId);
+        if (stored == null) {
+            throw new SQLException("Attachment not found");
+        }
         
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, attachmentId);
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                byte[] encryptedData = rs.getBytes("file_data");
-                boolean isEncrypted = rs.getBoolean("encrypted");
-                
-                byte[] fileData = encryptedData;
-                
-                // Decrypt if necessary
-                if (isEncrypted && encryptionKey != null) {
-                    String encryptedBase64 = new String(encryptedData, "UTF-8");
-                    String decryptedBase64 = PasswordEncryption.decrypt(encryptedBase64, encryptionKey);
-                    fileData = java.util.Base64.getDecoder().decode(decryptedBase64);
-                }
-                
-                // Write to file
-                try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-                    fos.write(fileData);
-                }
-            } else {
-                throw new SQLException("Attachment not found");
-            }
+        byte[] fileData = stored.data;
+        
+        // Decrypt if necessary
+        if (stored.encrypted && encryptionKey != null) {
+            String encryptedBase64 = new String(stored.data, "UTF-8");
+            String decryptedBase64 = PasswordEncryption.decrypt(encryptedBase64, encryptionKey);
+            fileData = java.util.Base64.getDecoder().decode(decryptedBase64);
+        }
+        
+        // Write to file
+        try (FileOutputStream fos = new FileOutputStream(outputFile)) {
+            fos.write(fileData);
         }
     }
     
@@ -132,21 +95,15 @@ public class AttachmentManager {
      * Delete an attachment
      */
     public void deleteAttachment(int attachmentId) throws SQLException {
-        String sql = "DELETE FROM attachments WHERE id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, attachmentId);
-            pstmt.executeUpdate();
-        }
+        store.deleteAttachment(attachmentId);
     }
     
     /**
      * Delete all attachments for a credential
      */
     public void deleteAllAttachments(int credentialId) throws SQLException {
-        String sql = "DELETE FROM attachments WHERE credential_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, credentialId);
-            pstmt.executeUpdate();
+        for (Attachment attachment : store.getAttachments(credentialId)) {
+            store.deleteAttachment(attachment.id);
         }
     }
     
@@ -154,30 +111,18 @@ public class AttachmentManager {
      * Get attachment count for a credential
      */
     public int getAttachmentCount(int credentialId) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM attachments WHERE credential_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, credentialId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1);
-            }
-        }
-        return 0;
+        return store.getAttachments(credentialId).size();
     }
     
     /**
      * Get total size of attachments for a credential
      */
     public long getTotalAttachmentSize(int credentialId) throws SQLException {
-        String sql = "SELECT SUM(file_size) FROM attachments WHERE credential_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, credentialId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getLong(1);
-            }
+        long total = 0;
+        for (Attachment attachment : store.getAttachments(credentialId)) {
+            total += attachment.fileSize;
         }
-        return 0;
+        return total;
     }
     
     /**
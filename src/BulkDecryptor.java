@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+
+/**
+ * Decrypts many passwords in parallel for full-vault operations (export, health scan).
+ *
+ * Rows are added one at a time while the ResultSet is still being read; every full batch
+ * is handed to the executor right away, so decryption overlaps with the query. Batches use
+ * the worker thread's cached Cipher from {@link PasswordEncryption}, so a worker looks the
+ * cipher up once for the whole vault rather than once per batch. {@link #finish()} returns the
+ * plaintexts in the order the rows were added.
+ */
+public class BulkDecryptor {
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private final SecretKey key;
+    private final ExecutorService executor;
+    private final int batchSize;
+    private final List<Future<String[]>> batches = new ArrayList<>();
+    private List<Integer> pendingIds = new ArrayList<>();
+    private List<String> pendingCiphertexts = new ArrayList<>();
+    private int count = 0;
+
+    public BulkDecryptor(SecretKey key) {
+        this(key, ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    public BulkDecryptor(SecretKey key, ExecutorService executor, int batchSize) {
+        this.key = key;
+        this.executor = executor;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Queues one stored password for decryption.
+     *
+     * @param credentialId Used only for the failure warning
+     * @param ciphertext The stored (encrypted) password
+     */
+    public void add(int credentialId, String ciphertext) {
+        pendingIds.add(credentialId);
+        pendingCiphertexts.add(ciphertext);
+        count++;
+        if (pendingIds.size() >= batchSize) {
+            dispatch();
+        }
+    }
+
+    private void dispatch() {
+        if (pendingIds.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = pendingIds;
+        List<String> ciphertexts = pendingCiphertexts;
+        pendingIds = new ArrayList<>(batchSize);
+        pendingCiphertexts = new ArrayList<>(batchSize);
+        batches.add(executor.submit(() -> decryptBatch(ids, ciphertexts)));
+    }
+
+    private String[] decryptBatch(List<Integer> ids, List<String> ciphertexts) throws Exception {
+        String[] plaintexts = new String[ciphertexts.size()];
+        for (int i = 0; i < plaintexts.length; i++) {
+            String ciphertext = ciphertexts.get(i);
+            if (key == null || ciphertext == null || ciphertext.isEmpty()) {
+                plaintexts[i] = ciphertext;
+                continue;
+            }
+            try {
+                plaintexts[i] = PasswordEncryption.decrypt(ciphertext, key);
+            } catch (AEADBadTagException e) {
+                System.err.println("Warning: Password of credential ID " + ids.get(i) + " failed its integrity check");
+                plaintexts[i] = ciphertext;
+            } catch (Exception e) {
+                // Same fallback as single-row decryption: keep the stored value to avoid data loss
+                System.err.println("Warning: Failed to decrypt password for credential ID " + ids.get(i) + ": " + e.getMessage());
+                plaintexts[i] = ciphertext;
+            }
+        }
+        return plaintexts;
+    }
+
+    /**
+     * Waits for every batch and returns the plaintexts in the order they were added.
+     */
+    public List<String> finish() throws InterruptedException {
+        dispatch();
+        List<String> results = new ArrayList<>(count);
+        for (Future<String[]> batch : batches) {
+            try {
+                for (String plaintext : batch.get()) {
+                    results.add(plaintext);
+                }
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Bulk decryption failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        batches.clear();
+        return results;
+    }
+}
@@ -1,4 +1,4 @@
-import java.sql.*;
+import java.sql.SQLException;
 import java.util.*;
 
 /**
@@ -29,10 +29,10 @@ public class CategoryManager {
         CATEGORY_COLORS.put("Other", "#6c757d");            // Gray
     }
     
-    private Connection connection;
+    private final VaultStore store;
     
-    public CategoryManager(Connection connection) {
-        this.connection = connection;
+    public CategoryManager(VaultStore store) {
+        this.store = store;
     }
     
     /**
@@ -45,15 +45,9 @@ public class CategoryManager {
         categories.addAll(Arrays.asList(DEFAULT_CATEGORIES));
         
         // Add custom categories
-        String sql = "SELECT category_name FROM custom_categories WHERE user_id = ? ORDER BY category_name";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, userId);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                String customCategory = rs.getString("category_name");
-                if (!categories.contains(customCategory)) {
-                    categories.add(customCategory);
-                }
+        for (VaultStore.CategoryRecord custom : store.getCustomCategories(userId)) {
+            if (!categories.contains(custom.name)) {
+                categories.add(custom.name);
             }
         }
         
@@ -75,30 +69,14 @@ public class CategoryManager {
             }
         }
         
-        String sql = "INSERT INTO custom_categories (user_id, category_name, color) VALUES (?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, userId);
-            pstmt.setString(2, categoryName.trim());
-            pstmt.setString(3, color);
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            if (e.getMessage().contains("UNIQUE")) {
-                throw new SQLException("Category already exists");
-            }
-            throw e;
-        }
+        store.addCustomCategory(userId, categoryName.trim(), color);
     }
     
     /**
      * Delete a custom category
      */
     public void deleteCustomCategory(int userId, String categoryName) throws SQLException {
-        String sql = "DELETE FROM custom_categories WHERE user_id = ? AND category_name = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, userId);
-            pstmt.setString(2, categoryName);
-            pstmt.executeUpdate();
-        }
+        store.deleteCustomCategory(userId, categoryName);
     }
     
     /**
@@ -0,0 +1,246 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SQLite connection layer: one writer connection plus a bounded pool of read-only connections.
+ *
+ * The database is switched to WAL journaling so readers never block the writer (and vice versa),
+ * which lets attachment downloads and exports run while credential reads keep going.
+ * Every connection is opened with the same tuned pragmas, including foreign-key enforcement so
+ * {@code ON DELETE CASCADE} actually runs, and gets its own {@link StatementCache}.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final int DEFAULT_MAX_READERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final long ACQUIRE_TIMEOUT_MS = 10_000;
+    private static final int BUSY_TIMEOUT_MS = 5_000;
+    private static final long MMAP_SIZE = 256L * 1024 * 1024; // 256 MB
+    private static final int CACHE_SIZE_KB = 16 * 1024;        // 16 MB page cache per connection
+
+    private final String url;
+    private final int maxReaders;
+    private final Connection writer;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final BlockingQueue<Connection> idleReaders;
+    private final List<Connection> allReaders = new ArrayList<>(); // also guards borrowedReaders
+    private int borrowedReaders = 0;
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String url) throws SQLException {
+        this(url, DEFAULT_MAX_READERS);
+    }
+
+    public ConnectionPool(String url, int maxReaders) throws SQLException {
+        this.url = url;
+        this.maxReaders = Math.max(1, maxReaders);
+        this.idleReaders = new ArrayBlockingQueue<>(this.maxReaders);
+        this.writer = DriverManager.getConnection(url);
+        try (Statement stmt = writer.createStatement()) {
+            // WAL is persistent in the database file, so it only has to be set from the writer
+            stmt.execute("PRAGMA journal_mode = WAL");
+        }
+        applyPragmas(writer);
+        statementCaches.put(writer, new StatementCache(writer));
+    }
+
+    private void applyPragmas(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+            stmt.execute("PRAGMA foreign_keys = ON");
+            stmt.execute("PRAGMA synchronous = NORMAL");
+            stmt.execute("PRAGMA mmap_size = " + MMAP_SIZE);
+            stmt.execute("PRAGMA cache_size = -" + CACHE_SIZE_KB);
+            stmt.execute("PRAGMA temp_store = MEMORY");
+        }
+    }
+
+    private Connection openReader() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        applyPragmas(conn);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA query_only = ON");
+        }
+        statementCaches.put(conn, new StatementCache(conn));
+        return conn;
+    }
+
+    /**
+     * Acquires exclusive use of the writer connection. SQLite allows a single writer,
+     * so writers queue here instead of failing with SQLITE_BUSY. The lock is reentrant.
+     */
+    public Lease writer() throws SQLException {
+        ensureOpen();
+        writeLock.lock();
+        if (closed) {
+            // close() held the lock while we waited and has closed the writer
+            writeLock.unlock();
+            ensureOpen();
+        }
+        return new Lease(writer, true);
+    }
+
+    /**
+     * Borrows a read-only connection, opening a new one if the pool is not yet full.
+     * Blocks while all readers are in use.
+     */
+    public Lease reader() throws SQLException {
+        ensureOpen();
+        Connection conn = idleReaders.poll();
+        if (conn == null) {
+            synchronized (allReaders) {
+                if (allReaders.size() < maxReaders) {
+                    conn = openReader();
+                    allReaders.add(conn);
+                }
+            }
+        }
+        if (conn == null) {
+            try {
+                conn = idleReaders.poll(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+            if (conn == null) {
+                throw new SQLException("Timed out waiting for a read connection");
+            }
+        }
+        synchronized (allReaders) {
+            if (closed) {
+                // close() ran while we were taking the connection and did not see it
+                allReaders.remove(conn);
+                closeConnection(conn);
+                ensureOpen();
+            }
+            borrowedReaders++;
+        }
+        return new Lease(conn, false);
+    }
+
+    /**
+     * Total statement cache hits across all connections.
+     */
+    public long getStatementCacheHits() {
+        return statementCaches.values().stream().mapToLong(StatementCache::getHits).sum();
+    }
+    
+    /**
+     * Total statement cache misses (SQL parses) across all connections.
+     */
+    public long getStatementCacheMisses() {
+        return statementCaches.values().stream().mapToLong(StatementCache::getMisses).sum();
+    }
+
+    private void release(Lease lease) {
+        if (lease.write) {
+            writeLock.unlock();
+            return;
+        }
+        synchronized (allReaders) {
+            borrowedReaders--;
+            if (closed) {
+                allReaders.remove(lease.connection);
+                closeConnection(lease.connection);
+                allReaders.notifyAll();
+            } else {
+                idleReaders.offer(lease.connection);
+            }
+        }
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+
+    /**
+     * Refuses new leases and closes every connection once it is no longer borrowed. Waits for the
+     * writer lease and up to {@code ACQUIRE_TIMEOUT_MS} for borrowed readers; a reader still
+     * borrowed after that is closed when it is returned rather than under its user.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (allReaders) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ACQUIRE_TIMEOUT_MS);
+            long remaining;
+            while (borrowedReaders > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(allReaders, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (borrowedReaders > 0) {
+                System.err.println("Warning: " + borrowedReaders + " read connection(s) still in use at close");
+            }
+            Connection conn;
+            while ((conn = idleReaders.poll()) != null) {
+                allReaders.remove(conn);
+                closeConnection(conn);
+            }
+        }
+        writeLock.lock();
+        try {
+            closeConnection(writer);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void closeConnection(Connection conn) {
+        StatementCache cache = statementCaches.remove(conn);
+        if (cache != null) {
+            cache.close();
+        }
+        try {
+            if (conn != null && !conn.isClosed()) {
+                conn.close();
+            }
+        } catch (SQLException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A borrowed connection. Use with try-with-resources so it always goes back to the pool.
+     */
+    public class Lease implements AutoCloseable {
+        private final Connection connection;
+        private final boolean write;
+        private boolean released = false;
+
+        private Lease(Connection connection, boolean write) {
+            this.connection = connection;
+            this.write = write;
+        }
+
+        public Connection connection() {
+            return connection;
+        }
+
+        /**
+         * Cached prepared statement for this connection. Do not close it; close its ResultSet.
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            return statementCaches.get(connection).prepare(sql);
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Session cache of credential rows in front of {@link Database}, one complete map per user.
+ *
+ * A user's rows are loaded once and then kept current from the database's change events, so
+ * repeated full-vault reads (table, health dashboard, export) never go back to SQLite. Every
+ * entry carries the version of the write that produced it; versions are taken while the writer
+ * connection is held, so an event that arrives late can never replace a newer row.
+ * The cache is wiped whenever the encryption key is cleared.
+ */
+public class CredentialCache {
+    // Same order as the SQL used to load a vault: favorites first, then most recently modified
+    private static final Comparator<Database.Credential> VAULT_ORDER =
+        Comparator.comparing((Database.Credential c) -> c.isFavorite).reversed()
+            .thenComparing(c -> c.modifiedDate, Comparator.nullsLast(Comparator.<String>reverseOrder()));
+
+    private final AtomicLong versions = new AtomicLong();
+    private final Map<Integer, Map<Integer, Entry>> users = new HashMap<>();
+    private final Map<Integer, Long> lastChange = new HashMap<>();
+    private long hits;
+    private long misses;
+
+    private static final class Entry {
+        final Database.Credential credential;
+        final long version;
+
+        Entry(Database.Credential credential, long version) {
+            this.credential = credential;
+            this.version = version;
+        }
+    }
+
+    /**
+     * @return A version newer than every version handed out before
+     */
+    public long nextVersion() {
+        return versions.incrementAndGet();
+    }
+
+    public long currentVersion() {
+        return versions.get();
+    }
+
+    public synchronized boolean isLoaded(int userId) {
+        return users.containsKey(userId);
+    }
+
+    /**
+     * @return A copy of the user's credentials in vault order, or null if they are not cached
+     */
+    public synchronized List<Database.Credential> getAll(int userId) {
+        Map<Integer, Entry> rows = users.get(userId);
+        if (rows == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        List<Database.Credential> result = new ArrayList<>(rows.size());
+        for (Entry entry : rows.values()) {
+            result.add(entry.credential);
+        }
+        result.sort(VAULT_ORDER);
+        return result;
+    }
+
+    /**
+     * @return The cached row, or null if its owner's vault is not cached or the id is unknown
+     */
+    public synchronized Database.Credential get(int credentialId) {
+        for (Map<Integer, Entry> rows : users.values()) {
+            Entry entry = rows.get(credentialId);
+            if (entry != null) {
+                hits++;
+                return entry.credential;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * @return The version of the cached row, or -1 if it is not cached
+     */
+    public synchronized long getVersion(int credentialId) {
+        for (Map<Integer, Entry> rows : users.values()) {
+            Entry entry = rows.get(credentialId);
+            if (entry != null) {
+                return entry.version;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Caches a freshly read vault. Ignored if the user's rows changed after {@code readVersion},
+     * since the rows may then predate that change.
+     *
+     * @param readVersion {@link #currentVersion()} taken before the rows were queried
+     */
+    public synchronized void load(int userId, List<Database.Credential> rows, long readVersion) {
+        if (lastChange.getOrDefault(userId, 0L) > readVersion) {
+            return;
+        }
+        Map<Integer, Entry> map = new LinkedHashMap<>();
+        for (Database.Credential cred : rows) {
+            map.put(cred.id, new Entry(cred, readVersion));
+        }
+        users.put(userId, map);
+    }
+
+    /**
+     * Applies a committed change. Events for users whose vault is not cached only advance
+     * the user's change marker.
+     */
+    public synchronized void apply(Database.ChangeEvent event) {
+        lastChange.merge(event.userId, event.version, Math::max);
+        Map<Integer, Entry> rows = users.get(event.userId);
+        if (rows == null) {
+            return;
+        }
+        switch (event.type) {
+            case BULK_CHANGED -> users.remove(event.userId);
+            case DELETED -> rows.remove(event.credentialId);
+            case INSERTED, UPDATED -> {
+                Entry current = rows.get(event.credentialId);
+                if (current == null || current.version < event.version) {
+                    rows.put(event.credentialId, new Entry(event.credential, event.version));
+                }
+            }
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return users.isEmpty();
+    }
+
+    public synchronized void invalidate(int userId) {
+        users.remove(userId);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Drops every cached row. Called on lock and logout together with the plaintext cache.
+     */
+    public synchronized void clear() {
+        users.clear();
+        lastChange.clear();
+    }
+}
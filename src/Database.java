@@ -1,14 +1,68 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.crypto.AEADBadTagException;
 import javax.crypto.SecretKey;
+import org.sqlite.ProgressHandler;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.core.DB;
 
 public class Database {
-    private static final String DB_URL = "jdbc:sqlite:securevault.db";
-    private Connection connection;
+    /** Passed as the expected version to update a credential unconditionally. */
+    public static final int ANY_VERSION = -1;
+    private ConnectionPool pool;
+    private SqliteVaultStore store; // single-credential writes, on the same pool
+    private static final int DEFAULT_BATCH_COMMIT_SIZE = 500;
     private SecretKey encryptionKey; // Encryption key for this session
+    private SecretKey fingerprintKey; // Derived from encryptionKey, see PasswordEncryption.fingerprint
+    private int batchCommitSize = DEFAULT_BATCH_COMMIT_SIZE;
+    private final PlaintextCache plaintextCache = new PlaintextCache();
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final CredentialCache credentialCache = new CredentialCache();
+    private final DuplicateIndex duplicateIndex = new DuplicateIndex();
+    private MetadataWriteQueue metadataQueue;
+    private MaintenanceScheduler maintenance;
     //checks JDBC driver and connects to the database
-    public Database() throws SQLException {
+    private final String url;
+    private final boolean withUsers;
+    /** Pages copied per step of a restore (4 MB at the default page size). */
+    private static final int BACKUP_PAGES_PER_STEP = 1024;
+    /** SQLite VM instructions between two progress and cancellation checks of a backup. */
+    private static final int BACKUP_PROGRESS_OPS = 100_000;
+    /** Progress checks between two pauses of a backup, which leave the disk to the UI meanwhile. */
+    private static final int BACKUP_CHECKS_PER_PAUSE = 10;
+    private static final int BACKUP_PAUSE_MS = 10;
+    /** Minimum time between two progress reports of a backup, each of which stats the copy. */
+    private static final long BACKUP_REPORT_INTERVAL_MS = 200;
+    private static final int BACKUP_BUSY_SLEEP_MS = 50;
+    private static final int BACKUP_BUSY_RETRIES = 100;
+    
+    /**
+     * Opens (creating and migrating if needed) a vault database.
+     *
+     * @param url JDBC URL of the database file
+     * @param withUsers Whether the file also holds the {@code users} table. Per-user vault files
+     *                  (see {@link VaultDirectory}) do not, so their tables get no foreign key to it.
+     */
+    public Database(String url, boolean withUsers) throws SQLException {
+        this.url = url;
+        this.withUsers = withUsers;
         try {
             // Explicitly load SQLite JDBC driver
             Class.forName("org.sqlite.JDBC");
@@ -16,48 +70,78 @@ public class Database {
             throw new SQLException("SQLite JDBC driver not found. Make sure sqlite-jdbc jar is in classpath.", e);
         }
         connect();
-        createTableIfNotExists();
+        try {
+            createSchema(pool, withUsers);
+        } catch (SQLException e) {
+            release();
+            throw e;
+        }
     }
     private void connect() throws SQLException {
         try {
-            connection = DriverManager.getConnection(DB_URL);
-            System.out.println("Database connection established: " + DB_URL);
+            pool = new ConnectionPool(url);
+            store = new SqliteVaultStore(pool);
+            metadataQueue = new MetadataWriteQueue(pool);
+            maintenance = new MaintenanceScheduler(pool);
+            System.out.println("Database connection established: " + url);
         } catch (SQLException e) {
             System.err.println("Failed to connect to database: " + e.getMessage());
             throw e;
         }
     }
-    private void createTableIfNotExists() throws SQLException {
+    /**
+     * Creates the credentials table if needed and applies pending migrations.
+     *
+     * @throws SQLException If a migration fails; its changes are rolled back
+     *
+     * @param withUsers Whether user_id columns reference a {@code users} table in the same file
+     */
+    static void createSchema(ConnectionPool pool, boolean withUsers) throws SQLException {
         String sql = "CREATE TABLE IF NOT EXISTS credentials (" +
                      "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                      "user_id INTEGER NOT NULL," +
                      "title TEXT NOT NULL," +
                      "username TEXT NOT NULL," +
-                     "password TEXT NOT NULL," +
-                     "FOREIGN KEY (user_id) REFERENCES users(id)" +
+                     "password TEXT NOT NULL" +
+                     (withUsers ? ", FOREIGN KEY (user_id) REFERENCES users(id)" : "") +
                      ")";
-        try (Statement stmt = connection.createStatement()) {
+        try (ConnectionPool.Lease lease = pool.writer();
+             Statement stmt = lease.connection().createStatement()) {
             stmt.execute(sql);
+            if (!withUsers) {
+                // Created here so that migration 2 (IF NOT EXISTS) keeps this version without the users key
+                stmt.execute("CREATE TABLE IF NOT EXISTS custom_categories (" +
+                             "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                             "user_id INTEGER NOT NULL," +
+                             "category_name TEXT NOT NULL," +
+                             "color TEXT," +
+                             "UNIQUE(user_id, category_name)" +
+                             ")");
+            }
         }
         
-        // Upgrade database with new columns and tables
-        try {
-            DatabaseUpgrade.upgradeDatabase(connection);
-        } catch (SQLException e) {
-            System.err.println("Warning: Database upgrade failed: " + e.getMessage());
-            // Don't throw - allow app to continue with existing schema
+        // Upgrade database with new columns and tables. A failed migration has been rolled back;
+        // the code expects the latest schema, so the vault must not open on the old one.
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            DatabaseUpgrade.upgradeDatabase(lease.connection());
         }
     }
     // Check if credential with same title and username already exists for this user
     public boolean credentialExists(int userId, String title, String username) throws SQLException {
+        Boolean indexed = lookupDuplicate(userId, title, username, -1);
+        if (indexed != null) {
+            return indexed;
+        }
         String sql = "SELECT COUNT(*) FROM credentials WHERE user_id = ? AND LOWER(title) = LOWER(?) AND LOWER(username) = LOWER(?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
             pstmt.setInt(1, userId);
             pstmt.setString(2, title);
             pstmt.setString(3, username);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1) > 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1) > 0;
+                }
             }
         }
         return false;
@@ -65,179 +149,1177 @@ public class Database {
     
     // Check if credential exists excluding a specific ID (for updates)
     public boolean credentialExistsExcludingId(int userId, String title, String username, int excludeId) throws SQLException {
+        Boolean indexed = lookupDuplicate(userId, title, username, excludeId);
+        if (indexed != null) {
+            return indexed;
+        }
         String sql = "SELECT COUNT(*) FROM credentials WHERE user_id = ? AND LOWER(title) = LOWER(?) AND LOWER(username) = LOWER(?) AND id != ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
             pstmt.setInt(1, userId);
             pstmt.setString(2, title);
             pstmt.setString(3, username);
             pstmt.setInt(4, excludeId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getInt(1) > 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1) > 0;
+                }
             }
         }
         return false;
     }
+    // Answers from the in-memory index, building it on first use; null if it could not be loaded
+    private Boolean lookupDuplicate(int userId, String title, String username, int excludeId) throws SQLException {
+        loadDuplicateIndex(userId);
+        return duplicateIndex.contains(userId, duplicateKey(title, username), excludeId);
+    }
+    
+    /**
+     * Credentials that got a new title because they duplicated the title and username of an
+     * older one when the unique key was introduced, until {@link #clearRenamedCredentials} is called.
+     *
+     * @return "original title → new title" per credential; empty for nearly every vault
+     */
+    public List<String> getRenamedCredentials(int userId) throws SQLException {
+        List<String> renamed = new ArrayList<>();
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            if (!hasTable(lease, "renamed_credentials")) {
+                return renamed;
+            }
+            PreparedStatement pstmt = lease.prepare(
+                "SELECT r.original_title, c.title FROM renamed_credentials r " +
+                "JOIN credentials c ON c.id = r.credential_id WHERE c.user_id = ? ORDER BY c.title_norm");
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    renamed.add(rs.getString(1) + " → " + rs.getString(2));
+                }
+            }
+        }
+        return renamed;
+    }
+    
+    /**
+     * Forgets the renames reported by {@link #getRenamedCredentials}, once the user has seen them.
+     */
+    public void clearRenamedCredentials(int userId) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            if (!hasTable(lease, "renamed_credentials")) {
+                return;
+            }
+            // Also drops entries whose credential has been deleted since
+            PreparedStatement pstmt = lease.prepare(
+                "DELETE FROM renamed_credentials WHERE credential_id NOT IN " +
+                "(SELECT id FROM credentials WHERE user_id <> ?)");
+            pstmt.setInt(1, userId);
+            pstmt.executeUpdate();
+        }
+    }
+    
+    private static boolean hasTable(ConnectionPool.Lease lease, String table) throws SQLException {
+        PreparedStatement pstmt = lease.prepare("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?");
+        pstmt.setString(1, table);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+    
+    /**
+     * Builds the duplicate-detection index for a user with one query, unless it is already loaded.
+     * Called at unlock so the first edit doesn't pay for it.
+     */
+    public void loadDuplicateIndex(int userId) throws SQLException {
+        if (duplicateIndex.isLoaded(userId)) {
+            return;
+        }
+        long readVersion = credentialCache.currentVersion();
+        Map<Integer, String> keys = new HashMap<>();
+        String sql = "SELECT id, title, username FROM credentials WHERE user_id = ?";
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    keys.put(rs.getInt(1), duplicateKey(rs.getString(2), rs.getString(3)));
+                }
+            }
+        }
+        duplicateIndex.load(userId, keys, readVersion);
+    }
+    
     //for checking duplicatess
-    public void insertCredential(int userId, String title, String username, String password) throws SQLException {
-        insertCredential(userId, title, username, password, "", false, "Other", "", "");
+    public int insertCredential(int userId, String title, String username, String password) throws SQLException {
+        return insertCredential(userId, title, username, password, "", false, "Other", "", "");
+    }
+    
+    public int insertCredential(int userId, String title, String username, String password, String notes, boolean isFavorite) throws SQLException {
+        return insertCredential(userId, title, username, password, notes, isFavorite, "Other", "", "");
+    }
+    
+    /**
+     * Inserts a credential. The unique (user, title, username) key rejects duplicates in the
+     * same statement, so there is no separate existence check to race with.
+     *
+     * @return The id of the new credential
+     * @throws SQLException If a credential with the same title and username already exists
+     */
+    public int insertCredential(int userId, String title, String username, String password, String notes, 
+                                boolean isFavorite, String category, String websiteUrl, String expiryDate) throws SQLException {
+        
+        // Encrypt password before storing
+        String encryptedPassword = password;
+        String fingerprint = null;
+        if (encryptionKey != null) {
+            try {
+                encryptedPassword = PasswordEncryption.encrypt(password, encryptionKey);
+                fingerprint = PasswordEncryption.fingerprint(password, fingerprintKey);
+            } catch (Exception e) {
+                throw new SQLException("Failed to encrypt password: " + e.getMessage(), e);
+            }
+        }
+        
+        VaultStore.CredentialRecord record = new VaultStore.CredentialRecord(
+            0, userId, title, username, encryptedPassword, fingerprint, notes, isFavorite,
+            category, websiteUrl, expiryDate,
+            StrengthChecker.checkStrength(password).ordinal(), StrengthChecker.computeScore(password));
+        VaultStore.CredentialRecord stored;
+        long version;
+        // The store takes the same (reentrant) writer lock; holding it here keeps the change
+        // version in commit order
+        try (ConnectionPool.Lease _ = pool.writer()) {
+            stored = store.insertCredential(record);
+            version = credentialCache.nextVersion();
+        }
+        publish(new ChangeEvent(ChangeEvent.Type.INSERTED, userId, stored.id, toCredential(stored), version));
+        return stored.id;
+    }
+
+    private static final String INSERT_SQL =
+        "INSERT INTO credentials (user_id, title, username, password, notes, is_favorite, category, website_url, expiry_date, password_fp, strength, strength_score, created_date, modified_date, last_password_change) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, datetime('now'), datetime('now'), datetime('now'))";
+    static final String DUPLICATE_MESSAGE = "A credential with this title and username already exists!";
+    
+    /**
+     * Inserts many credentials in one transaction, committing every {@link #setBatchCommitSize chunk}.
+     * Rows whose title and username (case-insensitive) already exist, or repeat an earlier row of
+     * the batch, are skipped.
+     *
+     * @param userId The owner of the new credentials
+     * @param rows The credentials to insert, with plaintext passwords
+     * @return One outcome per input row, in input order
+     * @throws SQLException If the transaction itself fails
+     */
+    public BatchResult insertCredentials(int userId, List<NewCredential> rows) throws SQLException {
+        return insertCredentials(userId, rows, ImportMode.SKIP, batchCommitSize);
+    }
+    
+    public BatchResult insertCredentials(int userId, List<NewCredential> rows, ImportMode mode) throws SQLException {
+        return insertCredentials(userId, rows, mode, batchCommitSize);
+    }
+    
+    /**
+     * Batch insert with a choice of what happens to rows whose key already exists. The conflict is
+     * resolved by the INSERT itself (ON CONFLICT against the unique key), so no row is read first.
+     */
+    public BatchResult insertCredentials(int userId, List<NewCredential> rows, ImportMode mode, int chunkSize) throws SQLException {
+        BatchResult result = new BatchResult(rows.size());
+        if (rows.isEmpty()) {
+            return result;
+        }
+        chunkSize = Math.max(1, chunkSize);
+        
+        // Tells inserted rows from updated ones, and lets SKIP drop known duplicates before
+        // paying for encryption. The INSERT's conflict clause stays the authority.
+        loadDuplicateIndex(userId);
+        Set<String> batchKeys = new HashSet<>();
+        
+        // Validate and encrypt before touching the writer
+        boolean[] existing = new boolean[rows.size()];
+        List<Integer> pendingRows = new ArrayList<>();
+        List<String> pendingPasswords = new ArrayList<>();
+        List<String> pendingFingerprints = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            NewCredential row = rows.get(i);
+            if (row.title == null || row.username == null || row.password == null) {
+                result.set(i, InsertOutcome.FAILED, "Title, username and password are required");
+                continue;
+            }
+            String key = duplicateKey(row.title, row.username);
+            existing[i] = !batchKeys.add(key) || Boolean.TRUE.equals(duplicateIndex.contains(userId, key, -1));
+            if (existing[i] && mode == ImportMode.SKIP) {
+                result.set(i, InsertOutcome.DUPLICATE, null);
+                continue;
+            }
+            try {
+                String stored = encryptionKey != null ? PasswordEncryption.encrypt(row.password, encryptionKey) : row.password;
+                String fingerprint = fingerprintKey != null ? PasswordEncryption.fingerprint(row.password, fingerprintKey) : null;
+                pendingPasswords.add(stored);
+                pendingFingerprints.add(fingerprint);
+                pendingRows.add(i);
+            } catch (Exception e) {
+                result.set(i, InsertOutcome.FAILED, "Failed to encrypt password: " + e.getMessage());
+            }
+        }
+        
+        String sql = INSERT_SQL + " ON CONFLICT (user_id, title_norm, username_norm) " + mode.conflictAction;
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            Connection conn = lease.connection();
+            PreparedStatement pstmt = lease.prepare(sql);
+            conn.setAutoCommit(false);
+            try {
+                for (int start = 0; start < pendingRows.size(); start += chunkSize) {
+                    int end = Math.min(start + chunkSize, pendingRows.size());
+                    try {
+                        for (int p = start; p < end; p++) {
+                            bindInsert(pstmt, userId, rows.get(pendingRows.get(p)), pendingPasswords.get(p), pendingFingerprints.get(p));
+                            pstmt.addBatch();
+                        }
+                        int[] counts = pstmt.executeBatch();
+                        conn.commit();
+                        for (int p = start; p < end; p++) {
+                            int index = pendingRows.get(p);
+                            result.set(index, outcomeOf(counts[p - start], existing[index]), null);
+                        }
+                    } catch (SQLException e) {
+                        // Redo the failed chunk row by row so one bad row doesn't sink its neighbours
+                        pstmt.clearBatch();
+                        conn.rollback();
+                        for (int p = start; p < end; p++) {
+                            int index = pendingRows.get(p);
+                            try {
+                                bindInsert(pstmt, userId, rows.get(index), pendingPasswords.get(p), pendingFingerprints.get(p));
+                                result.set(index, outcomeOf(pstmt.executeUpdate(), existing[index]), null);
+                            } catch (SQLException rowError) {
+                                result.set(index, InsertOutcome.FAILED, rowError.getMessage());
+                            }
+                        }
+                        conn.commit();
+                    }
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+                if (result.inserted + result.updated > 0) {
+                    publish(new ChangeEvent(ChangeEvent.Type.BULK_CHANGED, userId, -1, null, credentialCache.nextVersion()));
+                }
+            }
+        }
+        return result;
+    }
+    
+    private static InsertOutcome outcomeOf(int updateCount, boolean keyExisted) {
+        if (updateCount == 0) {
+            return InsertOutcome.DUPLICATE;
+        }
+        return keyExisted ? InsertOutcome.UPDATED : InsertOutcome.INSERTED;
+    }
+    
+    private void bindInsert(PreparedStatement pstmt, int userId, NewCredential row, String storedPassword,
+                            String fingerprint) throws SQLException {
+        pstmt.setInt(1, userId);
+        pstmt.setString(2, row.title);
+        pstmt.setString(3, row.username);
+        pstmt.setString(4, storedPassword);
+        pstmt.setString(5, row.notes);
+        pstmt.setInt(6, row.isFavorite ? 1 : 0);
+        pstmt.setString(7, row.category != null ? row.category : "Other");
+        pstmt.setString(8, row.websiteUrl);
+        pstmt.setString(9, row.expiryDate);
+        pstmt.setString(10, fingerprint);
+        bindStrength(pstmt, 11, row.password);
+    }
+    
+    /**
+     * Binds the strength class and score of a plaintext password to two consecutive parameters.
+     * Computed at write time so filters and counts never need the plaintext again.
+     */
+    private static void bindStrength(PreparedStatement pstmt, int index, String password) throws SQLException {
+        pstmt.setInt(index, StrengthChecker.checkStrength(password).ordinal());
+        pstmt.setInt(index + 1, StrengthChecker.computeScore(password));
+    }
+    
+    /**
+     * Duplicate-detection key for a (title, username) pair. Lowercases ASCII only,
+     * matching SQLite's built-in LOWER().
+     */
+    static String duplicateKey(String title, String username) {
+        return lowerAscii(title) + '\u0000' + lowerAscii(username);
+    }
+    
+    private static String lowerAscii(String value) {
+        if (value == null) {
+            return "";
+        }
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] = (char) (chars[i] + ('a' - 'A'));
+            }
+        }
+        return new String(chars);
+    }
+    
+    /**
+     * Sets how many rows {@link #insertCredentials(int, List)} writes per commit.
+     */
+    public void setBatchCommitSize(int batchCommitSize) {
+        this.batchCommitSize = Math.max(1, batchCommitSize);
+    }
+    
+    public int getBatchCommitSize() {
+        return batchCommitSize;
+    }
+
+    public void updateCredential(int id, String title, String username, String password) throws SQLException {
+        updateCredential(id, title, username, password, "", false, "Other", "", "");
+    }
+    
+    public void updateCredential(int id, String title, String username, String password, String notes, boolean isFavorite) throws SQLException {
+        updateCredential(id, title, username, password, notes, isFavorite, "Other", "", "");
+    }
+    
+    public void updateCredential(int id, String title, String username, String password, String notes, 
+                                boolean isFavorite, String category, String websiteUrl, String expiryDate) throws SQLException {
+        updateCredential(id, ANY_VERSION, title, username, password, notes, isFavorite, category, websiteUrl, expiryDate);
+    }
+    
+    /**
+     * Updates a credential in one statement, but only if it is still at {@code expectedVersion}.
+     * {@code last_password_change} moves only when the password fingerprint actually differs.
+     *
+     * @param expectedVersion The {@link Credential#version} the caller edited, or {@link #ANY_VERSION}
+     *                        to overwrite whatever is stored
+     * @throws StaleCredentialException If the credential was changed since the caller read it
+     * @throws SQLException If another credential already has this title and username, or the row is gone
+     */
+    public void updateCredential(int id, int expectedVersion, String title, String username, String password, String notes, 
+                                 boolean isFavorite, String category, String websiteUrl, String expiryDate) throws SQLException {
+        // A deferred favorite write must not land after (and undo) this update
+        metadataQueue.flush();
+        
+        // Encrypt password before storing
+        String encryptedPassword = password;
+        String fingerprint = null;
+        if (encryptionKey != null) {
+            try {
+                encryptedPassword = PasswordEncryption.encrypt(password, encryptionKey);
+                fingerprint = PasswordEncryption.fingerprint(password, fingerprintKey);
+            } catch (Exception e) {
+                throw new SQLException("Failed to encrypt password: " + e.getMessage(), e);
+            }
+        }
+        
+        VaultStore.CredentialRecord record = new VaultStore.CredentialRecord(
+            id, 0, title, username, encryptedPassword, fingerprint, notes, isFavorite,
+            category, websiteUrl, expiryDate,
+            StrengthChecker.checkStrength(password).ordinal(), StrengthChecker.computeScore(password));
+        VaultStore.CredentialRecord stored;
+        long changeVersion;
+        try (ConnectionPool.Lease _ = pool.writer()) {
+            stored = store.updateCredential(record, expectedVersion);
+            changeVersion = credentialCache.nextVersion();
+        }
+        int userId = stored.userId;
+        Credential updated = toCredential(stored);
+        publish(new ChangeEvent(ChangeEvent.Type.UPDATED, userId, id, updated, changeVersion));
+    }
+    
+    /**
+     * Computes the password fingerprint and strength of every credential of the user that lacks
+     * them (rows written before those columns existed). Both need the plaintext, so this runs
+     * once per vault at unlock rather than in the schema migration. Rows it writes that still
+     * hold a legacy CBC password are re-encrypted in the current format at the same time.
+     * A password that does not decrypt with the user's key gets no fingerprint or strength (it
+     * shows as unknown); its stored value is recorded in unreadable_passwords instead, so the row
+     * is skipped at later unlocks until its password is written again.
+     * Legacy values that look like the current format are re-encrypted first; see
+     * {@link #upgradeAmbiguousCiphertexts}.
+     *
+     * @return The number of rows that were filled in
+     */
+    public int backfillPasswordColumns(int userId) throws SQLException {
+        if (fingerprintKey == null) {
+            return 0;
+        }
+        upgradeAmbiguousCiphertexts(userId);
+        List<Integer> ids = new ArrayList<>();
+        List<String> ciphertexts = new ArrayList<>();
+        BulkDecryptor decryptor = new BulkDecryptor(encryptionKey);
+        String sql = "SELECT id, password FROM credentials c WHERE user_id = ? AND (password_fp IS NULL OR strength IS NULL) " +
+                     "AND NOT EXISTS (SELECT 1 FROM unreadable_passwords u WHERE u.credential_id = c.id AND u.password = c.password)";
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                    ciphertexts.add(rs.getString(2));
+                    decryptor.add(rs.getInt(1), rs.getString(2));
+                }
+            }
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        List<String> plaintexts;
+        try {
+            plaintexts = decryptor.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while decrypting passwords", e);
+        }
+        
+        int filled = 0;
+        int unreadable = 0;
+        // The password check skips rows edited since they were read
+        String update = "UPDATE credentials SET password = ?, password_fp = ?, strength = ?, strength_score = ? " +
+                        "WHERE id = ? AND password = ?";
+        String mark = "INSERT OR REPLACE INTO unreadable_passwords (credential_id, password) " +
+                      "SELECT id, password FROM credentials WHERE id = ? AND password = ?";
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            Connection conn = lease.connection();
+            PreparedStatement pstmt = lease.prepare(update);
+            PreparedStatement markStmt = lease.prepare(mark);
+            conn.setAutoCommit(false);
+            try {
+                for (int i = 0; i < ids.size(); i++) {
+                    String ciphertext = ciphertexts.get(i);
+                    String plaintext = plaintexts.get(i);
+                    // Decryption hands back the stored text when it fails, e.g. for a row written with another key
+                    boolean decrypted = ciphertext == null || ciphertext.isEmpty() || !ciphertext.equals(plaintext);
+                    if (!decrypted) {
+                        // Nothing derived from the ciphertext is stored; the marker stops the retries
+                        markStmt.setInt(1, ids.get(i));
+                        markStmt.setString(2, ciphertext);
+                        markStmt.addBatch();
+                        unreadable++;
+                        continue;
+                    }
+                    boolean legacy = ciphertext != null && !ciphertext.isEmpty()
+                                     && !PasswordEncryption.isCurrentFormat(ciphertext);
+                    pstmt.setString(1, legacy ? PasswordEncryption.encrypt(plaintext, encryptionKey) : ciphertext);
+                    pstmt.setString(2, PasswordEncryption.fingerprint(plaintext, fingerprintKey));
+                    bindStrength(pstmt, 3, plaintext);
+                    pstmt.setInt(5, ids.get(i));
+                    pstmt.setString(6, ciphertext);
+                    pstmt.addBatch();
+                }
+                for (int count : pstmt.executeBatch()) {
+                    filled += count;
+                }
+                if (unreadable > 0) {
+                    markStmt.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } catch (Exception e) {
+                conn.rollback();
+                throw new SQLException("Failed to fingerprint passwords: " + e.getMessage(), e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        if (filled > 0) {
+            // Cached rows were read without the new strength
+            credentialCache.invalidate(userId);
+        }
+        if (unreadable > 0) {
+            System.err.println("Warning: " + unreadable + " stored password(s) could not be decrypted; "
+                               + "their strength is unknown");
+        }
+        return filled;
+    }
+
+    /**
+     * Re-encrypts the user's passwords and attachments that migration 11 recorded as possibly
+     * legacy CBC although they start with the GCM format byte. PasswordEncryption reads such
+     * values as GCM only, so this is the one place where a value failing its tag check is tried
+     * as CBC, and only for values stored before the upgrade. Each recorded value is resolved
+     * once: re-encrypted if it is legacy, left alone if it is GCM or does not decrypt at all.
+     */
+    private void upgradeAmbiguousCiphertexts(int userId) throws SQLException {
+        List<Integer> passwordIds = new ArrayList<>();
+        List<String> passwords = new ArrayList<>();
+        List<Integer> attachmentIds = new ArrayList<>();
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(
+                "SELECT c.id, c.password FROM legacy_passwords l JOIN credentials c ON c.id = l.credential_id " +
+                "WHERE c.user_id = ? AND c.password = l.password");
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    passwordIds.add(rs.getInt(1));
+                    passwords.add(rs.getString(2));
+                }
+            }
+            pstmt = lease.prepare(
+                "SELECT a.id FROM legacy_attachments l JOIN attachments a ON a.id = l.attachment_id " +
+                "JOIN credentials c ON c.id = a.credential_id WHERE c.user_id = ?");
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    attachmentIds.add(rs.getInt(1));
+                }
+            }
+        }
+        if (passwordIds.isEmpty() && attachmentIds.isEmpty()) {
+            return;
+        }
+
+        int upgraded = 0;
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement update = lease.prepare(
+                    "UPDATE credentials SET password = ?, password_fp = ?, strength = ?, strength_score = ? " +
+                    "WHERE id = ? AND password = ?");
+                for (int i = 0; i < passwordIds.size(); i++) {
+                    String plaintext = decryptAmbiguous(passwords.get(i));
+                    if (plaintext != null) {
+                        update.setString(1, PasswordEncryption.encrypt(plaintext, encryptionKey));
+                        update.setString(2, PasswordEncryption.fingerprint(plaintext, fingerprintKey));
+                        bindStrength(update, 3, plaintext);
+                        update.setInt(5, passwordIds.get(i));
+                        update.setString(6, passwords.get(i));
+                        upgraded += update.executeUpdate();
+                    }
+                }
+                PreparedStatement read = lease.prepare("SELECT file_data FROM attachments WHERE id = ?");
+                PreparedStatement write = lease.prepare("UPDATE attachments SET file_data = ? WHERE id = ?");
+                for (int attachmentId : attachmentIds) {
+                    read.setInt(1, attachmentId);
+                    String stored = null;
+                    try (ResultSet rs = read.executeQuery()) {
+                        if (rs.next()) {
+                            stored = new String(rs.getBytes(1), StandardCharsets.UTF_8);
+                        }
+                    }
+                    String plaintext = stored != null ? decryptAmbiguous(stored) : null;
+                    if (plaintext != null) {
+                        write.setBytes(1, PasswordEncryption.encrypt(plaintext, encryptionKey).getBytes(StandardCharsets.UTF_8));
+                        write.setInt(2, attachmentId);
+                        upgraded += write.executeUpdate();
+                    }
+                }
+                PreparedStatement forget = lease.prepare(
+                    "DELETE FROM legacy_passwords WHERE credential_id IN (SELECT id FROM credentials WHERE user_id = ?)");
+                forget.setInt(1, userId);
+                forget.executeUpdate();
+                forget = lease.prepare(
+                    "DELETE FROM legacy_attachments WHERE attachment_id IN " +
+                    "(SELECT a.id FROM attachments a JOIN credentials c ON c.id = a.credential_id WHERE c.user_id = ?)");
+                forget.setInt(1, userId);
+                forget.executeUpdate();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } catch (Exception e) {
+                conn.rollback();
+                throw new SQLException("Failed to re-encrypt legacy values: " + e.getMessage(), e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        if (upgraded > 0) {
+            credentialCache.invalidate(userId);
+            System.out.println("Re-encrypted " + upgraded + " legacy value(s) that looked like the current format");
+        }
+    }
+
+    // The plaintext of a recorded value if it is legacy CBC; null if it is GCM or unreadable
+    private String decryptAmbiguous(String ciphertext) {
+        try {
+            PasswordEncryption.decrypt(ciphertext, encryptionKey);
+            return null;
+        } catch (AEADBadTagException e) {
+            try {
+                return PasswordEncryption.decryptLegacy(ciphertext, encryptionKey);
+            } catch (GeneralSecurityException legacyFailure) {
+                return null;
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Ids of the user's credentials whose password another of their credentials also uses, from
+     * one GROUP BY over the fingerprint index. Nothing is decrypted; rows without a fingerprint
+     * (not backfilled yet) are not counted.
+     */
+    public Set<Integer> findReusedPasswords(int userId) throws SQLException {
+        String sql = "SELECT id FROM credentials WHERE user_id = ? AND password_fp IN (" +
+                     "SELECT password_fp FROM credentials WHERE user_id = ? AND password_fp IS NOT NULL " +
+                     "GROUP BY password_fp HAVING COUNT(*) > 1)";
+        Set<Integer> ids = new HashSet<>();
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                }
+            }
+        }
+        return ids;
+    }
+    
+    /**
+     * How many of the user's other credentials already use this password, by one probe of the
+     * fingerprint index.
+     *
+     * @param excludeId The credential being edited, or -1 for a new one
+     * @return The count, or 0 while the vault is locked
+     */
+    public int countPasswordReuse(int userId, String password, int excludeId) throws SQLException {
+        if (fingerprintKey == null || password == null || password.isEmpty()) {
+            return 0;
+        }
+        String fingerprint;
+        try {
+            fingerprint = PasswordEncryption.fingerprint(password, fingerprintKey);
+        } catch (Exception e) {
+            throw new SQLException("Failed to fingerprint password: " + e.getMessage(), e);
+        }
+        String sql = "SELECT COUNT(*) FROM credentials WHERE user_id = ? AND password_fp = ? AND id != ?";
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, userId);
+            pstmt.setString(2, fingerprint);
+            pstmt.setInt(3, excludeId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    public void deleteCredential(int id) throws SQLException {
+        int userId = -1;
+        long version;
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement lookup = lease.prepare("SELECT user_id FROM credentials WHERE id = ?");
+            lookup.setInt(1, id);
+            try (ResultSet rs = lookup.executeQuery()) {
+                if (rs.next()) {
+                    userId = rs.getInt(1);
+                }
+            }
+            if (userId == -1) {
+                return;
+            }
+            store.deleteCredential(id);
+            version = credentialCache.nextVersion();
+        }
+        metadataQueue.discard(id);
+        plaintextCache.remove(id);
+        publish(new ChangeEvent(ChangeEvent.Type.DELETED, userId, id, null, version));
+    }
+    
+    /**
+     * Loads a single credential.
+     *
+     * @return The credential, or null if no row has this id
+     */
+    public Credential getCredential(int id) throws SQLException {
+        Credential cached = credentialCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        metadataQueue.flush();
+        VaultStore.CredentialRecord record = store.getCredential(id);
+        return record != null ? toCredential(record) : null;
+    }
+
+    // What the list needs. Notes can be long and are only shown in the edit dialog, so list rows
+    // leave them out and read them on demand, see Credential#getNotes() and #withNotes
+    private static final String LIST_COLUMNS =
+        "id, title, username, password, is_favorite, created_date, modified_date, " +
+        "COALESCE(category, 'Other') as category, " +
+        "COALESCE(website_url, '') as website_url, " +
+        "COALESCE(expiry_date, '') as expiry_date, " +
+        "COALESCE(last_password_change, created_date, datetime('now')) as last_password_change, " +
+        "version, strength, strength_score";
+    /** Ids per IN list when notes are read for many rows. */
+    private static final int NOTES_BATCH_SIZE = 500;
+
+    /**
+     * Every credential of a user, favorites first. Served from the session cache after the first call.
+     */
+    public List<Credential> getAllCredentials(int userId) throws SQLException {
+        List<Credential> cached = credentialCache.getAll(userId);
+        if (cached != null) {
+            return cached;
+        }
+        long readVersion = credentialCache.currentVersion();
+        metadataQueue.flush();
+        List<Credential> credentials = new ArrayList<>();
+        String sql = "SELECT " + LIST_COLUMNS + " " +
+                     "FROM credentials WHERE user_id = ? ORDER BY is_favorite DESC, modified_date DESC";
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    credentials.add(readCredential(rs));
+                }
+            }
+        }
+        credentialCache.load(userId, credentials, readVersion);
+        if (!duplicateIndex.isLoaded(userId)) {
+            duplicateIndex.load(userId, keysOf(credentials), readVersion);
+        }
+        return credentials;
+    }
+    
+    private static Map<Integer, String> keysOf(List<Credential> credentials) {
+        Map<Integer, String> keys = new HashMap<>();
+        for (Credential cred : credentials) {
+            keys.put(cred.id, duplicateKey(cred.title, cred.username));
+        }
+        return keys;
+    }
+    
+    /**
+     * Loads every credential of a user with all passwords already decrypted, for operations
+     * that need them all (export, health scan). Decryption runs in parallel with the query.
+     */
+    public List<Credential> getAllCredentialsDecrypted(int userId) throws SQLException {
+        List<Credential> cached = credentialCache.getAll(userId);
+        if (cached != null) {
+            return decryptAll(cached);
+        }
+        long readVersion = credentialCache.currentVersion();
+        metadataQueue.flush();
+        List<Credential> rows = new ArrayList<>();
+        BulkDecryptor decryptor = new BulkDecryptor(encryptionKey);
+        String sql = "SELECT " + LIST_COLUMNS + " " +
+                     "FROM credentials WHERE user_id = ? ORDER BY is_favorite DESC, modified_date DESC";
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Credential cred = readCredential(rs);
+                    rows.add(cred);
+                    decryptor.add(cred.id, cred.storedPassword);
+                }
+            }
+        }
+        credentialCache.load(userId, rows, readVersion);
+        return withPlaintexts(rows, decryptor);
+    }
+    
+    /**
+     * Decrypts the passwords of already loaded credentials in parallel.
+     *
+     * @return Copies of the credentials holding plaintext passwords, in the same order
+     */
+    public List<Credential> decryptAll(List<Credential> credentials) throws SQLException {
+        BulkDecryptor decryptor = new BulkDecryptor(encryptionKey);
+        for (Credential cred : credentials) {
+            decryptor.add(cred.id, cred.source != null ? cred.storedPassword : null);
+        }
+        return withPlaintexts(credentials, decryptor);
+    }
+    
+    private List<Credential> withPlaintexts(List<Credential> rows, BulkDecryptor decryptor) throws SQLException {
+        List<String> plaintexts;
+        try {
+            plaintexts = decryptor.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while decrypting passwords", e);
+        }
+        List<Credential> result = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Credential cred = rows.get(i);
+            result.add(cred.source == null ? cred : cred.withPlaintext(plaintexts.get(i)));
+        }
+        return result;
+    }
+    
+    // A LIST_COLUMNS row; its notes are read on demand
+    private Credential readCredential(ResultSet rs) throws SQLException {
+        int id = rs.getInt("id");
+        String title = rs.getString("title");
+        String username = rs.getString("username");
+        String encryptedPassword = rs.getString("password");
+        boolean isFavorite = rs.getInt("is_favorite") == 1;
+        String createdDate = rs.getString("created_date");
+        String modifiedDate = rs.getString("modified_date");
+        String category = rs.getString("category");
+        String websiteUrl = rs.getString("website_url");
+        String expiryDate = rs.getString("expiry_date");
+        String lastPasswordChange = rs.getString("last_password_change");
+        int version = rs.getInt("version");
+        int strength = rs.getInt("strength");
+        boolean strengthKnown = !rs.wasNull();
+        int strengthScore = rs.getInt("strength_score");
+        
+        // The password stays encrypted until someone asks for it
+        return new Credential(id, title, username, encryptedPassword, this, isFavorite, null,
+                              this, createdDate, modifiedDate,
+                              category, websiteUrl, expiryDate, lastPasswordChange, version,
+                              strengthKnown ? StrengthChecker.Strength.values()[strength] : null,
+                              strengthKnown ? strengthScore : -1);
+    }
+    
+    // A row as the store returns it, notes included
+    private Credential toCredential(VaultStore.CredentialRecord r) {
+        boolean rated = r.strength >= 0;
+        return new Credential(r.id, r.title, r.username, r.password, this, r.isFavorite, r.notes, null,
+                              r.createdDate, r.modifiedDate, r.category, r.websiteUrl, r.expiryDate,
+                              r.lastPasswordChange, r.version,
+                              rated ? StrengthChecker.Strength.values()[r.strength] : null,
+                              rated ? r.strengthScore : -1);
+    }
+    
+    /**
+     * Reads the notes of one credential, for rows loaded without them.
+     *
+     * @return The notes, or null if no row has this id
+     */
+    public String loadNotes(int id) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare("SELECT notes FROM credentials WHERE id = ?");
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+    
+    /**
+     * Reads the notes of many credentials with batched IN queries, for work that needs every
+     * note (export, editing).
+     *
+     * @return Copies of the credentials holding their notes, in the same order
+     */
+    public List<Credential> withNotes(List<Credential> credentials) throws SQLException {
+        Map<Integer, String> notes = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Credential cred : credentials) {
+            if (!cred.hasNotes()) {
+                missing.add(cred.id);
+            }
+        }
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            for (int start = 0; start < missing.size(); start += NOTES_BATCH_SIZE) {
+                List<Integer> batch = missing.subList(start, Math.min(missing.size(), start + NOTES_BATCH_SIZE));
+                // One cached statement per batch length; only the last batch differs
+                PreparedStatement pstmt = lease.prepare("SELECT id, notes FROM credentials WHERE id IN ("
+                                                        + "?, ".repeat(batch.size() - 1) + "?)");
+                for (int i = 0; i < batch.size(); i++) {
+                    pstmt.setInt(i + 1, batch.get(i));
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        notes.put(rs.getInt(1), rs.getString(2));
+                    }
+                }
+            }
+        }
+        List<Credential> result = new ArrayList<>(credentials.size());
+        for (Credential cred : credentials) {
+            result.add(cred.hasNotes() ? cred : cred.withNotes(notes.get(cred.id)));
+        }
+        return result;
+    }
+    
+    /**
+     * Ids of the user's credentials whose notes contain {@code text} (case-insensitive), so
+     * in-memory search can cover notes without holding them.
+     */
+    public Set<Integer> findNotesContaining(int userId, String text) throws SQLException {
+        String pattern = likePattern(text);
+        Set<Integer> ids = new HashSet<>();
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(
+                "SELECT id FROM credentials WHERE user_id = ? AND notes LIKE ? ESCAPE '\\'");
+            pstmt.setInt(1, userId);
+            pstmt.setString(2, pattern);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                }
+            }
+        }
+        return ids;
+    }
+    
+    /**
+     * Decrypts a stored password on first access, going through the plaintext cache.
+     */
+    private String revealPassword(int id, String encryptedPassword) {
+        SecretKey key = encryptionKey;
+        if (key == null || encryptedPassword == null || encryptedPassword.isEmpty()) {
+            return encryptedPassword;
+        }
+        String cached = plaintextCache.get(id, encryptedPassword);
+        if (cached != null) {
+            return cached;
+        }
+        String password;
+        try {
+            password = PasswordEncryption.decrypt(encryptedPassword, key);
+        } catch (AEADBadTagException e) {
+            // Current-format values are authenticated: this is a wrong key or an altered row,
+            // never a plain text password. Keep the stored value to avoid data loss.
+            System.err.println("Warning: Password of credential ID " + id + " failed its integrity check");
+            password = encryptedPassword;
+        } catch (Exception e) {
+            // A legacy value that fails might be a plain text password (migration case)
+            // Or wrong encryption key - keep encrypted value to avoid data loss
+            System.err.println("Warning: Failed to decrypt password for credential ID " + id + ": " + e.getMessage());
+            password = encryptedPassword;
+        }
+        plaintextCache.put(id, encryptedPassword, password);
+        return password;
+    }
+    
+    /**
+     * Fetches one page of credentials using keyset pagination: the page starts right after
+     * {@code after} in the query's sort order, so deep pages cost the same as the first one.
+     * Filtering and sorting run in SQL.
+     *
+     * @param userId The owner of the credentials
+     * @param query Filter and sort order
+     * @param after Cursor returned with the previous page, or null for the first page
+     * @param limit Maximum number of rows to return
+     * @return The page, whose {@code next} cursor is null when there are no more rows
+     */
+    public Page getCredentialPage(int userId, CredentialQuery query, PageCursor after, int limit) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT ").append(LIST_COLUMNS)
+            .append(", ").append(query.sort.keyExpression).append(" AS sort_key FROM credentials WHERE user_id = ?");
+        List<Object> params = new ArrayList<>();
+        params.add(userId);
+        appendFilters(sql, params, query);
+        metadataQueue.flush();
+        if (after != null) {
+            // Neither the row value (key, id) > (?, ?) nor key > ? OR (key = ? AND id > ?) becomes an
+            // index range once the values are parameters; a plain bound on the key followed by the
+            // tie-break does, so deep pages seek instead of walking every earlier row
+            String op = query.sort.ascending ? ">" : "<";
+            sql.append(" AND ").append(query.sort.keyExpression).append(" ").append(op).append("= ?")
+               .append(" AND (").append(query.sort.keyExpression).append(" ").append(op).append(" ? OR id ")
+               .append(op).append(" ?)");
+            params.add(after.sortKey);
+            params.add(after.sortKey);
+            params.add(after.id);
+        }
+        sql.append(" ORDER BY ").append(query.sort.orderBy()).append(" LIMIT ?");
+        params.add(limit);
+        return readPage(sql.toString(), params, limit);
+    }
+    
+    /**
+     * Fetches a page by position. Only used to jump into the middle of a result set when no
+     * cursor for the preceding page is known; sequential scrolling should use keyset pages.
+     */
+    public Page getCredentialPageAt(int userId, CredentialQuery query, int offset, int limit) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT ").append(LIST_COLUMNS)
+            .append(", ").append(query.sort.keyExpression).append(" AS sort_key FROM credentials WHERE user_id = ?");
+        List<Object> params = new ArrayList<>();
+        params.add(userId);
+        appendFilters(sql, params, query);
+        metadataQueue.flush();
+        sql.append(" ORDER BY ").append(query.sort.orderBy()).append(" LIMIT ? OFFSET ?");
+        params.add(limit);
+        params.add(offset);
+        return readPage(sql.toString(), params, limit);
+    }
+    
+    /**
+     * Counts the credentials matching a query's filters.
+     */
+    public int countCredentials(int userId, CredentialQuery query) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM credentials WHERE user_id = ?");
+        List<Object> params = new ArrayList<>();
+        params.add(userId);
+        appendFilters(sql, params, query);
+        metadataQueue.flush();
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql.toString());
+            bindAll(pstmt, params);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+    
+    private void appendFilters(StringBuilder sql, List<Object> params, CredentialQuery query) {
+        if (query.category != null) {
+            sql.append(" AND COALESCE(category, 'Other') = ?");
+            params.add(query.category);
+        }
+        if (query.favoritesOnly) {
+            sql.append(" AND is_favorite = 1");
+        }
+        if (query.strength != null) {
+            sql.append(" AND strength = ?");
+            params.add(query.strength.ordinal());
+        }
+        if (query.search != null && !query.search.isEmpty()) {
+            String pattern = likePattern(query.search);
+            sql.append(" AND (title LIKE ? ESCAPE '\\' OR username LIKE ? ESCAPE '\\' OR notes LIKE ? ESCAPE '\\')");
+            params.add(pattern);
+            params.add(pattern);
+            params.add(pattern);
+        }
+    }
+    
+    // Substring match for LIKE ... ESCAPE '\\'
+    private static String likePattern(String text) {
+        return "%" + text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+    
+    private Page readPage(String sql, List<Object> params, int limit) throws SQLException {
+        List<Credential> rows = new ArrayList<>();
+        PageCursor last = null;
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            bindAll(pstmt, params);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Credential cred = readCredential(rs);
+                    rows.add(cred);
+                    last = new PageCursor(rs.getObject("sort_key"), cred.id);
+                }
+            }
+        }
+        return new Page(rows, rows.size() < limit ? null : last);
+    }
+    
+    private static void bindAll(PreparedStatement pstmt, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            pstmt.setObject(i + 1, params.get(i));
+        }
+    }
+    
+    /**
+     * Flips the favorite flag in one statement. Like every other write it bumps the row version,
+     * so an edit started before the toggle fails as stale instead of undoing it.
+     */
+    public void toggleFavorite(int id) throws SQLException {
+        metadataQueue.flush();
+        String sql = "UPDATE credentials SET is_favorite = CASE WHEN is_favorite = 1 THEN 0 ELSE 1 END, " +
+                     "modified_date = datetime('now'), version = version + 1 WHERE id = ?";
+        long version;
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, id);
+            pstmt.executeUpdate();
+            version = credentialCache.nextVersion();
+        }
+        publishRow(ChangeEvent.Type.UPDATED, -1, id, version);
+    }
+    
+    /**
+     * Sets the favorite flag through the write-behind queue. Listeners are told right away with
+     * the updated row; the database write happens with the next flush.
+     *
+     * The queued write bumps the row version once per flush, so the published row carries the
+     * version it will have on disk unless it already joined a pending write.
+     *
+     * @param userId The owner of the credential
+     * @param credential The credential as currently shown
+     */
+    public void setFavorite(int userId, Credential credential, boolean favorite) throws SQLException {
+        Credential updated;
+        long version;
+        // Under the writer lease, so the event is ordered with the writes around it as in toggleFavorite
+        try (ConnectionPool.Lease _ = pool.writer()) {
+            boolean joined = metadataQueue.set(credential.id, "is_favorite", favorite ? 1 : 0);
+            int rowVersion = joined || credential.version == ANY_VERSION
+                ? credential.version : credential.version + 1;
+            updated = credential.withFavorite(favorite, rowVersion);
+            version = credentialCache.nextVersion();
+        }
+        publish(new ChangeEvent(ChangeEvent.Type.UPDATED, userId, credential.id, updated, version));
+    }
+    
+    /**
+     * Writes any deferred metadata updates now.
+     */
+    public void flushPendingWrites() throws SQLException {
+        metadataQueue.flush();
     }
     
-    public void insertCredential(int userId, String title, String username, String password, String notes, boolean isFavorite) throws SQLException {
-        insertCredential(userId, title, username, password, notes, isFavorite, "Other", "", "");
+    public CredentialCache getCredentialCache() {
+        return credentialCache;
     }
     
-    public void insertCredential(int userId, String title, String username, String password, String notes, 
-                                boolean isFavorite, String category, String websiteUrl, String expiryDate) throws SQLException {
-        
-        if (credentialExists(userId, title, username)) {
-            throw new SQLException("A credential with this title and username already exists!");
-        }
-        
-        // Encrypt password before storing
-        String encryptedPassword = password;
-        if (encryptionKey != null) {
-            try {
-                encryptedPassword = PasswordEncryption.encrypt(password, encryptionKey);
-            } catch (Exception e) {
-                throw new SQLException("Failed to encrypt password: " + e.getMessage(), e);
-            }
-        }
-        
-        String sql = "INSERT INTO credentials (user_id, title, username, password, notes, is_favorite, category, website_url, expiry_date, created_date, modified_date, last_password_change) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, datetime('now'), datetime('now'), datetime('now'))";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, userId);
-            pstmt.setString(2, title);
-            pstmt.setString(3, username);
-            pstmt.setString(4, encryptedPassword); // Store encrypted password
-            pstmt.setString(5, notes);
-            pstmt.setInt(6, isFavorite ? 1 : 0);
-            pstmt.setString(7, category != null ? category : "Other");
-            pstmt.setString(8, websiteUrl);
-            pstmt.setString(9, expiryDate);
-            pstmt.executeUpdate();
-        }
+    public MetadataWriteQueue getMetadataQueue() {
+        return metadataQueue;
     }
-
-    public void updateCredential(int id, String title, String username, String password) throws SQLException {
-        updateCredential(id, title, username, password, "", false, "Other", "", "");
+    
+    /**
+     * Registers a listener for credential changes. Listeners run synchronously on the thread
+     * that made the change, after it is committed.
+     */
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
     }
     
-    public void updateCredential(int id, String title, String username, String password, String notes, boolean isFavorite) throws SQLException {
-        updateCredential(id, title, username, password, notes, isFavorite, "Other", "", "");
+    public void removeChangeListener(ChangeListener listener) {
+        changeListeners.remove(listener);
     }
     
-    public void updateCredential(int id, String title, String username, String password, String notes, 
-                                boolean isFavorite, String category, String websiteUrl, String expiryDate) throws SQLException {
-        // Check for duplicates before updating (excluding the current credential)
-        String getUserIdSql = "SELECT user_id, password FROM credentials WHERE id = ?";
-        int userId = -1;
-        String oldEncryptedPassword = null;
-        try (PreparedStatement pstmt = connection.prepareStatement(getUserIdSql)) {
+    // Re-reads the committed row so the cache and listeners see exactly what the database holds
+    private void publishRow(ChangeEvent.Type type, int userId, int id, long version) throws SQLException {
+        String sql = "SELECT user_id, " + LIST_COLUMNS + " FROM credentials WHERE id = ?";
+        Credential row = null;
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
             pstmt.setInt(1, id);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                userId = rs.getInt("user_id");
-                oldEncryptedPassword = rs.getString("password");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    userId = rs.getInt("user_id");
+                    row = readCredential(rs);
+                }
             }
         }
-        
-        if (userId != -1 && credentialExistsExcludingId(userId, title, username, id)) {
-            throw new SQLException("A credential with this title and username already exists!");
+        if (row != null) {
+            publish(new ChangeEvent(type, userId, id, row, version));
         }
-        
-        // Encrypt password before storing
-        String encryptedPassword = password;
-        if (encryptionKey != null) {
+    }
+    
+    private void publish(ChangeEvent event) {
+        credentialCache.apply(event);
+        duplicateIndex.apply(event);
+        for (ChangeListener listener : changeListeners) {
             try {
-                encryptedPassword = PasswordEncryption.encrypt(password, encryptionKey);
-            } catch (Exception e) {
-                throw new SQLException("Failed to encrypt password: " + e.getMessage(), e);
+                listener.credentialChanged(event);
+            } catch (RuntimeException e) {
+                System.err.println("Warning: Change listener failed: " + e.getMessage());
             }
         }
-        
-        // Check if password changed to update last_password_change
-        boolean passwordChanged = !encryptedPassword.equals(oldEncryptedPassword);
-        
-        String sql = "UPDATE credentials SET title = ?, username = ?, password = ?, notes = ?, is_favorite = ?, category = ?, website_url = ?, expiry_date = ?, modified_date = datetime('now')" +
-                    (passwordChanged ? ", last_password_change = datetime('now')" : "") + " WHERE id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, title);
-            pstmt.setString(2, username);
-            pstmt.setString(3, encryptedPassword); // Store encrypted password
-            pstmt.setString(4, notes);
-            pstmt.setInt(5, isFavorite ? 1 : 0);
-            pstmt.setString(6, category != null ? category : "Other");
-            pstmt.setString(7, websiteUrl);
-            pstmt.setString(8, expiryDate);
-            pstmt.setInt(9, id);
-            pstmt.executeUpdate();
-        }
     }
-
-    public void deleteCredential(int id) throws SQLException {
-        String sql = "DELETE FROM credentials WHERE id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, id);
-            pstmt.executeUpdate();
-        }
-    }
-
-    public List<Credential> getAllCredentials(int userId) throws SQLException {
-        List<Credential> credentials = new ArrayList<>();
-        String sql = "SELECT id, title, username, password, is_favorite, notes, created_date, modified_date, " +
-                     "COALESCE(category, 'Other') as category, " +
-                     "COALESCE(website_url, '') as website_url, " +
-                     "COALESCE(expiry_date, '') as expiry_date, " +
-                     "COALESCE(last_password_change, created_date, datetime('now')) as last_password_change " +
-                     "FROM credentials WHERE user_id = ? ORDER BY is_favorite DESC, modified_date DESC";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, userId);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String title = rs.getString("title");
-                String username = rs.getString("username");
-                String encryptedPassword = rs.getString("password");
-                boolean isFavorite = rs.getInt("is_favorite") == 1;
-                String notes = rs.getString("notes");
-                String createdDate = rs.getString("created_date");
-                String modifiedDate = rs.getString("modified_date");
-                String category = rs.getString("category");
-                String websiteUrl = rs.getString("website_url");
-                String expiryDate = rs.getString("expiry_date");
-                String lastPasswordChange = rs.getString("last_password_change");
-                
-                // Decrypt password if encryption key is available
-                String password = encryptedPassword;
-                if (encryptionKey != null && encryptedPassword != null && !encryptedPassword.isEmpty()) {
-                    try {
-                        password = PasswordEncryption.decrypt(encryptedPassword, encryptionKey);
-                    } catch (Exception e) {
-                        // If decryption fails, it might be a plain text password (migration case)
-                        // Or wrong encryption key - keep encrypted value to avoid data loss
-                        System.err.println("Warning: Failed to decrypt password for credential ID " + id + ": " + e.getMessage());
-                        password = encryptedPassword;
-                    }
-                }
-                
-                credentials.add(new Credential(id, title, username, password, isFavorite, notes, createdDate, modifiedDate,
-                                              category, websiteUrl, expiryDate, lastPasswordChange));
-            }
-        }
-        return credentials;
+    
+    public ConnectionPool getConnectionPool() {
+        return pool;
     }
     
-    public void toggleFavorite(int id) throws SQLException {
-        String sql = "UPDATE credentials SET is_favorite = CASE WHEN is_favorite = 1 THEN 0 ELSE 1 END WHERE id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, id);
-            pstmt.executeUpdate();
-        }
+    /**
+     * The storage engine behind this vault, sharing its connection pool. Categories and
+     * attachments are kept through it.
+     */
+    public VaultStore getVaultStore() {
+        return store;
     }
     
-    public Connection getConnection() {
-        return connection;
+    /**
+     * Background reclamation of orphaned attachments and free pages for this file.
+     */
+    public MaintenanceScheduler getMaintenance() {
+        return maintenance;
     }
     
     /**
@@ -248,6 +1330,12 @@ public class Database {
      */
     public void setEncryptionKey(SecretKey key) {
         this.encryptionKey = key;
+        try {
+            this.fingerprintKey = key != null ? PasswordEncryption.deriveFingerprintKey(key) : null;
+        } catch (java.security.GeneralSecurityException e) {
+            System.err.println("Warning: Password fingerprints unavailable: " + e.getMessage());
+            this.fingerprintKey = null;
+        }
     }
     
     /**
@@ -260,14 +1348,26 @@ public class Database {
     }
     
     /**
-     * Clears the encryption key from memory for security.
+     * Clears the encryption key, every cached plaintext password and the credential cache from memory for security.
      * Should be called on logout or app close.
      */
     public void clearEncryptionKey() {
+        try {
+            metadataQueue.flush();
+        } catch (SQLException e) {
+            System.err.println("Warning: Failed to write pending metadata: " + e.getMessage());
+        }
+        plaintextCache.clear();
+        credentialCache.clear();
+        duplicateIndex.clear();
         if (encryptionKey != null) {
             PasswordEncryption.clearKey(encryptionKey);
             encryptionKey = null;
         }
+        if (fingerprintKey != null) {
+            PasswordEncryption.clearKey(fingerprintKey);
+            fingerprintKey = null;
+        }
     }
 
     /**
@@ -281,11 +1381,13 @@ public class Database {
     public void initializeDemoData(int userId) throws SQLException {
         // Check if user already has credentials
         String checkSql = "SELECT COUNT(*) FROM credentials WHERE user_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(checkSql)) {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(checkSql);
             pstmt.setInt(1, userId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next() && rs.getInt(1) > 0) {
-                return; // User already has data, don't initialize
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next() && rs.getInt(1) > 0) {
+                    return; // User already has data, don't initialize
+                }
             }
         }
         
@@ -316,47 +1418,466 @@ public class Database {
         System.out.println("Demo data initialized successfully for user ID: " + userId);
     }
     
+    /**
+     * Copies the live database into {@code target} with {@code VACUUM INTO}.
+     *
+     * The copy runs on a reader connection inside one read transaction, so it is a consistent
+     * snapshot and the UI keeps reading and writing meanwhile (in WAL mode a reader never blocks
+     * the writer), and it pauses for {@value #BACKUP_PAUSE_MS} ms every {@value #BACKUP_CHECKS_PER_PAUSE}
+     * progress checks so it does not take all of the disk. Pages are copied as stored: passwords and encrypted attachments stay encrypted
+     * with the user's key, and the result is itself a vault file, without free pages, that
+     * {@link #restoreFrom} or a new {@code Database} can open. The copy is written next to
+     * {@code target} and moved over it only once complete.
+     *
+     * Interrupting the calling thread stops the copy at its next progress check.
+     *
+     * @param listener Called as the copy grows, with an estimate from the size written so far; may be null
+     * @throws SQLException If the copy fails or the calling thread is interrupted
+     */
+    public void backupTo(Path target, BackupListener listener) throws SQLException {
+        metadataQueue.flush();
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            Files.deleteIfExists(partial); // VACUUM INTO refuses a non-empty target
+            vacuumInto(lease, partial, listener);
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new SQLException("Cannot write backup " + target + ": " + e.getMessage(), e);
+        } finally {
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException e) {
+                System.err.println("Warning: Failed to delete " + partial + ": " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Replaces the contents of this database with a file written by {@link #backupTo}, page by page.
+     * Holds the writer for the duration, then applies pending migrations (the backup may be older),
+     * drops every cache and tells listeners to reload.
+     *
+     * @param listener Called after every step; may be null
+     */
+    public void restoreFrom(Path source, BackupListener listener) throws SQLException {
+        if (!Files.isRegularFile(source)) {
+            throw new SQLException("Backup file not found: " + source);
+        }
+        metadataQueue.flush();
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            restorePages(lease, source, listener);
+        }
+        createSchema(pool, withUsers);
+        plaintextCache.clear();
+        credentialCache.clear();
+        duplicateIndex.clear();
+        
+        List<Integer> userIds = new ArrayList<>();
+        try (ConnectionPool.Lease lease = pool.reader();
+             ResultSet rs = lease.prepare("SELECT DISTINCT user_id FROM credentials").executeQuery()) {
+            while (rs.next()) {
+                userIds.add(rs.getInt(1));
+            }
+        }
+        for (int userId : userIds) {
+            publish(new ChangeEvent(ChangeEvent.Type.BULK_CHANGED, userId, -1, null, credentialCache.nextVersion()));
+        }
+    }
+    
+    private void vacuumInto(ConnectionPool.Lease lease, Path file, BackupListener listener) throws SQLException {
+        Connection conn = lease.connection();
+        int totalPages;
+        int pageSize;
+        try (Statement stmt = conn.createStatement()) {
+            totalPages = queryInt(stmt, "PRAGMA page_count");
+            pageSize = queryInt(stmt, "PRAGMA page_size");
+        }
+        Thread copier = Thread.currentThread();
+        if (copier.isInterrupted()) {
+            throw new SQLException("Backup cancelled");
+        }
+        // Runs inside the statement; returning non-zero makes SQLite abort it with SQLITE_INTERRUPT
+        ProgressHandler.setHandler(conn, BACKUP_PROGRESS_OPS, new ProgressHandler() {
+            private int checks;
+            private long nextReport = System.nanoTime();
+            
+            @Override
+            protected int progress() {
+                if (copier.isInterrupted()) {
+                    return 1;
+                }
+                long now = System.nanoTime();
+                if (listener != null && now - nextReport >= 0) {
+                    nextReport = now + TimeUnit.MILLISECONDS.toNanos(BACKUP_REPORT_INTERVAL_MS);
+                    try {
+                        long written = Files.size(file) / pageSize;
+                        reportProgress(listener, (int) Math.max(0, totalPages - written), totalPages);
+                    } catch (IOException e) {
+                        // progress is only an estimate, and the copy may not exist yet
+                    }
+                }
+                if (++checks % BACKUP_CHECKS_PER_PAUSE == 0) {
+                    // Returns early on interrupt, which the check below turns into a cancel
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(BACKUP_PAUSE_MS));
+                }
+                return copier.isInterrupted() ? 1 : 0;
+            }
+        });
+        // Readers are query_only, which also forbids writing the copy; this lease is ours alone
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA query_only = OFF");
+            try (PreparedStatement pstmt = conn.prepareStatement("VACUUM INTO ?")) {
+                pstmt.setString(1, file.toString());
+                pstmt.execute();
+            } catch (SQLException e) {
+                if (copier.isInterrupted()) {
+                    throw new SQLException("Backup cancelled", e);
+                }
+                throw e;
+            } finally {
+                stmt.execute("PRAGMA query_only = ON");
+                ProgressHandler.clearHandler(conn);
+            }
+        }
+        if (listener != null) {
+            reportProgress(listener, 0, totalPages);
+        }
+    }
+    
+    // Copies the file into the lease's database with SQLite's backup API. Runs to completion:
+    // the native step loop cannot be stopped from Java, and the writer is held throughout anyway.
+    private void restorePages(ConnectionPool.Lease lease, Path file, BackupListener listener) throws SQLException {
+        DB db = lease.connection().unwrap(SQLiteConnection.class).getDatabase();
+        DB.ProgressObserver observer = listener == null ? null : (remaining, total) -> reportProgress(listener, remaining, total);
+        int rc = db.restore("main", file.toString(), observer, BACKUP_BUSY_SLEEP_MS, BACKUP_BUSY_RETRIES, BACKUP_PAGES_PER_STEP);
+        if (rc != SQLiteErrorCode.SQLITE_OK.code) {
+            throw new SQLException("Restore failed: " + SQLiteErrorCode.getErrorCode(rc).message);
+        }
+    }
+    
+    // Listeners are called back from native code, where an exception must not escape
+    private static void reportProgress(BackupListener listener, int remaining, int total) {
+        try {
+            listener.progress(remaining, total);
+        } catch (RuntimeException e) {
+            System.err.println("Warning: Backup progress listener failed: " + e.getMessage());
+        }
+    }
+    
+    private static int queryInt(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+    
     public void close() {
         try {
             // Clear encryption key before closing
             clearEncryptionKey();
-            
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-            }
-        } catch (SQLException e) {
+            release();
+        } catch (Exception e) {
             System.err.println("Error closing database: " + e.getMessage());
         }
     }
+    
+    // Stops the background writers and closes the connections; also used when opening fails
+    private void release() {
+        if (metadataQueue != null) {
+            metadataQueue.close();
+        }
+        if (maintenance != null) {
+            maintenance.close();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+    /**
+     * Thrown by a versioned update when the credential was modified after the caller read it.
+     */
+    public static class StaleCredentialException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        public final int credentialId;
+        public final int currentVersion;
+        
+        StaleCredentialException(int credentialId, int currentVersion) {
+            super("This credential was changed elsewhere. Reload it and try again.");
+            this.credentialId = credentialId;
+            this.currentVersion = currentVersion;
+        }
+    }
+    
+    /**
+     * Progress of {@link #backupTo} or {@link #restoreFrom}, reported on the copying thread.
+     */
+    public interface BackupListener {
+        void progress(int remainingPages, int totalPages);
+    }
+    
+    public interface ChangeListener {
+        void credentialChanged(ChangeEvent event);
+    }
+    
+    /**
+     * A committed change to the credentials table.
+     */
+    public static class ChangeEvent {
+        /** BULK_CHANGED covers batch writes; listeners should reload rather than apply deltas. */
+        public enum Type { INSERTED, UPDATED, DELETED, BULK_CHANGED }
+        
+        public final Type type;
+        public final int userId;
+        public final int credentialId; // -1 for BULK_CHANGED
+        // The row as stored now; null for DELETED and BULK_CHANGED. Inserts and updates, the only
+        // events that can change notes, carry the notes too (see Credential#getLoadedNotes)
+        public final Credential credential;
+        public final long version; // orders events; see CredentialCache
+        
+        ChangeEvent(Type type, int userId, int credentialId, Credential credential, long version) {
+            this.type = type;
+            this.userId = userId;
+            this.credentialId = credentialId;
+            this.credential = credential;
+            this.version = version;
+        }
+    }
+    
+    /**
+     * A credential to be inserted, with its password still in plaintext.
+     */
+    public static class NewCredential {
+        public final String title;
+        public final String username;
+        public final String password;
+        public final String notes;
+        public final boolean isFavorite;
+        public final String category;
+        public final String websiteUrl;
+        public final String expiryDate;
+        
+        public NewCredential(String title, String username, String password, String notes,
+                             boolean isFavorite, String category, String websiteUrl, String expiryDate) {
+            this.title = title;
+            this.username = username;
+            this.password = password;
+            this.notes = notes;
+            this.isFavorite = isFavorite;
+            this.category = category;
+            this.websiteUrl = websiteUrl;
+            this.expiryDate = expiryDate;
+        }
+    }
+    
+    /** UPDATED is only produced by the OVERWRITE and MERGE import modes. */
+    public enum InsertOutcome { INSERTED, UPDATED, DUPLICATE, FAILED }
+    
+    /**
+     * What a batch insert does with a row whose title and username already exist.
+     */
+    public enum ImportMode {
+        /** Keep the existing credential and drop the new row. */
+        SKIP("DO NOTHING"),
+        /** Replace every field of the existing credential with the new row. */
+        OVERWRITE("DO UPDATE SET title = excluded.title, username = excluded.username, password = excluded.password, " +
+                  "notes = excluded.notes, is_favorite = excluded.is_favorite, category = excluded.category, " +
+                  "website_url = excluded.website_url, expiry_date = excluded.expiry_date, password_fp = excluded.password_fp, " +
+                  "strength = excluded.strength, strength_score = excluded.strength_score, " +
+                  "last_password_change = CASE WHEN password_fp = excluded.password_fp THEN last_password_change ELSE datetime('now') END, " +
+                  "modified_date = datetime('now'), version = version + 1"),
+        /** Keep the existing password and fill only the fields that are empty. */
+        MERGE("DO UPDATE SET notes = COALESCE(NULLIF(notes, ''), excluded.notes), " +
+              "website_url = COALESCE(NULLIF(website_url, ''), excluded.website_url), " +
+              "category = CASE WHEN category IS NULL OR category IN ('', 'Other') THEN excluded.category ELSE category END, " +
+              "expiry_date = COALESCE(NULLIF(expiry_date, ''), excluded.expiry_date), " +
+              "is_favorite = MAX(COALESCE(is_favorite, 0), excluded.is_favorite), modified_date = datetime('now'), " +
+              "version = version + 1");
+        
+        final String conflictAction;
+        
+        ImportMode(String conflictAction) {
+            this.conflictAction = conflictAction;
+        }
+    }
+    
+    /**
+     * Per-row outcomes of a batch insert, in input order.
+     */
+    public static class BatchResult {
+        private final InsertOutcome[] outcomes;
+        private final String[] errors;
+        public int inserted;
+        public int updated;
+        public int duplicates;
+        public int failed;
+        
+        BatchResult(int size) {
+            this.outcomes = new InsertOutcome[size];
+            this.errors = new String[size];
+        }
+        
+        void set(int index, InsertOutcome outcome, String error) {
+            outcomes[index] = outcome;
+            errors[index] = error;
+            switch (outcome) {
+                case INSERTED -> inserted++;
+                case UPDATED -> updated++;
+                case DUPLICATE -> duplicates++;
+                case FAILED -> failed++;
+            }
+        }
+        
+        public InsertOutcome getOutcome(int index) {
+            return outcomes[index];
+        }
+        
+        /**
+         * @return The failure reason for a FAILED row, otherwise null
+         */
+        public String getError(int index) {
+            return errors[index];
+        }
+        
+        public List<InsertOutcome> getOutcomes() {
+            return Collections.unmodifiableList(Arrays.asList(outcomes));
+        }
+        
+        public int size() {
+            return outcomes.length;
+        }
+    }
+    
+    /**
+     * Sort orders that can run in SQL. Each order has a single sort key plus the row id as a
+     * tie-breaker, both in the same direction, so a page boundary is one row-value comparison.
+     */
+    public enum SortOrder {
+        FAVORITE_FIRST("(COALESCE(is_favorite, 0) || COALESCE(modified_date, ''))", false),
+        TITLE_ASC("title COLLATE NOCASE", true),
+        TITLE_DESC("title COLLATE NOCASE", false),
+        USERNAME_ASC("username COLLATE NOCASE", true),
+        USERNAME_DESC("username COLLATE NOCASE", false),
+        MODIFIED_ASC("COALESCE(modified_date, '')", true),
+        MODIFIED_DESC("COALESCE(modified_date, '')", false),
+        CREATED_ASC("COALESCE(created_date, '')", true),
+        CREATED_DESC("COALESCE(created_date, '')", false);
+        
+        final String keyExpression;
+        final boolean ascending;
+        
+        SortOrder(String keyExpression, boolean ascending) {
+            this.keyExpression = keyExpression;
+            this.ascending = ascending;
+        }
+        
+        String orderBy() {
+            String dir = ascending ? " ASC" : " DESC";
+            return keyExpression + dir + ", id" + dir;
+        }
+    }
+    
+    /**
+     * Filter and sort order for paginated credential queries. Null filters match everything.
+     */
+    public static class CredentialQuery {
+        public static final CredentialQuery ALL = new CredentialQuery(null, false, null, SortOrder.FAVORITE_FIRST);
+        
+        public final String category;
+        public final boolean favoritesOnly;
+        public final String search;
+        public final SortOrder sort;
+        public final StrengthChecker.Strength strength; // null for any strength
+        
+        public CredentialQuery(String category, boolean favoritesOnly, String search, SortOrder sort) {
+            this(category, favoritesOnly, search, sort, null);
+        }
+        
+        public CredentialQuery(String category, boolean favoritesOnly, String search, SortOrder sort,
+                               StrengthChecker.Strength strength) {
+            this.category = category;
+            this.favoritesOnly = favoritesOnly;
+            this.search = search;
+            this.sort = sort != null ? sort : SortOrder.FAVORITE_FIRST;
+            this.strength = strength;
+        }
+    }
+    
+    /**
+     * Position just after the last row of a page.
+     */
+    public static class PageCursor {
+        final Object sortKey;
+        final int id;
+        
+        PageCursor(Object sortKey, int id) {
+            this.sortKey = sortKey;
+            this.id = id;
+        }
+    }
+    
+    public static class Page {
+        public final List<Credential> rows;
+        public final PageCursor next;
+        
+        Page(List<Credential> rows, PageCursor next) {
+            this.rows = rows;
+            this.next = next;
+        }
+    }
+    
+    /**
+     * A stored credential. Rows read from the database carry the encrypted password and
+     * decrypt it on the first call to {@link #getPassword()}. List rows are read without their
+     * notes, which {@link #getNotes()} fetches when first asked for.
+     */
     public static class Credential {
         public final int id;
         public final String title;
         public final String username;
-        public final String password;
+        private final String storedPassword;
+        private final Database source; // null when storedPassword is already plaintext
         public final boolean isFavorite;
-        public final String notes;
+        private final String notes;
+        private final Database notesSource; // set while the notes have not been read
+        private volatile String loadedNotes;
         public final String createdDate;
         public final String modifiedDate;
         public final String category;
         public final String websiteUrl;
         public final String expiryDate;
         public final String lastPasswordChange;
+        public final int version; // row version for optimistic updates; ANY_VERSION if not read from the database
+        public final StrengthChecker.Strength strength; // as stored at write time; null if not computed yet
+        public final int strengthScore; // StrengthChecker.computeScore, or -1 with a null strength
 
         public Credential(int id, String title, String username, String password, 
                          boolean isFavorite, String notes, String createdDate, String modifiedDate,
                          String category, String websiteUrl, String expiryDate, String lastPasswordChange) {
+            this(id, title, username, password, null, isFavorite, notes, null, createdDate, modifiedDate,
+                 category, websiteUrl, expiryDate, lastPasswordChange, ANY_VERSION, null, -1);
+        }
+        
+        Credential(int id, String title, String username, String storedPassword, Database source,
+                   boolean isFavorite, String notes, Database notesSource, String createdDate, String modifiedDate,
+                   String category, String websiteUrl, String expiryDate, String lastPasswordChange, int version,
+                   StrengthChecker.Strength strength, int strengthScore) {
             this.id = id;
             this.title = title;
             this.username = username;
-            this.password = password;
+            this.storedPassword = storedPassword;
+            this.source = source;
             this.isFavorite = isFavorite;
             this.notes = notes;
+            this.notesSource = notesSource;
             this.createdDate = createdDate;
             this.modifiedDate = modifiedDate;
             this.category = category != null ? category : "Other";
             this.websiteUrl = websiteUrl != null ? websiteUrl : "";
             this.expiryDate = expiryDate != null ? expiryDate : "";
             this.lastPasswordChange = lastPasswordChange != null ? lastPasswordChange : createdDate;
+            this.version = version;
+            this.strength = strength;
+            this.strengthScore = strengthScore;
         }
         
         // Legacy constructor for backward compatibility
@@ -370,5 +1891,86 @@ public class Database {
         public Credential(int id, String title, String username, String password) {
             this(id, title, username, password, false, "", "", "", "Other", "", "", "");
         }
+        
+        Credential withFavorite(boolean favorite, int rowVersion) {
+            return new Credential(id, title, username, storedPassword, source, favorite, notes, notesSource,
+                                  createdDate, modifiedDate, category, websiteUrl, expiryDate, lastPasswordChange, rowVersion,
+                                  strength, strengthScore);
+        }
+        
+        Credential withPlaintext(String password) {
+            return new Credential(id, title, username, password, null, isFavorite, notes, notesSource,
+                                  createdDate, modifiedDate, category, websiteUrl, expiryDate, lastPasswordChange, version,
+                                  strength, strengthScore);
+        }
+        
+        Credential withNotes(String notes) {
+            return new Credential(id, title, username, storedPassword, source, isFavorite, notes, null,
+                                  createdDate, modifiedDate, category, websiteUrl, expiryDate, lastPasswordChange, version,
+                                  strength, strengthScore);
+        }
+        
+        /**
+         * @return Whether the notes are held by this object, so {@link #getNotes()} does not query
+         */
+        public boolean hasNotes() {
+            return notesSource == null || loadedNotes != null;
+        }
+        
+        /**
+         * The notes if this object holds them, otherwise null. Unlike {@link #getNotes()} this
+         * never queries, so it is safe on the event dispatch thread.
+         */
+        public String getLoadedNotes() {
+            return notesSource == null ? notes : loadedNotes;
+        }
+        
+        /**
+         * The notes, read from the database on the first call for rows loaded without them.
+         * Returns null if they cannot be read; callers that must not lose notes (editing) load
+         * them up front with {@link Database#withNotes}.
+         */
+        public String getNotes() {
+            if (notesSource == null) {
+                return notes;
+            }
+            String cached = loadedNotes;
+            if (cached == null) {
+                try {
+                    cached = notesSource.loadNotes(id);
+                } catch (SQLException e) {
+                    System.err.println("Warning: Failed to load notes for credential ID " + id + ": " + e.getMessage());
+                    return null;
+                }
+                if (cached == null) {
+                    cached = ""; // row deleted since it was listed
+                }
+                loadedNotes = cached;
+            }
+            return cached;
+        }
+        
+        /**
+         * The strength class, from the stored column when it is filled and otherwise computed from
+         * the password (which decrypts it). Null when the password cannot be decrypted, rather
+         * than a rating of the ciphertext.
+         */
+        public StrengthChecker.Strength getStrength() {
+            if (strength != null) {
+                return strength;
+            }
+            String password = getPassword();
+            boolean unreadable = source != null && storedPassword != null && !storedPassword.isEmpty()
+                                 && storedPassword.equals(password);
+            return unreadable ? null : StrengthChecker.checkStrength(password);
+        }
+        
+        /**
+         * The plaintext password, decrypted on demand. Returns the stored value unchanged if
+         * the vault is locked or the value cannot be decrypted (legacy plaintext rows).
+         */
+        public String getPassword() {
+            return source != null ? source.revealPassword(id, storedPassword) : storedPassword;
+        }
     }
 }
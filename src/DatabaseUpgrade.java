@@ -1,90 +1,378 @@
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.List;
 
 /**
- * Database upgrade utility to add new columns for enhanced features
+ * Versioned schema migrations.
+ *
+ * The applied schema version is stored in SQLite's {@code PRAGMA user_version}. On startup only
+ * the migrations newer than that version run, each in its own transaction together with the
+ * version bump, so an up-to-date database costs a single pragma read. Steps that SQLite refuses to
+ * run inside a transaction (VACUUM) are marked non-transactional; they must be safe to repeat,
+ * since the version is only bumped after they finish.
+ * New migrations are appended to {@link #MIGRATIONS}; never renumber or edit a released one.
  */
 public class DatabaseUpgrade {
-    
+
+    @FunctionalInterface
+    private interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final Step step;
+        final boolean transactional;
+
+        Migration(int version, String description, Step step) {
+            this(version, description, step, true);
+        }
+
+        Migration(int version, String description, Step step, boolean transactional) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+            this.transactional = transactional;
+        }
+    }
+
+    private static final List<Migration> MIGRATIONS = List.of(
+        new Migration(1, "credential columns for categories, websites, expiry and password age",
+                      DatabaseUpgrade::addCredentialColumns),
+        new Migration(2, "custom_categories and attachments tables",
+                      DatabaseUpgrade::createCategoriesAndAttachmentsTables),
+        new Migration(3, "indexes for paginated credential queries",
+                      DatabaseUpgrade::createSortIndexes),
+        new Migration(4, "normalized title/username keys with a unique index",
+                      DatabaseUpgrade::addNormalizedKeys),
+        new Migration(5, "row version and password fingerprint columns",
+                      DatabaseUpgrade::addVersionAndFingerprint),
+        new Migration(6, "incremental auto-vacuum",
+                      DatabaseUpgrade::enableIncrementalVacuum, false),
+        new Migration(7, "password strength columns with an index for strength filters",
+                      DatabaseUpgrade::addStrengthColumns),
+        new Migration(8, "index on password fingerprints for reuse checks",
+                      DatabaseUpgrade::createFingerprintIndex),
+        new Migration(9, "index on attachment owners for cascading deletes",
+                      DatabaseUpgrade::createAttachmentOwnerIndex),
+        new Migration(10, "unreadable_passwords table for passwords the backfill cannot decrypt",
+                      DatabaseUpgrade::createUnreadablePasswordsTable),
+        new Migration(11, "record legacy CBC values that look like the current format",
+                      DatabaseUpgrade::recordAmbiguousCiphertexts)
+    );
+
     public static void upgradeDatabase(Connection conn) throws SQLException {
-        // Add new columns to credentials table if they don't exist
+        int current = getSchemaVersion(conn);
+        int latest = getLatestVersion();
+        if (current >= latest) {
+            return;
+        }
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version <= current) {
+                    continue;
+                }
+                try {
+                    if (!migration.transactional) {
+                        conn.setAutoCommit(true);
+                    }
+                    migration.step.apply(conn);
+                    conn.setAutoCommit(false);
+                    try (Statement stmt = conn.createStatement()) {
+                        stmt.execute("PRAGMA user_version = " + migration.version);
+                    }
+                    conn.commit();
+                    System.out.println("✅ Applied migration " + migration.version + ": " + migration.description);
+                } catch (SQLException e) {
+                    if (!conn.getAutoCommit()) {
+                        conn.rollback();
+                    }
+                    throw new SQLException("Migration " + migration.version + " (" + migration.description
+                                           + ") failed: " + e.getMessage(), e);
+                }
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        System.out.println("✅ Database upgraded to schema version " + latest);
+    }
+
+    /**
+     * @return The schema version recorded in the database file (0 for a database that predates migrations)
+     */
+    public static int getSchemaVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    public static int getLatestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    // Version 1. Databases from before versioning may already have some of these columns.
+    private static void addCredentialColumns(Connection conn) throws SQLException {
+        addColumnIfNotExists(conn, "credentials", "notes", "TEXT");
+        addColumnIfNotExists(conn, "credentials", "is_favorite", "INTEGER DEFAULT 0");
+        addColumnIfNotExists(conn, "credentials", "created_date", "TEXT");
+        addColumnIfNotExists(conn, "credentials", "modified_date", "TEXT");
         addColumnIfNotExists(conn, "credentials", "category", "TEXT");
         addColumnIfNotExists(conn, "credentials", "website_url", "TEXT");
         addColumnIfNotExists(conn, "credentials", "expiry_date", "TEXT");
         addColumnIfNotExists(conn, "credentials", "last_password_change", "TEXT");
-        
+
         // Set default values for existing NULL entries
-        setDefaultValues(conn);
-        
-        // Create categories table for custom categories
-        createCategoriesTable(conn);
-        
-        // Create attachments table
-        createAttachmentsTable(conn);
-        
-        System.out.println("✅ Database upgraded successfully!");
-    }
-    
-    private static void setDefaultValues(Connection conn) throws SQLException {
-        // Set default category
-        String sql1 = "UPDATE credentials SET category = 'Other' WHERE category IS NULL";
         try (Statement stmt = conn.createStatement()) {
-            stmt.execute(sql1);
-        }
-        
-        // Set default last_password_change to created_date or current time
-        String sql2 = "UPDATE credentials SET last_password_change = COALESCE(created_date, datetime('now')) WHERE last_password_change IS NULL";
-        try (Statement stmt = conn.createStatement()) {
-            stmt.execute(sql2);
+            stmt.execute("UPDATE credentials SET category = 'Other' WHERE category IS NULL");
+            stmt.execute("UPDATE credentials SET last_password_change = COALESCE(created_date, datetime('now')) WHERE last_password_change IS NULL");
         }
     }
-    
+
     private static void addColumnIfNotExists(Connection conn, String tableName, String columnName, String columnDef) throws SQLException {
-        // Check if column exists
-        DatabaseMetaData metadata = conn.getMetaData();
-        ResultSet rs = metadata.getColumns(null, null, tableName, columnName);
-        
-        if (!rs.next()) {
-            // Column doesn't exist, add it
+        boolean exists;
+        try (ResultSet rs = conn.getMetaData().getColumns(null, null, tableName, columnName)) {
+            exists = rs.next();
+        }
+        if (!exists) {
             String sql = String.format("ALTER TABLE %s ADD COLUMN %s %s", tableName, columnName, columnDef);
             try (Statement stmt = conn.createStatement()) {
                 stmt.execute(sql);
-                System.out.println("✅ Added column: " + tableName + "." + columnName);
             }
-        } else {
-            System.out.println("ℹ️  Column already exists: " + tableName + "." + columnName);
-        }
-        rs.close();
-    }
-    
-    private static void createCategoriesTable(Connection conn) throws SQLException {
-        String sql = "CREATE TABLE IF NOT EXISTS custom_categories (" +
-                     "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                     "user_id INTEGER NOT NULL," +
-                     "category_name TEXT NOT NULL," +
-                     "color TEXT," +
-                     "FOREIGN KEY (user_id) REFERENCES users(id)," +
-                     "UNIQUE(user_id, category_name)" +
-                     ")";
+        }
+    }
+
+    // Version 2
+    private static void createCategoriesAndAttachmentsTables(Connection conn) throws SQLException {
+        String categories = "CREATE TABLE IF NOT EXISTS custom_categories (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                            "user_id INTEGER NOT NULL," +
+                            "category_name TEXT NOT NULL," +
+                            "color TEXT," +
+                            "FOREIGN KEY (user_id) REFERENCES users(id)," +
+                            "UNIQUE(user_id, category_name)" +
+                            ")";
+        String attachments = "CREATE TABLE IF NOT EXISTS attachments (" +
+                             "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                             "credential_id INTEGER NOT NULL," +
+                             "filename TEXT NOT NULL," +
+                             "file_data BLOB NOT NULL," +
+                             "file_size INTEGER NOT NULL," +
+                             "encrypted BOOLEAN DEFAULT 1," +
+                             "upload_date TEXT DEFAULT (datetime('now'))," +
+                             "FOREIGN KEY (credential_id) REFERENCES credentials(id) ON DELETE CASCADE" +
+                             ")";
         try (Statement stmt = conn.createStatement()) {
-            stmt.execute(sql);
-            System.out.println("✅ Created custom_categories table");
-        }
-    }
-    
-    private static void createAttachmentsTable(Connection conn) throws SQLException {
-        String sql = "CREATE TABLE IF NOT EXISTS attachments (" +
-                     "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                     "credential_id INTEGER NOT NULL," +
-                     "filename TEXT NOT NULL," +
-                     "file_data BLOB NOT NULL," +
-                     "file_size INTEGER NOT NULL," +
-                     "encrypted BOOLEAN DEFAULT 1," +
-                     "upload_date TEXT DEFAULT (datetime('now'))," +
-                     "FOREIGN KEY (credential_id) REFERENCES credentials(id) ON DELETE CASCADE" +
-                     ")";
+            stmt.execute(categories);
+            stmt.execute(attachments);
+        }
+    }
+
+    // Version 3. Each index matches a Database.SortOrder key expression exactly, with id as tie-breaker.
+    private static void createSortIndexes(Connection conn) throws SQLException {
+        String[] sqls = {
+            "CREATE INDEX IF NOT EXISTS idx_credentials_user_favorite ON credentials (user_id, (COALESCE(is_favorite, 0) || COALESCE(modified_date, '')), id)",
+            "CREATE INDEX IF NOT EXISTS idx_credentials_user_title ON credentials (user_id, title COLLATE NOCASE, id)",
+            "CREATE INDEX IF NOT EXISTS idx_credentials_user_username ON credentials (user_id, username COLLATE NOCASE, id)",
+            "CREATE INDEX IF NOT EXISTS idx_credentials_user_modified ON credentials (user_id, COALESCE(modified_date, ''), id)",
+            "CREATE INDEX IF NOT EXISTS idx_credentials_user_created ON credentials (user_id, COALESCE(created_date, ''), id)"
+        };
         try (Statement stmt = conn.createStatement()) {
-            stmt.execute(sql);
-            System.out.println("✅ Created attachments table");
+            for (String sql : sqls) {
+                stmt.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * Original titles of credentials renamed because they duplicated an older credential's title
+     * and username; {@link Database#getRenamedCredentials} reports them to the user.
+     */
+    static final String CREATE_RENAMED_TABLE =
+        "CREATE TABLE IF NOT EXISTS renamed_credentials (" +
+        "credential_id INTEGER PRIMARY KEY," +
+        "original_title TEXT NOT NULL" +
+        ")";
+
+    /**
+     * Renames the credentials that duplicate an older credential's key to "title (id)", or
+     * "title (id-2)", "title (id-3)"... when a credential already has that key, and records their
+     * original titles in renamed_credentials. A renamed row is no longer a duplicate, so the query
+     * for the next one simply runs again.
+     *
+     * @param table The table holding the rows
+     * @param nextDuplicate Query for the id, user_id, title and username of one remaining duplicate
+     * @param taken Query with parameters ?1 user id, ?2 title, ?3 username that returns a row if that key is in use
+     * @return How many credentials were renamed
+     */
+    static int renameDuplicates(Connection conn, String table, String nextDuplicate, String taken) throws SQLException {
+        int renamed = 0;
+        try (Statement next = conn.createStatement();
+             PreparedStatement inUse = conn.prepareStatement(taken);
+             PreparedStatement remember = conn.prepareStatement(
+                 "INSERT OR REPLACE INTO main.renamed_credentials (credential_id, original_title) VALUES (?, ?)");
+             PreparedStatement rename = conn.prepareStatement("UPDATE " + table + " SET title = ? WHERE id = ?")) {
+            while (true) {
+                int id;
+                int userId;
+                String title;
+                String username;
+                try (ResultSet rs = next.executeQuery(nextDuplicate)) {
+                    if (!rs.next()) {
+                        return renamed;
+                    }
+                    id = rs.getInt(1);
+                    userId = rs.getInt(2);
+                    title = rs.getString(3);
+                    username = rs.getString(4);
+                }
+                String newTitle = title + " (" + id + ")";
+                for (int n = 2; isTaken(inUse, userId, newTitle, username); n++) {
+                    newTitle = title + " (" + id + "-" + n + ")";
+                }
+                remember.setInt(1, id);
+                remember.setString(2, title);
+                remember.executeUpdate();
+                rename.setString(1, newTitle);
+                rename.setInt(2, id);
+                rename.executeUpdate();
+                renamed++;
+            }
+        }
+    }
+
+    private static boolean isTaken(PreparedStatement taken, int userId, String title, String username) throws SQLException {
+        taken.setInt(1, userId);
+        taken.setString(2, title);
+        taken.setString(3, username);
+        try (ResultSet rs = taken.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    // Version 4. The key columns are generated, so every writer keeps them right without extra code.
+    // Older databases could hold duplicates; all but the oldest copy get the row id appended to the
+    // title, and the original title is kept in renamed_credentials until the user has seen it.
+    private static void addNormalizedKeys(Connection conn) throws SQLException {
+        String duplicate = " WHERE EXISTS (" +
+            "SELECT 1 FROM credentials older WHERE older.user_id = credentials.user_id " +
+            "AND older.title_norm = credentials.title_norm AND older.username_norm = credentials.username_norm " +
+            "AND older.id < credentials.id)";
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE credentials ADD COLUMN title_norm TEXT GENERATED ALWAYS AS (LOWER(title)) VIRTUAL");
+            stmt.execute("ALTER TABLE credentials ADD COLUMN username_norm TEXT GENERATED ALWAYS AS (LOWER(username)) VIRTUAL");
+            stmt.execute("CREATE INDEX idx_credentials_key_scan ON credentials (user_id, title_norm, username_norm)");
+            stmt.execute(CREATE_RENAMED_TABLE);
+            int renamed = renameDuplicates(conn, "credentials",
+                "SELECT id, user_id, title, username FROM credentials" + duplicate + " ORDER BY id LIMIT 1",
+                "SELECT 1 FROM credentials WHERE user_id = ?1 AND title_norm = LOWER(?2) AND username_norm = LOWER(?3)");
+            if (renamed > 0) {
+                System.out.println("Renamed " + renamed + " duplicate credential(s) before adding the unique key");
+            }
+            stmt.execute("DROP INDEX idx_credentials_key_scan");
+            stmt.execute("CREATE UNIQUE INDEX idx_credentials_user_key ON credentials (user_id, title_norm, username_norm)");
+        }
+    }
+
+    // Version 5. Fingerprints need the user's key, so Database backfills them at unlock.
+    private static void addVersionAndFingerprint(Connection conn) throws SQLException {
+        addColumnIfNotExists(conn, "credentials", "version", "INTEGER NOT NULL DEFAULT 1");
+        addColumnIfNotExists(conn, "credentials", "password_fp", "TEXT");
+    }
+
+    // Version 6. auto_vacuum can only change on an empty file or through a full VACUUM, which
+    // cannot run in a transaction. Afterwards MaintenanceScheduler returns free pages a few at a time.
+    private static void enableIncrementalVacuum(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            int mode;
+            try (ResultSet rs = stmt.executeQuery("PRAGMA auto_vacuum")) {
+                mode = rs.next() ? rs.getInt(1) : 0;
+            }
+            if (mode != 2) { // 2 = INCREMENTAL
+                stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                stmt.execute("VACUUM");
+            }
+        }
+    }
+
+    // Version 7. Holds StrengthChecker.Strength ordinals; like fingerprints, Database backfills them at unlock.
+    private static void addStrengthColumns(Connection conn) throws SQLException {
+        addColumnIfNotExists(conn, "credentials", "strength", "INTEGER");
+        addColumnIfNotExists(conn, "credentials", "strength_score", "INTEGER");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_credentials_user_strength ON credentials (user_id, strength)");
+        }
+    }
+
+    // Version 8. Reuse counts group by the fingerprint and the add/edit check probes it.
+    private static void createFingerprintIndex(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_credentials_user_fp ON credentials (user_id, password_fp)");
+        }
+    }
+
+    // Version 9. With foreign keys on, every credential delete cascades to attachments, and the
+    // orphan sweep joins on the owner; both would otherwise scan the table holding the file BLOBs.
+    private static void createAttachmentOwnerIndex(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_attachments_credential ON attachments (credential_id)");
+        }
+    }
+
+    // Version 10. The stored password that failed to decrypt, so Database's backfill skips the row
+    // until the password is written again instead of rating the ciphertext.
+    private static void createUnreadablePasswordsTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS unreadable_passwords (" +
+                         "credential_id INTEGER PRIMARY KEY," +
+                         "password TEXT NOT NULL," +
+                         "FOREIGN KEY (credential_id) REFERENCES credentials(id) ON DELETE CASCADE" +
+                         ")");
+        }
+    }
+
+    // Version 11. PasswordEncryption decides the format from the value and no longer retries a
+    // failed GCM value as CBC, so the stored values it would read as GCM but that may be legacy
+    // CBC (about one in 256 legacy values) are listed here. Database resolves them with the key
+    // at unlock; a password is only listed while it still holds the value seen here.
+    private static void recordAmbiguousCiphertexts(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS legacy_passwords (" +
+                         "credential_id INTEGER PRIMARY KEY," +
+                         "password TEXT NOT NULL," +
+                         "FOREIGN KEY (credential_id) REFERENCES credentials(id) ON DELETE CASCADE" +
+                         ")");
+            stmt.execute("CREATE TABLE IF NOT EXISTS legacy_attachments (" +
+                         "attachment_id INTEGER PRIMARY KEY," +
+                         "FOREIGN KEY (attachment_id) REFERENCES attachments(id) ON DELETE CASCADE" +
+                         ")");
+        }
+        try (Statement select = conn.createStatement();
+             ResultSet rs = select.executeQuery("SELECT id, password FROM credentials");
+             PreparedStatement insert = conn.prepareStatement(
+                 "INSERT OR REPLACE INTO legacy_passwords (credential_id, password) VALUES (?, ?)")) {
+            while (rs.next()) {
+                if (PasswordEncryption.isAmbiguousFormat(rs.getString(2))) {
+                    insert.setInt(1, rs.getInt(1));
+                    insert.setString(2, rs.getString(2));
+                    insert.executeUpdate();
+                }
+            }
+        }
+        try (Statement select = conn.createStatement();
+             ResultSet rs = select.executeQuery("SELECT id, file_data FROM attachments WHERE encrypted = 1");
+             PreparedStatement insert = conn.prepareStatement(
+                 "INSERT OR IGNORE INTO legacy_attachments (attachment_id) VALUES (?)")) {
+            while (rs.next()) {
+                if (PasswordEncryption.isAmbiguousFormat(new String(rs.getBytes(2), StandardCharsets.UTF_8))) {
+                    insert.setInt(1, rs.getInt(1));
+                    insert.executeUpdate();
+                }
+            }
         }
     }
 }
@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-user hash index of normalized (title, username) keys, see {@link Database#duplicateKey}.
+ *
+ * Built once per session from a single query and then kept in sync from the database's change
+ * events, so a duplicate check is a map lookup instead of an unindexable LOWER() scan.
+ * Older databases can already hold duplicate keys; those extra ids are tracked separately so
+ * deleting one copy does not hide the other.
+ */
+public class DuplicateIndex {
+    private final Map<Integer, UserKeys> users = new HashMap<>();
+    private final Map<Integer, Long> lastChange = new HashMap<>();
+
+    private static final class UserKeys {
+        final Map<String, Integer> idsByKey = new HashMap<>();
+        final Map<Integer, String> keysById = new HashMap<>();
+        final Map<String, List<Integer>> extraIds = new HashMap<>();
+
+        void add(int id, String key) {
+            remove(id);
+            keysById.put(id, key);
+            Integer existing = idsByKey.putIfAbsent(key, id);
+            if (existing != null) {
+                extraIds.computeIfAbsent(key, _ -> new ArrayList<>()).add(id);
+            }
+        }
+
+        void remove(int id) {
+            String key = keysById.remove(id);
+            if (key == null) {
+                return;
+            }
+            List<Integer> extra = extraIds.get(key);
+            if (idsByKey.get(key) == id) {
+                if (extra == null) {
+                    idsByKey.remove(key);
+                    return;
+                }
+                idsByKey.put(key, extra.remove(extra.size() - 1));
+            } else if (extra != null) {
+                extra.remove(Integer.valueOf(id));
+            }
+            if (extra != null && extra.isEmpty()) {
+                extraIds.remove(key);
+            }
+        }
+    }
+
+    public synchronized boolean isLoaded(int userId) {
+        return users.containsKey(userId);
+    }
+
+    /**
+     * Installs a user's keys. Ignored if the user's rows changed after {@code readVersion}.
+     *
+     * @param keysById Normalized key of every credential of the user
+     * @param readVersion {@link CredentialCache#currentVersion()} taken before the keys were queried
+     */
+    public synchronized void load(int userId, Map<Integer, String> keysById, long readVersion) {
+        if (lastChange.getOrDefault(userId, 0L) > readVersion) {
+            return;
+        }
+        UserKeys keys = new UserKeys();
+        keysById.forEach(keys::add);
+        users.put(userId, keys);
+    }
+
+    /**
+     * @param excludeId A credential to ignore (the one being edited), or -1
+     * @return Whether another credential has this key, or null if the user's index is not loaded
+     */
+    public synchronized Boolean contains(int userId, String key, int excludeId) {
+        UserKeys keys = users.get(userId);
+        if (keys == null) {
+            return null;
+        }
+        Integer id = keys.idsByKey.get(key);
+        if (id == null) {
+            return false;
+        }
+        return id != excludeId || keys.extraIds.containsKey(key);
+    }
+
+    public synchronized void apply(Database.ChangeEvent event) {
+        lastChange.merge(event.userId, event.version, Math::max);
+        UserKeys keys = users.get(event.userId);
+        if (keys == null) {
+            return;
+        }
+        switch (event.type) {
+            case BULK_CHANGED -> users.remove(event.userId);
+            case DELETED -> keys.remove(event.credentialId);
+            case INSERTED, UPDATED ->
+                keys.add(event.credentialId, Database.duplicateKey(event.credential.title, event.credential.username));
+        }
+    }
+
+    public synchronized void invalidate(int userId) {
+        users.remove(userId);
+    }
+
+    public synchronized void clear() {
+        users.clear();
+        lastChange.clear();
+    }
+}
@@ -209,8 +209,8 @@ public class EnhancedCredentialDialog extends JDialog {
         if (credential != null) {
             titleField.setText(credential.title);
             usernameField.setText(credential.username);
-            passwordField.setText(credential.password);
-            notesArea.setText(credential.notes);
+            passwordField.setText(credential.getPassword());
+            notesArea.setText(credential.getNotes());
             favoriteCheck.setSelected(credential.isFavorite);
             if (credential.category != null && !credential.category.isEmpty()) {
                 categoryCombo.setSelectedItem(credential.category);
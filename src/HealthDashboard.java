@@ -9,9 +9,34 @@ import java.util.*;
 public class HealthDashboard {
     
     private List<Database.Credential> credentials;
+    private final Set<Integer> reusedIds; // null: find reuse by comparing plaintexts
     
     public HealthDashboard(List<Database.Credential> credentials) {
+        this(credentials, null);
+    }
+    
+    /**
+     * @param reusedIds Credentials whose password is used more than once, e.g. from
+     *                  {@link Database#findReusedPasswords}; then no password is decrypted for reuse
+     */
+    public HealthDashboard(List<Database.Credential> credentials, Set<Integer> reusedIds) {
         this.credentials = credentials;
+        this.reusedIds = reusedIds;
+    }
+    
+    // Plaintext use counts, for when no fingerprint-based reuse set was given
+    private Map<String, Integer> countPasswords() {
+        Map<String, Integer> passwordCounts = new HashMap<>();
+        if (reusedIds == null) {
+            for (Database.Credential cred : credentials) {
+                passwordCounts.merge(cred.getPassword(), 1, Integer::sum);
+            }
+        }
+        return passwordCounts;
+    }
+    
+    private boolean isReused(Database.Credential cred, Map<String, Integer> passwordCounts) {
+        return reusedIds != null ? reusedIds.contains(cred.id) : passwordCounts.get(cred.getPassword()) > 1;
     }
     
     /**
@@ -47,19 +72,21 @@ public class HealthDashboard {
             return stats;
         }
         
-        Map<String, Integer> passwordCounts = new HashMap<>();
+        Map<String, Integer> passwordCounts = countPasswords();
         LocalDate today = LocalDate.now();
         
         for (Database.Credential cred : credentials) {
-            // Password strength - Use StrengthChecker.Strength enum for accurate classification
-            StrengthChecker.Strength strength = StrengthChecker.checkStrength(cred.password);
+            // Password strength, as stored when the password was written
+            StrengthChecker.Strength strength = cred.getStrength();
             
             if (strength == StrengthChecker.Strength.WEAK) stats.weak++;
             else if (strength == StrengthChecker.Strength.MEDIUM) stats.medium++;
             else if (strength == StrengthChecker.Strength.STRONG) stats.strong++;
             
             // Count password reuse
-            passwordCounts.put(cred.password, passwordCounts.getOrDefault(cred.password, 0) + 1);
+            if (isReused(cred, passwordCounts)) {
+                stats.reused++;
+            }
             
             // Check expiry
             if (cred.expiryDate != null && !cred.expiryDate.isEmpty()) {
@@ -78,18 +105,13 @@ public class HealthDashboard {
             }
         }
         
-        // Count reused passwords
-        for (int count : passwordCounts.values()) {
-            if (count > 1) {
-                stats.reused += count;
-            }
-        }
-        
         // Calculate security score (0-100)
         // Start with base score based on password strength distribution
+        // Passwords that do not decrypt have no strength and are left out of the average
         double strengthScore = 0;
-        if (stats.total > 0) {
-            strengthScore = ((stats.strong * 100.0) + (stats.medium * 60.0) + (stats.weak * 20.0)) / stats.total;
+        int rated = stats.strong + stats.medium + stats.weak;
+        if (rated > 0) {
+            strengthScore = ((stats.strong * 100.0) + (stats.medium * 60.0) + (stats.weak * 20.0)) / rated;
         } else {
             strengthScore = 100.0;
         }
@@ -118,24 +140,19 @@ public class HealthDashboard {
      */
     public List<Database.Credential> getPasswordsNeedingAttention() {
         List<Database.Credential> needsAttention = new ArrayList<>();
-        Map<String, Integer> passwordCounts = new HashMap<>();
+        Map<String, Integer> passwordCounts = countPasswords();
         LocalDate today = LocalDate.now();
         
-        // Count password usage
-        for (Database.Credential cred : credentials) {
-            passwordCounts.put(cred.password, passwordCounts.getOrDefault(cred.password, 0) + 1);
-        }
-        
         for (Database.Credential cred : credentials) {
             boolean needsHelp = false;
             
             // Weak password - Use the Strength enum check
-            if (StrengthChecker.checkStrength(cred.password) == StrengthChecker.Strength.WEAK) {
+            if (cred.getStrength() == StrengthChecker.Strength.WEAK) {
                 needsHelp = true;
             }
             
             // Reused password
-            if (passwordCounts.get(cred.password) > 1) {
+            if (isReused(cred, passwordCounts)) {
                 needsHelp = true;
             }
             
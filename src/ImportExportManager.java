@@ -1,5 +1,4 @@
 import java.io.*;
-import java.sql.SQLException;
 import java.util.*;
 import java.util.zip.*;
 import javax.crypto.SecretKey;
@@ -64,13 +63,13 @@ public class ImportExportManager {
                 writer.write(",");
                 writer.write(escapeCsv(cred.username));
                 writer.write(",");
-                writer.write(escapeCsv(cred.password));
+                writer.write(escapeCsv(cred.getPassword()));
                 writer.write(",");
                 writer.write(escapeCsv(cred.websiteUrl));
                 writer.write(",");
                 writer.write(escapeCsv(cred.category));
                 writer.write(",");
-                writer.write(escapeCsv(cred.notes));
+                writer.write(escapeCsv(cred.getNotes()));
                 writer.write(",");
                 writer.write(cred.isFavorite ? "1" : "0");
                 writer.write(",");
@@ -89,7 +88,16 @@ public class ImportExportManager {
      * Supports Chrome, Firefox, Edge, Opera formats
      */
     public int importFromCSV(File inputFile) throws Exception {
-        int imported = 0;
+        return importFromCSV(inputFile, Database.ImportMode.SKIP);
+    }
+    
+    /**
+     * Import credentials from CSV file, resolving existing title/username pairs as {@code mode} says
+     * 
+     * @return The number of credentials inserted or updated
+     */
+    public int importFromCSV(File inputFile, Database.ImportMode mode) throws Exception {
+        List<Database.NewCredential> rows = new ArrayList<>();
         
         try (BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
             String headerLine = reader.readLine();
@@ -186,22 +194,13 @@ public class ImportExportManager {
                             break;
                     }
                     
-                    // Validate and insert
+                    // Validate and queue for the batch insert
                     if (!title.isEmpty() && !password.isEmpty()) {
                         if (title.length() > 100) title = title.substring(0, 100);
                         if (username.isEmpty()) username = "N/A";
                         
-                        try {
-                            // Check if already exists
-                            if (!database.credentialExists(userId, title, username)) {
-                                database.insertCredential(userId, title, username, password, notes, 
-                                                         favorite, category, url, expiryDate);
-                                imported++;
-                            }
-                        } catch (SQLException e) {
-                            // Skip duplicate or invalid entry
-                            System.err.println("Skipped entry: " + title + " - " + e.getMessage());
-                        }
+                        rows.add(new Database.NewCredential(title, username, password, notes,
+                                                            favorite, category, url, expiryDate));
                     }
                     
                 } catch (Exception e) {
@@ -211,13 +210,25 @@ public class ImportExportManager {
             }
         }
         
-        return imported;
+        // Rows are written in chunked transactions; the INSERT itself resolves existing keys
+        Database.BatchResult result = database.insertCredentials(userId, rows, mode);
+        for (int i = 0; i < result.size(); i++) {
+            if (result.getOutcome(i) == Database.InsertOutcome.FAILED) {
+                System.err.println("Skipped entry: " + rows.get(i).title + " - " + result.getError(i));
+            }
+        }
+        
+        return result.inserted + result.updated;
     }
     
     /**
      * Import from encrypted archive
      */
     public int importFromArchive(File archiveFile, AttachmentManager attachmentManager) throws Exception {
+        return importFromArchive(archiveFile, attachmentManager, Database.ImportMode.SKIP);
+    }
+    
+    public int importFromArchive(File archiveFile, AttachmentManager attachmentManager, Database.ImportMode mode) throws Exception {
         // Create temp directory for extraction
         File tempDir = new File(System.getProperty("java.io.tmpdir"), "securevault_import_" + System.currentTimeMillis());
         tempDir.mkdirs();
@@ -230,7 +241,7 @@ public class ImportExportManager {
             File csvFile = new File(tempDir, "credentials.csv");
             int imported = 0;
             if (csvFile.exists()) {
-                imported = importFromCSV(csvFile);
+                imported = importFromCSV(csvFile, mode);
             }
             
             // Import attachments
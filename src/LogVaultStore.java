@@ -0,0 +1,927 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * {@link VaultStore} kept in one append-only log file with the whole vault indexed in memory.
+ *
+ * Every change is appended as a record sealed with AES-GCM under a key derived from the session
+ * key ({@link PasswordEncryption#deriveStorageKey}); nothing is ever rewritten in place, so a
+ * write is one positional append and reads never touch the disk except for attachment data.
+ * On open the log is replayed through a read-only memory mapping; a torn last record (crash
+ * during an append) is cut off. Attachment blobs are separate records that replay skips without
+ * decrypting. Once more than half of the file is superseded records, a background thread copies
+ * the live records (still sealed, byte for byte) into a fresh file and swaps it in.
+ *
+ * Appends reach the OS on return but are only forced to disk by {@link #sync()}, compaction and
+ * {@link #close()}, the same guarantee as SQLite's {@code synchronous=NORMAL} in WAL mode.
+ */
+public class LogVaultStore implements VaultStore {
+    public static final long DEFAULT_COMPACT_MIN_BYTES = 1 << 20;
+
+    private static final long MAGIC = 0x53564C4F47000001L; // "SVLOG", format 1
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    // magic, then a sealed empty record that proves the key is right before anything is replayed
+    private static final int HEADER_LENGTH = 8 + NONCE_LENGTH + TAG_LENGTH;
+    // length prefix and the record type, which stays readable (but authenticated) so replay can skip blobs
+    private static final int FRAME_PREFIX = 4 + 1;
+    private static final long MAP_WINDOW = 256L << 20;
+    private static final int WRITE_CHUNK = 4 << 20;
+    private static final DateTimeFormatter SQLITE_DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final byte SEQUENCE = 1;
+    private static final byte PUT_CREDENTIAL = 2;
+    private static final byte DELETE_CREDENTIAL = 3;
+    private static final byte PUT_CATEGORY = 4;
+    private static final byte DELETE_CATEGORY = 5;
+    private static final byte ATTACHMENT_DATA = 6; // always directly followed by its PUT_ATTACHMENT
+    private static final byte PUT_ATTACHMENT = 7;
+    private static final byte DELETE_ATTACHMENT = 8;
+
+    private static final Comparator<CredentialRecord> VAULT_ORDER =
+        Comparator.comparing((CredentialRecord r) -> r.isFavorite).reversed()
+            .thenComparing(r -> r.modifiedDate, Comparator.nullsLast(Comparator.<String>reverseOrder()))
+            .thenComparing(r -> r.id, Comparator.reverseOrder());
+
+    private final Path file;
+    private final SecretKey storageKey;
+    private final long compactMinBytes;
+    private final SecureRandom random = new SecureRandom();
+    private final Cipher cipher; // guarded by this
+    private final Object compactLock = new Object();
+    private final ExecutorService compactor;
+
+    private FileChannel channel;
+    private long size;
+    private long liveBytes;
+    private int nextCredentialId = 1;
+    private int nextAttachmentId = 1;
+    private boolean compactionQueued = false;
+    private long compactions;
+
+    private final Map<Integer, Slot<CredentialRecord>> credentials = new HashMap<>();
+    private final Map<String, Integer> credentialKeys = new HashMap<>(); // userId + duplicate key -> id
+    private final Map<String, Slot<CategoryRecord>> categories = new HashMap<>();
+    private final Map<Integer, Slot<AttachmentManager.Attachment>> attachments = new HashMap<>();
+
+    /**
+     * Where the newest record for an entry sits in the file.
+     */
+    private static final class Slot<T> {
+        final T value;
+        final int length; // all frames of the entry; an attachment is its data frame plus its metadata frame
+        long offset;      // moved by compaction
+
+        Slot(T value, long offset, int length) {
+            this.value = value;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    public LogVaultStore(Path file, SecretKey encryptionKey) throws SQLException {
+        this(file, encryptionKey, DEFAULT_COMPACT_MIN_BYTES);
+    }
+
+    /**
+     * Opens or creates a log and replays it.
+     *
+     * @param encryptionKey The session key; records are sealed with a key derived from it
+     * @param compactMinBytes Smallest file size at which background compaction may start
+     * @throws SQLException If the file cannot be read, is corrupt, or was written with another key
+     */
+    public LogVaultStore(Path file, SecretKey encryptionKey, long compactMinBytes) throws SQLException {
+        this.file = file;
+        this.compactMinBytes = compactMinBytes;
+        try {
+            this.storageKey = PasswordEncryption.deriveStorageKey(encryptionKey);
+            this.cipher = Cipher.getInstance(CIPHER);
+        } catch (GeneralSecurityException e) {
+            throw new SQLException("AES-GCM is not available: " + e.getMessage(), e);
+        }
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() == 0) {
+                writeHeader(channel, cipher);
+                size = HEADER_LENGTH;
+            } else {
+                checkHeader();
+                replay();
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            closeQuietly();
+            throw new SQLException("Failed to open vault log " + file + ": " + e.getMessage(), e);
+        } catch (SQLException e) {
+            closeQuietly();
+            throw e;
+        }
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "vault-log-compaction");
+            t.setDaemon(true);
+            return t;
+        });
+        System.out.println("Vault log opened: " + file + " (" + credentials.size() + " credentials, "
+                           + size / 1024 + " KB)");
+    }
+
+    @Override
+    public String getName() {
+        return "log";
+    }
+
+    // ---- Credentials -------------------------------------------------------------------------
+
+    @Override
+    public synchronized List<CredentialRecord> getCredentials(int userId) throws SQLException {
+        ensureOpen();
+        List<CredentialRecord> records = new ArrayList<>();
+        for (Slot<CredentialRecord> slot : credentials.values()) {
+            if (slot.value.userId == userId) {
+                records.add(slot.value);
+            }
+        }
+        records.sort(VAULT_ORDER);
+        return records;
+    }
+
+    @Override
+    public synchronized CredentialRecord getCredential(int id) throws SQLException {
+        ensureOpen();
+        Slot<CredentialRecord> slot = credentials.get(id);
+        return slot != null ? slot.value : null;
+    }
+
+    @Override
+    public synchronized CredentialRecord insertCredential(CredentialRecord record) throws SQLException {
+        ensureOpen();
+        if (credentialKeys.containsKey(keyOf(record))) {
+            throw new SQLException(Database.DUPLICATE_MESSAGE);
+        }
+        String now = now();
+        CredentialRecord stored = withState(record, nextCredentialId, now, now, now, 1);
+        write(PUT_CREDENTIAL, encodeCredential(stored));
+        return stored;
+    }
+
+    @Override
+    public synchronized int[] insertCredentials(List<CredentialRecord> records) throws SQLException {
+        ensureOpen();
+        int[] ids = new int[records.size()];
+        Set<String> batchKeys = new HashSet<>();
+        List<byte[]> bodies = new ArrayList<>();
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        String now = now();
+        for (int i = 0; i < ids.length; i++) {
+            CredentialRecord record = records.get(i);
+            String key = keyOf(record);
+            if (credentialKeys.containsKey(key) || !batchKeys.add(key)) {
+                ids[i] = -1;
+                continue;
+            }
+            ids[i] = nextCredentialId++;
+            byte[] body = encodeCredential(withState(record, ids[i], now, now, now, 1));
+            bodies.add(body);
+            frames.writeBytes(seal(PUT_CREDENTIAL, body, cipher));
+            if (frames.size() >= WRITE_CHUNK) {
+                writeFrames(PUT_CREDENTIAL, bodies, frames);
+            }
+        }
+        writeFrames(PUT_CREDENTIAL, bodies, frames);
+        return ids;
+    }
+
+    @Override
+    public synchronized CredentialRecord updateCredential(CredentialRecord record, int expectedVersion) throws SQLException {
+        ensureOpen();
+        Slot<CredentialRecord> slot = credentials.get(record.id);
+        if (slot == null) {
+            throw new SQLException("Credential " + record.id + " no longer exists");
+        }
+        CredentialRecord current = slot.value;
+        if (expectedVersion != Database.ANY_VERSION && expectedVersion != current.version) {
+            throw new Database.StaleCredentialException(record.id, current.version);
+        }
+        Integer owner = credentialKeys.get(keyOf(current.userId, record.title, record.username));
+        if (owner != null && owner != record.id) {
+            throw new SQLException(Database.DUPLICATE_MESSAGE);
+        }
+        String now = now();
+        boolean samePassword = record.passwordFingerprint != null
+                               ? Objects.equals(current.passwordFingerprint, record.passwordFingerprint)
+                               : Objects.equals(current.password, record.password);
+        String passwordChanged = samePassword ? current.lastPasswordChange : now;
+        CredentialRecord stored = withState(new CredentialRecord(
+            record.id, current.userId, record.title, record.username, record.password, record.passwordFingerprint,
+            record.notes, record.isFavorite, record.category, record.websiteUrl, record.expiryDate,
+            record.strength, record.strengthScore),
+            record.id, current.createdDate, now, passwordChanged, current.version + 1);
+        write(PUT_CREDENTIAL, encodeCredential(stored));
+        return stored;
+    }
+
+    @Override
+    public synchronized void deleteCredential(int id) throws SQLException {
+        ensureOpen();
+        if (credentials.containsKey(id)) {
+            write(DELETE_CREDENTIAL, encode(out -> out.writeInt(id)));
+        }
+    }
+
+    // ---- Categories --------------------------------------------------------------------------
+
+    @Override
+    public synchronized List<CategoryRecord> getCustomCategories(int userId) throws SQLException {
+        ensureOpen();
+        List<CategoryRecord> result = new ArrayList<>();
+        for (Slot<CategoryRecord> slot : categories.values()) {
+            if (slot.value.userId == userId) {
+                result.add(slot.value);
+            }
+        }
+        result.sort(Comparator.comparing(c -> c.name));
+        return result;
+    }
+
+    @Override
+    public synchronized void addCustomCategory(int userId, String name, String color) throws SQLException {
+        ensureOpen();
+        if (categories.containsKey(categoryKey(userId, name))) {
+            throw new SQLException("Category already exists");
+        }
+        write(PUT_CATEGORY, encode(out -> {
+            out.writeInt(userId);
+            writeString(out, name);
+            writeString(out, color);
+        }));
+    }
+
+    @Override
+    public synchronized void deleteCustomCategory(int userId, String name) throws SQLException {
+        ensureOpen();
+        if (categories.containsKey(categoryKey(userId, name))) {
+            write(DELETE_CATEGORY, encode(out -> {
+                out.writeInt(userId);
+                writeString(out, name);
+            }));
+        }
+    }
+
+    // ---- Attachments -------------------------------------------------------------------------
+
+    @Override
+    public synchronized int addAttachment(int credentialId, String filename, byte[] data, long fileSize,
+                                          boolean encrypted) throws SQLException {
+        ensureOpen();
+        if (!credentials.containsKey(credentialId)) {
+            throw new SQLException("Credential " + credentialId + " no longer exists");
+        }
+        int id = nextAttachmentId;
+        String uploadDate = now();
+        byte[] dataBody = encode(out -> {
+            out.writeBoolean(encrypted);
+            out.write(data);
+        });
+        byte[] metaBody = encode(out -> {
+            out.writeInt(id);
+            out.writeInt(credentialId);
+            writeString(out, filename);
+            out.writeLong(fileSize);
+            writeString(out, uploadDate);
+        });
+        byte[] dataFrame = seal(ATTACHMENT_DATA, dataBody, cipher);
+        byte[] metaFrame = seal(PUT_ATTACHMENT, metaBody, cipher);
+        long offset = size;
+        append(ByteBuffer.allocate(dataFrame.length + metaFrame.length).put(dataFrame).put(metaFrame).flip());
+        apply(PUT_ATTACHMENT, ByteBuffer.wrap(metaBody), offset, dataFrame.length + metaFrame.length);
+        maybeCompact();
+        return id;
+    }
+
+    @Override
+    public synchronized List<AttachmentManager.Attachment> getAttachments(int credentialId) throws SQLException {
+        ensureOpen();
+        List<AttachmentManager.Attachment> result = new ArrayList<>();
+        for (Slot<AttachmentManager.Attachment> slot : attachments.values()) {
+            if (slot.value.credentialId == credentialId) {
+                result.add(slot.value);
+            }
+        }
+        result.sort(Comparator.comparing((AttachmentManager.Attachment a) -> a.uploadDate)
+                        .thenComparing(a -> a.id).reversed());
+        return result;
+    }
+
+    @Override
+    public synchronized AttachmentData readAttachment(int attachmentId) throws SQLException {
+        ensureOpen();
+        Slot<AttachmentManager.Attachment> slot = attachments.get(attachmentId);
+        if (slot == null) {
+            return null;
+        }
+        try {
+            ByteBuffer prefix = readFully(slot.offset, FRAME_PREFIX);
+            int bodyLength = prefix.getInt();
+            ByteBuffer body = unseal(prefix.get(), readFully(slot.offset + FRAME_PREFIX, bodyLength - 1), cipher);
+            boolean encrypted = body.get() != 0;
+            byte[] data = new byte[body.remaining()];
+            body.get(data);
+            return new AttachmentData(data, encrypted);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new SQLException("Attachment " + attachmentId + " could not be read: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void deleteAttachment(int attachmentId) throws SQLException {
+        ensureOpen();
+        if (attachments.containsKey(attachmentId)) {
+            write(DELETE_ATTACHMENT, encode(out -> out.writeInt(attachmentId)));
+        }
+    }
+
+    // ---- Index -------------------------------------------------------------------------------
+
+    // The only place the in-memory state changes, for replayed and new records alike
+    private void apply(byte type, ByteBuffer body, long offset, int length) {
+        switch (type) {
+            case SEQUENCE -> {
+                nextCredentialId = Math.max(nextCredentialId, body.getInt());
+                nextAttachmentId = Math.max(nextAttachmentId, body.getInt());
+            }
+            case PUT_CREDENTIAL -> {
+                CredentialRecord record = decodeCredential(body);
+                removeCredential(record.id, false);
+                credentials.put(record.id, new Slot<>(record, offset, length));
+                credentialKeys.put(keyOf(record), record.id);
+                liveBytes += length;
+                nextCredentialId = Math.max(nextCredentialId, record.id + 1);
+            }
+            case DELETE_CREDENTIAL -> removeCredential(body.getInt(), true);
+            case PUT_CATEGORY -> {
+                CategoryRecord category = new CategoryRecord(body.getInt(), readString(body), readString(body));
+                Slot<CategoryRecord> old = categories.put(categoryKey(category.userId, category.name),
+                                                          new Slot<>(category, offset, length));
+                liveBytes += length - (old != null ? old.length : 0);
+            }
+            case DELETE_CATEGORY -> {
+                Slot<CategoryRecord> old = categories.remove(categoryKey(body.getInt(), readString(body)));
+                liveBytes -= old != null ? old.length : 0;
+            }
+            case PUT_ATTACHMENT -> {
+                AttachmentManager.Attachment attachment = new AttachmentManager.Attachment(
+                    body.getInt(), body.getInt(), readString(body), body.getLong(), readString(body));
+                Slot<AttachmentManager.Attachment> old = attachments.put(attachment.id, new Slot<>(attachment, offset, length));
+                liveBytes += length - (old != null ? old.length : 0);
+                nextAttachmentId = Math.max(nextAttachmentId, attachment.id + 1);
+            }
+            case DELETE_ATTACHMENT -> {
+                Slot<AttachmentManager.Attachment> old = attachments.remove(body.getInt());
+                liveBytes -= old != null ? old.length : 0;
+            }
+            default -> throw new IllegalStateException("Unknown record type " + type);
+        }
+    }
+
+    private void removeCredential(int id, boolean withAttachments) {
+        Slot<CredentialRecord> old = credentials.remove(id);
+        if (old == null) {
+            return;
+        }
+        credentialKeys.remove(keyOf(old.value));
+        liveBytes -= old.length;
+        if (withAttachments) {
+            attachments.values().removeIf(slot -> {
+                if (slot.value.credentialId != id) {
+                    return false;
+                }
+                liveBytes -= slot.length;
+                return true;
+            });
+        }
+    }
+
+    private static String keyOf(CredentialRecord record) {
+        return keyOf(record.userId, record.title, record.username);
+    }
+
+    private static String keyOf(int userId, String title, String username) {
+        return userId + ":" + Database.duplicateKey(title, username);
+    }
+
+    private static String categoryKey(int userId, String name) {
+        return userId + ":" + name;
+    }
+
+    private static CredentialRecord withState(CredentialRecord r, int id, String created, String modified,
+                                              String passwordChanged, int version) {
+        return new CredentialRecord(id, r.userId, r.title, r.username, r.password, r.passwordFingerprint, r.notes,
+                                    r.isFavorite, r.category != null ? r.category : "Other",
+                                    r.websiteUrl != null ? r.websiteUrl : "", r.expiryDate != null ? r.expiryDate : "",
+                                    r.strength, r.strengthScore, created, modified, passwordChanged, version);
+    }
+
+    private static String now() {
+        return LocalDateTime.now(ZoneOffset.UTC).format(SQLITE_DATETIME);
+    }
+
+    // ---- Log file ----------------------------------------------------------------------------
+
+    private void write(byte type, byte[] body) throws SQLException {
+        byte[] frame = seal(type, body, cipher);
+        long offset = size;
+        append(ByteBuffer.wrap(frame));
+        apply(type, ByteBuffer.wrap(body), offset, frame.length);
+        maybeCompact();
+    }
+
+    // Appends buffered frames of one type, then indexes them in the same order
+    private void writeFrames(byte type, List<byte[]> bodies, ByteArrayOutputStream frames) throws SQLException {
+        if (bodies.isEmpty()) {
+            return;
+        }
+        long offset = size;
+        append(ByteBuffer.wrap(frames.toByteArray()));
+        for (byte[] body : bodies) {
+            int length = FRAME_PREFIX + NONCE_LENGTH + body.length + TAG_LENGTH;
+            apply(type, ByteBuffer.wrap(body), offset, length);
+            offset += length;
+        }
+        bodies.clear();
+        frames.reset();
+        maybeCompact();
+    }
+
+    private void append(ByteBuffer frames) throws SQLException {
+        try {
+            writeFully(channel, frames, size);
+            size += frames.limit();
+        } catch (IOException e) {
+            // Anything written past size is a torn tail; cut it so the next append starts clean
+            try {
+                channel.truncate(size);
+            } catch (IOException ignored) {
+                // Replay drops it on the next open
+            }
+            throw new SQLException("Failed to write vault log: " + e.getMessage(), e);
+        }
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of vault log");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private byte[] seal(byte type, byte[] body, Cipher cipher) throws SQLException {
+        try {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            random.nextBytes(nonce);
+            cipher.init(Cipher.ENCRYPT_MODE, storageKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(new byte[] { type });
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_PREFIX + NONCE_LENGTH + body.length + TAG_LENGTH);
+            frame.putInt(frame.capacity() - 4).put(type).put(nonce);
+            cipher.doFinal(ByteBuffer.wrap(body), frame);
+            return frame.array();
+        } catch (GeneralSecurityException e) {
+            throw new SQLException("Failed to encrypt vault record: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param sealed Nonce followed by ciphertext and tag
+     * @throws AEADBadTagException If the record was altered or sealed with another key
+     */
+    private ByteBuffer unseal(byte type, ByteBuffer sealed, Cipher cipher) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        sealed.get(nonce);
+        cipher.init(Cipher.DECRYPT_MODE, storageKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        cipher.updateAAD(new byte[] { type });
+        ByteBuffer body = ByteBuffer.allocate(Math.max(0, sealed.remaining() - TAG_LENGTH));
+        cipher.doFinal(sealed, body);
+        return body.flip();
+    }
+
+    private void writeHeader(FileChannel out, Cipher cipher) throws IOException, GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+        cipher.init(Cipher.ENCRYPT_MODE, storageKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        cipher.updateAAD(ByteBuffer.allocate(8).putLong(MAGIC).array());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putLong(MAGIC).put(nonce).put(cipher.doFinal());
+        writeFully(out, header.flip(), 0);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+    }
+
+    private void checkHeader() throws IOException, SQLException {
+        if (channel.size() < HEADER_LENGTH) {
+            throw new SQLException("Not a vault log: " + file);
+        }
+        ByteBuffer header = readFully(0, HEADER_LENGTH);
+        if (header.getLong() != MAGIC) {
+            throw new SQLException("Not a vault log: " + file);
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        header.get(nonce);
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, storageKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(ByteBuffer.allocate(8).putLong(MAGIC).array());
+            cipher.doFinal(header.array(), header.position(), TAG_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new SQLException("The vault log " + file + " was written with a different key", e);
+        }
+    }
+
+    private void replay() throws IOException, GeneralSecurityException, SQLException {
+        long fileSize = channel.size();
+        MappedLog log = new MappedLog(channel, fileSize);
+        long position = HEADER_LENGTH;
+        long dataOffset = -1; // unmatched ATTACHMENT_DATA frame
+        int dataLength = 0;
+        while (fileSize - position >= FRAME_PREFIX) {
+            ByteBuffer prefix = log.slice(position, FRAME_PREFIX);
+            int bodyLength = prefix.getInt();
+            byte type = prefix.get();
+            if (bodyLength < 1 + NONCE_LENGTH + TAG_LENGTH || position + 4 + bodyLength > fileSize) {
+                break; // torn append
+            }
+            int frameLength = 4 + bodyLength;
+            if (type == ATTACHMENT_DATA) {
+                dataOffset = position;
+                dataLength = frameLength;
+                position += frameLength;
+                continue;
+            }
+            ByteBuffer body;
+            try {
+                body = unseal(type, log.slice(position + FRAME_PREFIX, bodyLength - 1), cipher);
+            } catch (AEADBadTagException e) {
+                if (position + frameLength == fileSize) {
+                    break; // last append was torn inside the record
+                }
+                throw new SQLException("Vault log " + file + " is corrupt at offset " + position, e);
+            }
+            long slotOffset = position;
+            int slotLength = frameLength;
+            if (type == PUT_ATTACHMENT) {
+                if (dataOffset < 0) {
+                    throw new SQLException("Vault log " + file + " has attachment metadata without data at offset " + position);
+                }
+                slotOffset = dataOffset;
+                slotLength += dataLength;
+            }
+            apply(type, body, slotOffset, slotLength);
+            dataOffset = -1;
+            position += frameLength;
+        }
+        size = dataOffset >= 0 ? dataOffset : position;
+        if (size < fileSize) {
+            System.err.println("Warning: Dropping " + (fileSize - size) + " bytes of incomplete writes from " + file);
+            channel.truncate(size);
+        }
+    }
+
+    /**
+     * Read-only mapping over the log, remapped in windows so large files need no single huge mapping.
+     */
+    private static final class MappedLog {
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        MappedLog(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        ByteBuffer slice(long position, int length) throws IOException {
+            if (window == null || position < windowStart || position + length > windowStart + window.capacity()) {
+                long mapLength = Math.min(Math.max(MAP_WINDOW, length), size - position);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, mapLength);
+                windowStart = position;
+            }
+            return window.slice((int) (position - windowStart), length);
+        }
+    }
+
+    // ---- Compaction --------------------------------------------------------------------------
+
+    private void maybeCompact() {
+        long garbage = size - HEADER_LENGTH - liveBytes;
+        if (compactionQueued || size < compactMinBytes || garbage * 2 < size) {
+            return;
+        }
+        compactionQueued = true;
+        compactor.execute(() -> {
+            try {
+                compact();
+            } catch (SQLException e) {
+                System.err.println("Warning: Vault log compaction failed: " + e.getMessage());
+            } finally {
+                synchronized (this) {
+                    compactionQueued = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Rewrites the log with only its live records. Runs in the background on its own once enough
+     * of the file is garbage; writers are blocked only while records appended during the copy are
+     * carried over and the new file is swapped in.
+     */
+    public void compact() throws SQLException {
+        synchronized (compactLock) {
+            List<Slot<?>> live;
+            long end;
+            int credentialSequence;
+            int attachmentSequence;
+            synchronized (this) {
+                ensureOpen();
+                live = new ArrayList<>(credentials.size() + categories.size() + attachments.size());
+                live.addAll(credentials.values());
+                live.addAll(categories.values());
+                live.addAll(attachments.values());
+                end = size;
+                credentialSequence = nextCredentialId;
+                attachmentSequence = nextAttachmentId;
+            }
+            live.sort(Comparator.comparingLong(slot -> slot.offset));
+
+            Path temp = file.resolveSibling(file.getFileName() + ".compact");
+            FileChannel out = null;
+            try {
+                out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                       StandardOpenOption.WRITE);
+                Cipher compactCipher = Cipher.getInstance(CIPHER);
+                writeHeader(out, compactCipher);
+                // Keeps ids of deleted rows from being handed out again
+                byte[] sequence = seal(SEQUENCE, encode(o -> {
+                    o.writeInt(credentialSequence);
+                    o.writeInt(attachmentSequence);
+                }), compactCipher);
+                writeFully(out, ByteBuffer.wrap(sequence), HEADER_LENGTH);
+                long written = HEADER_LENGTH + sequence.length;
+                Map<Long, Long> moved = new HashMap<>();
+                for (Slot<?> slot : live) {
+                    moved.put(slot.offset, written);
+                    transfer(slot.offset, slot.length, out, written);
+                    written += slot.length;
+                }
+                synchronized (this) {
+                    ensureOpen();
+                    long tailStart = written;
+                    transfer(end, size - end, out, written);
+                    written += size - end;
+                    out.force(true);
+                    out.close();
+                    swapIn(temp, moved, end, tailStart, written);
+                }
+            } catch (IOException | GeneralSecurityException e) {
+                throw new SQLException("Vault log compaction failed: " + e.getMessage(), e);
+            } finally {
+                try {
+                    if (out != null) {
+                        out.close();
+                    }
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // Overwritten by the next compaction
+                }
+            }
+        }
+    }
+
+    // Called with this locked and the compacted file complete on disk
+    private void swapIn(Path temp, Map<Long, Long> moved, long end, long tailStart, long newSize) throws IOException {
+        long before = size;
+        channel.close();
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        relocate(credentials.values(), moved, end, tailStart);
+        relocate(categories.values(), moved, end, tailStart);
+        relocate(attachments.values(), moved, end, tailStart);
+        size = newSize;
+        compactions++;
+        System.out.println("Compacted vault log " + file + ": " + before / 1024 + " KB -> " + newSize / 1024 + " KB");
+    }
+
+    // Slots written before the copy started moved to their copies, later ones moved with the tail
+    private static void relocate(Collection<? extends Slot<?>> slots, Map<Long, Long> moved, long end, long tailStart) {
+        for (Slot<?> slot : slots) {
+            slot.offset = slot.offset >= end ? tailStart + (slot.offset - end) : moved.get(slot.offset);
+        }
+    }
+
+    private void transfer(long position, long count, FileChannel out, long outPosition) throws IOException {
+        long done = 0;
+        while (done < count) {
+            done += channel.transferTo(position + done, count - done, out.position(outPosition + done));
+        }
+    }
+
+    // ---- Encoding ----------------------------------------------------------------------------
+
+    @FunctionalInterface
+    private interface Encoder {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(Encoder encoder) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            encoder.write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeCredential(CredentialRecord r) {
+        return encode(out -> {
+            out.writeInt(r.id);
+            out.writeInt(r.userId);
+            writeString(out, r.title);
+            writeString(out, r.username);
+            writeString(out, r.password);
+            writeString(out, r.passwordFingerprint);
+            writeString(out, r.notes);
+            out.writeBoolean(r.isFavorite);
+            writeString(out, r.category);
+            writeString(out, r.websiteUrl);
+            writeString(out, r.expiryDate);
+            writeString(out, r.createdDate);
+            writeString(out, r.modifiedDate);
+            writeString(out, r.lastPasswordChange);
+            out.writeInt(r.version);
+            out.writeInt(r.strength);
+            out.writeInt(r.strengthScore);
+        });
+    }
+
+    private static CredentialRecord decodeCredential(ByteBuffer in) {
+        int id = in.getInt();
+        int userId = in.getInt();
+        String title = readString(in);
+        String username = readString(in);
+        String password = readString(in);
+        String fingerprint = readString(in);
+        String notes = readString(in);
+        boolean isFavorite = in.get() != 0;
+        String category = readString(in);
+        String websiteUrl = readString(in);
+        String expiryDate = readString(in);
+        String createdDate = readString(in);
+        String modifiedDate = readString(in);
+        String lastPasswordChange = readString(in);
+        int version = in.getInt();
+        // Records appended before the strength was stored end here
+        boolean hasStrength = in.remaining() >= 8;
+        int strength = hasStrength ? in.getInt() : -1;
+        int strengthScore = hasStrength ? in.getInt() : -1;
+        return new CredentialRecord(id, userId, title, username, password, fingerprint, notes, isFavorite,
+                                    category, websiteUrl, expiryDate, strength, strengthScore,
+                                    createdDate, modifiedDate, lastPasswordChange, version);
+    }
+
+    // Length-prefixed UTF-8; unlike writeUTF there is no 64 KB limit, and -1 marks null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    // ---- Lifecycle ---------------------------------------------------------------------------
+
+    public synchronized long getFileSize() {
+        return size;
+    }
+
+    /**
+     * @return Bytes held by records that a compaction would drop
+     */
+    public synchronized long getGarbageBytes() {
+        return size - HEADER_LENGTH - liveBytes;
+    }
+
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     */
+    public synchronized void sync() throws SQLException {
+        ensureOpen();
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new SQLException("Failed to sync vault log: " + e.getMessage(), e);
+        }
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (channel == null) {
+            throw new SQLException("Vault log is closed");
+        }
+    }
+
+    /**
+     * Waits for a running compaction, forces the log to disk and drops the in-memory index.
+     */
+    @Override
+    public void close() throws SQLException {
+        compactor.shutdown();
+        synchronized (compactLock) {
+            synchronized (this) {
+                if (channel == null) {
+                    return;
+                }
+                try {
+                    channel.force(true);
+                } catch (IOException e) {
+                    throw new SQLException("Failed to sync vault log: " + e.getMessage(), e);
+                } finally {
+                    closeQuietly();
+                    credentials.clear();
+                    credentialKeys.clear();
+                    categories.clear();
+                    attachments.clear();
+                }
+            }
+        }
+        try {
+            compactor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeQuietly() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Nothing left to flush
+            }
+            channel = null;
+        }
+    }
+}
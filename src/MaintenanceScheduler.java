@@ -0,0 +1,164 @@
+import java.sql.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background housekeeping for one database file, so its size and cold-cache read times stay bounded.
+ *
+ * Every run first deletes orphaned attachments (rows whose credential is gone, left behind while
+ * foreign keys were not enforced) in small batches, each in its own short write, and then returns
+ * at most {@code vacuumPageBudget} free pages to the file system with {@code PRAGMA incremental_vacuum}
+ * (the file is switched to {@code auto_vacuum = INCREMENTAL} by migration 6). Neither step holds the
+ * writer for long, so the UI's writes are only delayed by one batch.
+ */
+public final class MaintenanceScheduler implements AutoCloseable {
+    public static final long DEFAULT_INTERVAL_MS = 10 * 60_000;
+    public static final int DEFAULT_VACUUM_PAGE_BUDGET = 2_048; // 8 MB at the default page size
+    private static final long INITIAL_DELAY_MS = 60_000;
+    private static final int ORPHAN_BATCH_SIZE = 100;
+
+    private static final String DELETE_ORPHANS =
+        "DELETE FROM attachments WHERE id IN (" +
+        "SELECT a.id FROM attachments a LEFT JOIN credentials c ON c.id = a.credential_id " +
+        "WHERE c.id IS NULL LIMIT ?)";
+
+    private final ConnectionPool pool;
+    private final int vacuumPageBudget;
+    private final ScheduledExecutorService scheduler;
+    private long reclaimedAttachments;
+    private long reclaimedPages;
+
+    public MaintenanceScheduler(ConnectionPool pool) {
+        this(pool, DEFAULT_INTERVAL_MS, DEFAULT_VACUUM_PAGE_BUDGET);
+    }
+
+    /**
+     * @param intervalMillis Time between the end of one run and the start of the next
+     * @param vacuumPageBudget Most free pages released per run
+     */
+    public MaintenanceScheduler(ConnectionPool pool, long intervalMillis, int vacuumPageBudget) {
+        this.pool = pool;
+        this.vacuumPageBudget = Math.max(1, vacuumPageBudget);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "vault-maintenance");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        long interval = Math.max(1, intervalMillis);
+        scheduler.scheduleWithFixedDelay(this::backgroundRun, Math.min(INITIAL_DELAY_MS, interval),
+                                         interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void backgroundRun() {
+        try {
+            runNow();
+        } catch (SQLException e) {
+            System.err.println("Warning: Vault maintenance failed, will retry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs one round of maintenance on the calling thread.
+     */
+    public void runNow() throws SQLException {
+        int attachments = reclaimOrphanAttachments();
+        int pages = incrementalVacuum(vacuumPageBudget);
+        if (attachments > 0 || pages > 0) {
+            System.out.println("Vault maintenance: removed " + attachments + " orphaned attachment(s), released "
+                               + pages + " free page(s)");
+        }
+    }
+
+    /**
+     * Deletes attachments whose credential no longer exists, {@value #ORPHAN_BATCH_SIZE} per write.
+     *
+     * @return How many were deleted
+     */
+    public int reclaimOrphanAttachments() throws SQLException {
+        int total = 0;
+        int deleted;
+        do {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            try (ConnectionPool.Lease lease = pool.writer()) {
+                PreparedStatement pstmt = lease.prepare(DELETE_ORPHANS);
+                pstmt.setInt(1, ORPHAN_BATCH_SIZE);
+                deleted = pstmt.executeUpdate();
+            }
+            total += deleted;
+        } while (deleted == ORPHAN_BATCH_SIZE);
+        synchronized (this) {
+            reclaimedAttachments += total;
+        }
+        return total;
+    }
+
+    /**
+     * Releases up to {@code maxPages} pages from the free list, truncating the file.
+     * Does nothing unless the file uses incremental auto-vacuum.
+     *
+     * @return How many pages were released
+     */
+    public int incrementalVacuum(int maxPages) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.writer();
+             Statement stmt = lease.connection().createStatement()) {
+            int before = freePages(stmt);
+            if (before == 0) {
+                return 0;
+            }
+            // SQLite releases one page per step of the pragma and the driver steps a statement
+            // without result columns only once, so run it once per page, all in one transaction
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                // Not from the statement cache: the last step leaves the statement open until closed
+                try (Statement vacuum = conn.createStatement()) {
+                    for (int i = Math.min(before, maxPages); i > 0; i--) {
+                        vacuum.execute("PRAGMA incremental_vacuum(1)");
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            int released = before - freePages(stmt);
+            synchronized (this) {
+                reclaimedPages += released;
+            }
+            return released;
+        }
+    }
+
+    private static int freePages(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA freelist_count")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    public synchronized long getReclaimedAttachments() {
+        return reclaimedAttachments;
+    }
+
+    public synchronized long getReclaimedPages() {
+        return reclaimedPages;
+    }
+
+    /**
+     * Stops scheduling runs and waits briefly for a run in progress.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
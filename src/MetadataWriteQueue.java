@@ -0,0 +1,206 @@
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue for low-value credential metadata (favorite flag, timestamps).
+ *
+ * Repeated updates to the same row and column collapse into one pending value; pending rows are
+ * written in a single transaction once {@code maxPendingRows} rows are queued or
+ * {@code flushDelayMillis} after the first unflushed change, whichever comes first.
+ * {@link #flush()} writes everything immediately and returns once it is on disk; callers flush
+ * before reading those columns, before locking and on close. Each written row also gets its
+ * {@code version} bumped once, so optimistic updates of a row read before the write fail.
+ */
+public class MetadataWriteQueue implements AutoCloseable {
+    public static final long DEFAULT_FLUSH_DELAY_MS = 2_000;
+    public static final int DEFAULT_MAX_PENDING_ROWS = 64;
+
+    // Only these columns may be deferred; everything else goes through the normal write path
+    private static final Set<String> COLUMNS = Set.of("is_favorite", "modified_date");
+
+    private final ConnectionPool pool;
+    private final long flushDelayMillis;
+    private final int maxPendingRows;
+    private final ScheduledExecutorService scheduler;
+    private final Object flushLock = new Object();
+    private Map<Integer, Map<String, Object>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private long flushedRows;
+    private long coalesced;
+    private boolean closed = false;
+
+    public MetadataWriteQueue(ConnectionPool pool) {
+        this(pool, DEFAULT_FLUSH_DELAY_MS, DEFAULT_MAX_PENDING_ROWS);
+    }
+
+    public MetadataWriteQueue(ConnectionPool pool, long flushDelayMillis, int maxPendingRows) {
+        this.pool = pool;
+        this.flushDelayMillis = Math.max(0, flushDelayMillis);
+        this.maxPendingRows = Math.max(1, maxPendingRows);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metadata-write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queues {@code column = value} for one credential, replacing any pending value for that column.
+     *
+     * @return Whether the credential already had a pending write, i.e. its version will not be bumped again
+     * @throws IllegalArgumentException If the column is not a deferrable metadata column
+     */
+    public synchronized boolean set(int credentialId, String column, Object value) {
+        if (!COLUMNS.contains(column)) {
+            throw new IllegalArgumentException("Column cannot be written behind: " + column);
+        }
+        if (closed) {
+            throw new IllegalStateException("Metadata write queue is closed");
+        }
+        boolean joined = pending.containsKey(credentialId);
+        Map<String, Object> row = pending.computeIfAbsent(credentialId, _ -> new TreeMap<>());
+        if (row.put(column, value) != null) {
+            coalesced++;
+        }
+        if (pending.size() >= maxPendingRows) {
+            scheduleFlush(0);
+        } else if (scheduledFlush == null) {
+            scheduleFlush(flushDelayMillis);
+        }
+        return joined;
+    }
+
+    /**
+     * Drops pending values for a credential, e.g. because it was deleted.
+     */
+    public synchronized void discard(int credentialId) {
+        pending.remove(credentialId);
+    }
+
+    public synchronized int getPendingRows() {
+        return pending.size();
+    }
+
+    public synchronized long getFlushedRows() {
+        return flushedRows;
+    }
+
+    /**
+     * @return How many queued values replaced a value that was still pending
+     */
+    public synchronized long getCoalescedWrites() {
+        return coalesced;
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (scheduledFlush != null) {
+            if (delayMillis > 0) {
+                return;
+            }
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = scheduler.schedule(this::backgroundFlush, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void backgroundFlush() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.err.println("Warning: Deferred metadata write failed, will retry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes all pending values in one transaction. Blocks until a flush already in progress
+     * has finished, so once this returns every value queued before the call is committed.
+     */
+    public void flush() throws SQLException {
+        synchronized (flushLock) {
+            Map<Integer, Map<String, Object>> batch;
+            synchronized (this) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            }
+            try {
+                write(batch);
+            } catch (SQLException e) {
+                requeue(batch);
+                throw e;
+            }
+            synchronized (this) {
+                flushedRows += batch.size();
+            }
+        }
+    }
+
+    private void write(Map<Integer, Map<String, Object>> batch) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                for (Map.Entry<Integer, Map<String, Object>> row : batch.entrySet()) {
+                    StringBuilder sql = new StringBuilder("UPDATE credentials SET ");
+                    int i = 0;
+                    for (String column : row.getValue().keySet()) {
+                        sql.append(i++ > 0 ? ", " : "").append(column).append(" = ?");
+                    }
+                    sql.append(", version = version + 1 WHERE id = ?");
+                    PreparedStatement pstmt = lease.prepare(sql.toString());
+                    int param = 1;
+                    for (Object value : row.getValue().values()) {
+                        pstmt.setObject(param++, value);
+                    }
+                    pstmt.setInt(param, row.getKey());
+                    pstmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    // Puts a failed batch back without overwriting anything queued since
+    private synchronized void requeue(Map<Integer, Map<String, Object>> batch) {
+        for (Map.Entry<Integer, Map<String, Object>> row : batch.entrySet()) {
+            Map<String, Object> current = pending.computeIfAbsent(row.getKey(), _ -> new TreeMap<>());
+            row.getValue().forEach(current::putIfAbsent);
+        }
+        if (!closed && scheduledFlush == null) {
+            scheduleFlush(flushDelayMillis);
+        }
+    }
+
+    /**
+     * Flushes what is pending and stops the background flusher.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.err.println("Error flushing deferred metadata writes: " + e.getMessage());
+        }
+        scheduler.shutdownNow();
+    }
+}
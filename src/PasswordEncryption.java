@@ -3,24 +3,48 @@ import javax.crypto.spec.*;
 import java.security.*;
 import java.security.spec.*;
 import java.util.Base64;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
- * Handles encryption and decryption of passwords using AES-256 in CBC mode.
+ * Handles encryption and decryption of passwords using AES-256 in GCM mode.
  * Uses PBKDF2 to derive encryption keys from user's master password.
  * 
+ * Encrypted values start with a format byte naming the algorithm. Values written by earlier
+ * versions (AES-256-CBC, no header) are still decrypted and are re-encrypted when written again.
+ * The format is decided from the value alone: anything with a GCM header is decrypted as GCM
+ * only, so a value that fails the tag check is never retried as CBC. A legacy value whose IV
+ * happens to start with the format byte therefore needs {@link #decryptLegacy}; the schema
+ * migration records such values and Database re-encrypts them at unlock.
+ * 
  * Security Features:
- * - AES-256 encryption
- * - Random IV for each encryption
+ * - AES-256-GCM authenticated encryption: a wrong key or altered value fails the tag check
+ * - Random nonce for each encryption
  * - PBKDF2 key derivation (100,000 iterations)
  * - Salt-based key generation
  */
 public class PasswordEncryption {
-    private static final String ALGORITHM = "AES/CBC/PKCS5Padding";
+    private static final String ALGORITHM = "AES/GCM/NoPadding";
+    private static final String LEGACY_ALGORITHM = "AES/CBC/PKCS5Padding";
+    // First byte of every value written by encrypt. Legacy CBC values have no header at all.
+    private static final byte FORMAT_AES_GCM = 2;
+    private static final int GCM_NONCE_LENGTH = 12;
+    private static final int GCM_TAG_BITS = 128;
+    private static final int GCM_HEADER_LENGTH = 1 + GCM_NONCE_LENGTH;
     private static final String KEY_ALGORITHM = "AES";
     private static final int KEY_LENGTH = 256;
     private static final int ITERATION_COUNT = 100000;
-    private static final int IV_LENGTH = 16;
+    private static final int CBC_IV_LENGTH = 16;
+    private static final String FINGERPRINT_ALGORITHM = "HmacSHA256";
+    private static final String FINGERPRINT_LABEL = "securevault-fingerprint-v1";
+    private static final String STORAGE_KEY_LABEL = "securevault-log-store-v1";
+    // Mac.getInstance is a provider lookup; batch imports fingerprint every row
+    private static final ThreadLocal<Mac> FINGERPRINT_MAC = new ThreadLocal<>();
+    // Likewise Cipher.getInstance for every password of a bulk encrypt or decrypt
+    private static final ThreadLocal<Cipher> GCM_CIPHER = new ThreadLocal<>();
+    private static final ThreadLocal<Cipher> CBC_CIPHER = new ThreadLocal<>();
+    // Seeded once from the OS; SecureRandom is thread-safe, and seeding a new one per IV is slow
+    private static final SecureRandom RANDOM = new SecureRandom();
     
     /**
      * Derives an AES encryption key from a master password using PBKDF2.
@@ -44,69 +68,292 @@ public class PasswordEncryption {
     }
     
     /**
-     * Encrypts plaintext using AES-256-CBC.
-     * Generates a random IV and prepends it to the ciphertext.
+     * Encrypts plaintext using AES-256-GCM.
+     * Generates a random nonce and prepends the format byte and nonce to the ciphertext.
      * 
      * @param plaintext The text to encrypt
      * @param key The encryption key
-     * @return Base64-encoded string containing IV + ciphertext
+     * @return Base64-encoded string containing format byte + nonce + ciphertext + tag
      * @throws Exception If encryption fails
      */
     public static String encrypt(String plaintext, SecretKey key) throws Exception {
         if (plaintext == null || plaintext.isEmpty()) {
             return "";
         }
-        
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        
-        // Generate random IV (Initialization Vector)
-        byte[] iv = new byte[IV_LENGTH];
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(iv);
-        IvParameterSpec ivSpec = new IvParameterSpec(iv);
-        
-        // Encrypt
-        cipher.init(Cipher.ENCRYPT_MODE, key, ivSpec);
-        byte[] encrypted = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
-        
-        // Combine IV + encrypted data
-        byte[] combined = new byte[iv.length + encrypted.length];
-        System.arraycopy(iv, 0, combined, 0, iv.length);
-        System.arraycopy(encrypted, 0, combined, iv.length, encrypted.length);
-        
-        // Return as Base64 string
-        return Base64.getEncoder().encodeToString(combined);
-    }
-    
-    /**
-     * Decrypts ciphertext using AES-256-CBC.
-     * Extracts IV from the beginning of the ciphertext.
+        return Base64.getEncoder().encodeToString(encrypt(plaintext.getBytes(StandardCharsets.UTF_8), key));
+    }
+    
+    /**
+     * Encrypts raw bytes using AES-256-GCM, writing the header and the ciphertext
+     * straight into one array.
+     * 
+     * @param plaintext The bytes to encrypt
+     * @param key The encryption key
+     * @return Format byte + nonce + ciphertext + tag
+     * @throws GeneralSecurityException If encryption fails
+     */
+    public static byte[] encrypt(byte[] plaintext, SecretKey key) throws GeneralSecurityException {
+        byte[] nonce = nextNonce();
+        byte[] out = new byte[encryptedLength(plaintext.length)];
+        out[0] = FORMAT_AES_GCM;
+        System.arraycopy(nonce, 0, out, 1, GCM_NONCE_LENGTH);
+        Cipher cipher = gcmCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, nonce));
+        cipher.doFinal(plaintext, 0, plaintext.length, out, GCM_HEADER_LENGTH);
+        return out;
+    }
+    
+    /**
+     * Encrypts the remaining bytes of {@code plaintext} into {@code out} in the same format as
+     * {@link #encrypt(byte[], SecretKey)}, advancing both buffers' positions. Works with direct
+     * buffers without copying to the heap.
+     * 
+     * @param plaintext The bytes to encrypt
+     * @param out Receives the encrypted value; needs {@link #encryptedLength(int)} bytes remaining
+     * @param key The encryption key
+     * @return Number of bytes written to {@code out}
+     * @throws GeneralSecurityException If encryption fails or {@code out} is too small
+     */
+    public static int encrypt(ByteBuffer plaintext, ByteBuffer out, SecretKey key) throws GeneralSecurityException {
+        if (out.remaining() < encryptedLength(plaintext.remaining())) {
+            throw new ShortBufferException("Need " + encryptedLength(plaintext.remaining()) + " bytes, have " + out.remaining());
+        }
+        byte[] nonce = nextNonce();
+        Cipher cipher = gcmCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, nonce));
+        out.put(FORMAT_AES_GCM).put(nonce);
+        return GCM_HEADER_LENGTH + cipher.doFinal(plaintext, out);
+    }
+    
+    /**
+     * @param plaintextLength Length of the plaintext in bytes
+     * @return Exact length of the value produced by the byte-array and ByteBuffer encrypt methods
+     */
+    public static int encryptedLength(int plaintextLength) {
+        return GCM_HEADER_LENGTH + plaintextLength + GCM_TAG_BITS / 8;
+    }
+    
+    /**
+     * Decrypts a stored value in either format: AES-256-GCM with a format byte, or the legacy
+     * headerless AES-256-CBC (IV + ciphertext) written by earlier versions. A value with a GCM
+     * header is only ever decrypted as GCM.
      * 
-     * @param ciphertext Base64-encoded string containing IV + ciphertext
+     * @param ciphertext Base64-encoded encrypted value
      * @param key The decryption key
      * @return Decrypted plaintext
+     * @throws AEADBadTagException If a GCM value fails its integrity check (wrong key or altered)
      * @throws Exception If decryption fails
      */
     public static String decrypt(String ciphertext, SecretKey key) throws Exception {
         if (ciphertext == null || ciphertext.isEmpty()) {
             return "";
         }
-        
-        // Decode from Base64
         byte[] combined = Base64.getDecoder().decode(ciphertext);
-        
-        // Extract IV and encrypted data
-        byte[] iv = new byte[IV_LENGTH];
-        byte[] encrypted = new byte[combined.length - IV_LENGTH];
-        System.arraycopy(combined, 0, iv, 0, IV_LENGTH);
-        System.arraycopy(combined, IV_LENGTH, encrypted, 0, encrypted.length);
-        
-        // Decrypt
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
-        byte[] decrypted = cipher.doFinal(encrypted);
-        
-        return new String(decrypted, StandardCharsets.UTF_8);
+        return new String(decrypt(combined, 0, combined.length, key), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Decrypts an encrypted value held in part of an array, reading the header in place.
+     * 
+     * @param combined Array holding the encrypted value
+     * @param offset Where the value starts
+     * @param length Length of the value
+     * @param key The decryption key
+     * @return Decrypted bytes
+     * @throws GeneralSecurityException If decryption fails
+     */
+    public static byte[] decrypt(byte[] combined, int offset, int length, SecretKey key) throws GeneralSecurityException {
+        if (length == 0) {
+            throw new IllegalBlockSizeException("Empty ciphertext");
+        }
+        if (hasGcmHeader(combined[offset], length)) {
+            Cipher cipher = gcmCipher();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, combined, offset + 1, GCM_NONCE_LENGTH));
+            return cipher.doFinal(combined, offset + GCM_HEADER_LENGTH, length - GCM_HEADER_LENGTH);
+        }
+        return decryptCbc(combined, offset, length, key);
+    }
+    
+    /**
+     * Decrypts a value known to be in the legacy AES-256-CBC format, whatever its first byte.
+     * Only for values recorded as legacy by the schema migration: CBC has no integrity check, so
+     * a value in any other format can decrypt to garbage instead of failing.
+     * 
+     * @param ciphertext Base64-encoded IV + ciphertext
+     * @param key The decryption key
+     * @return Decrypted plaintext
+     * @throws GeneralSecurityException If decryption fails
+     */
+    public static String decryptLegacy(String ciphertext, SecretKey key) throws GeneralSecurityException {
+        byte[] combined = Base64.getDecoder().decode(ciphertext);
+        return new String(decryptCbc(combined, 0, combined.length, key), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Decrypts the remaining bytes of {@code in} into {@code out}, advancing both buffers'
+     * positions. Accepts the same formats as {@link #decrypt(String, SecretKey)}.
+     * 
+     * @param in The encrypted value
+     * @param out Receives the plaintext; at most the length of {@code in} is needed
+     * @param key The decryption key
+     * @return Number of bytes written to {@code out}
+     * @throws GeneralSecurityException If decryption fails or {@code out} is too small
+     */
+    public static int decrypt(ByteBuffer in, ByteBuffer out, SecretKey key) throws GeneralSecurityException {
+        int length = in.remaining();
+        if (length == 0) {
+            throw new IllegalBlockSizeException("Empty ciphertext");
+        }
+        if (hasGcmHeader(in.get(in.position()), length)) {
+            byte[] nonce = new byte[GCM_NONCE_LENGTH];
+            in.get();
+            in.get(nonce);
+            Cipher cipher = gcmCipher();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, nonce));
+            return cipher.doFinal(in, out);
+        }
+        byte[] combined = new byte[length];
+        in.get(combined);
+        byte[] plaintext = decrypt(combined, 0, length, key);
+        out.put(plaintext);
+        return plaintext.length;
+    }
+    
+    /**
+     * Whether a stored value was written in the current format. Used to re-encrypt legacy CBC
+     * values when their row is written anyway; a legacy value whose IV happens to look like a
+     * GCM header is reported as current (see {@link #isAmbiguousFormat}).
+     * 
+     * @param ciphertext Base64-encoded encrypted value
+     * @return False for legacy CBC values and for anything that is not an encrypted value
+     */
+    public static boolean isCurrentFormat(String ciphertext) {
+        if (ciphertext == null || ciphertext.isEmpty()) {
+            return false;
+        }
+        try {
+            byte[] combined = Base64.getDecoder().decode(ciphertext);
+            return hasGcmHeader(combined[0], combined.length);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Whether a stored value has both a GCM header and the length of a legacy CBC value, so
+     * that its structure alone does not tell which format it is in. Reads only the first and
+     * last characters, since attachments pass whole files.
+     * 
+     * @param ciphertext Base64-encoded encrypted value
+     * @return False for values that can only be in one format and for anything not Base64
+     */
+    public static boolean isAmbiguousFormat(String ciphertext) {
+        int chars = ciphertext == null ? 0 : ciphertext.length();
+        if (chars < 4 || chars % 4 != 0) {
+            return false;
+        }
+        int padding = ciphertext.charAt(chars - 1) != '=' ? 0 : ciphertext.charAt(chars - 2) != '=' ? 1 : 2;
+        int length = chars / 4 * 3 - padding;
+        try {
+            byte first = Base64.getDecoder().decode(ciphertext.substring(0, 4))[0];
+            return hasGcmHeader(first, length) && isCbcLength(length);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+    
+    private static boolean hasGcmHeader(byte first, int length) {
+        return first == FORMAT_AES_GCM && length >= GCM_HEADER_LENGTH + GCM_TAG_BITS / 8;
+    }
+    
+    private static boolean isCbcLength(int length) {
+        return length >= 2 * CBC_IV_LENGTH && length % CBC_IV_LENGTH == 0;
+    }
+    
+    // Headerless IV + ciphertext, as written before the format byte existed
+    private static byte[] decryptCbc(byte[] combined, int offset, int length, SecretKey key) throws GeneralSecurityException {
+        if (!isCbcLength(length)) {
+            throw new IllegalBlockSizeException("Not an encrypted value (length " + length + ")");
+        }
+        Cipher cipher = cbcCipher();
+        cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(combined, offset, CBC_IV_LENGTH));
+        return cipher.doFinal(combined, offset + CBC_IV_LENGTH, length - CBC_IV_LENGTH);
+    }
+    
+    // The calling thread's ciphers; every use re-initializes them with their own key and IV
+    private static Cipher gcmCipher() throws GeneralSecurityException {
+        Cipher cipher = GCM_CIPHER.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(ALGORITHM);
+            GCM_CIPHER.set(cipher);
+        }
+        return cipher;
+    }
+    
+    private static Cipher cbcCipher() throws GeneralSecurityException {
+        Cipher cipher = CBC_CIPHER.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(LEGACY_ALGORITHM);
+            CBC_CIPHER.set(cipher);
+        }
+        return cipher;
+    }
+    
+    private static byte[] nextNonce() {
+        byte[] nonce = new byte[GCM_NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+    
+    /**
+     * Derives the key used for password fingerprints from the session encryption key,
+     * so a fingerprint never reveals anything that the encryption key itself would not.
+     * 
+     * @param encryptionKey The session encryption key
+     * @return HMAC-SHA256 key for {@link #fingerprint(String, SecretKey)}
+     * @throws GeneralSecurityException If HmacSHA256 is not available
+     */
+    public static SecretKey deriveFingerprintKey(SecretKey encryptionKey) throws GeneralSecurityException {
+        return new SecretKeySpec(deriveSubkey(encryptionKey, FINGERPRINT_LABEL), FINGERPRINT_ALGORITHM);
+    }
+    
+    /**
+     * Derives the AES key that {@link LogVaultStore} encrypts its log records with, so the
+     * password ciphertexts inside a record are never encrypted twice under the same key.
+     * 
+     * @param encryptionKey The session encryption key
+     * @return AES-256 key for whole-record encryption
+     * @throws GeneralSecurityException If HmacSHA256 is not available
+     */
+    public static SecretKey deriveStorageKey(SecretKey encryptionKey) throws GeneralSecurityException {
+        return new SecretKeySpec(deriveSubkey(encryptionKey, STORAGE_KEY_LABEL), KEY_ALGORITHM);
+    }
+    
+    // HMAC-SHA256 of a fixed label: independent 256-bit keys from one session key
+    private static byte[] deriveSubkey(SecretKey encryptionKey, String label) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(FINGERPRINT_ALGORITHM);
+        mac.init(encryptionKey);
+        return mac.doFinal(label.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Keyed fingerprint of a plaintext password. Equal passwords give equal fingerprints,
+     * unlike ciphertexts, which differ on every encryption because of the random IV.
+     * 
+     * @param plaintext The password
+     * @param fingerprintKey Key from {@link #deriveFingerprintKey(SecretKey)}
+     * @return Base64-encoded HMAC-SHA256 of the password
+     * @throws GeneralSecurityException If HmacSHA256 is not available
+     */
+    public static String fingerprint(String plaintext, SecretKey fingerprintKey) throws GeneralSecurityException {
+        Mac mac = FINGERPRINT_MAC.get();
+        if (mac == null) {
+            mac = Mac.getInstance(FINGERPRINT_ALGORITHM);
+            FINGERPRINT_MAC.set(mac);
+        }
+        mac.init(fingerprintKey);
+        byte[] digest = mac.doFinal((plaintext != null ? plaintext : "").getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(digest);
     }
     
     /**
@@ -117,7 +364,7 @@ public class PasswordEncryption {
      */
     public static byte[] generateSalt(int length) {
         byte[] salt = new byte[length];
-        new SecureRandom().nextBytes(salt);
+        RANDOM.nextBytes(salt);
         return salt;
     }
     
@@ -0,0 +1,90 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Short-lived cache of decrypted passwords, keyed by credential ID.
+ *
+ * Bounded both by entry count (least recently used entries go first) and by age, so only
+ * the passwords the user is actually touching stay in memory. An entry is only returned
+ * if it was decrypted from the same ciphertext, so an edited credential never shows a
+ * stale password. Java Strings cannot be zeroed; {@link #clear()} drops the references
+ * as a best effort.
+ */
+public class PlaintextCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_TTL_MS = 2 * 60 * 1000; // 2 minutes
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private static final class Entry {
+        final String ciphertext;
+        final String plaintext;
+        final long expiresAt;
+
+        Entry(String ciphertext, String plaintext, long expiresAt) {
+            this.ciphertext = ciphertext;
+            this.plaintext = plaintext;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public PlaintextCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MS);
+    }
+
+    public PlaintextCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return The cached plaintext for this credential and ciphertext, or null on a miss
+     */
+    public synchronized String get(int credentialId, String ciphertext) {
+        Entry entry = entries.get(credentialId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt < System.currentTimeMillis() || !entry.ciphertext.equals(ciphertext)) {
+            entries.remove(credentialId);
+            return null;
+        }
+        return entry.plaintext;
+    }
+
+    public synchronized void put(int credentialId, String ciphertext, String plaintext) {
+        entries.put(credentialId, new Entry(ciphertext, plaintext, System.currentTimeMillis() + ttlMillis));
+        evict();
+    }
+
+    public synchronized void remove(int credentialId) {
+        entries.remove(credentialId);
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Integer, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entries.size() > maxEntries || entry.expiresAt < now) {
+                it.remove();
+            } else {
+                break;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops every cached plaintext. Called whenever the encryption key is cleared.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,154 @@
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Query Diagnostics Dialog showing the {@link QueryProfiler} statistics of this session, and the
+ * hit rates of the statement and credential caches of the open vault
+ */
+@SuppressWarnings("serial")
+public class QueryDiagnosticsDialog extends JDialog {
+    private static final String[] COLUMNS = { "SQL", "Calls", "Total ms", "Avg ms", "Max ms", "Rows", "Slow", "Full scan" };
+
+    private final QueryProfiler profiler = QueryProfiler.getInstance();
+    private final Database database; // null while no vault is open
+    private final DefaultTableModel model;
+    private final JTable table;
+    private final JTextArea details;
+    private final JLabel summaryLabel;
+    private List<QueryProfiler.Entry> entries = List.of();
+
+    @SuppressWarnings("this-escape")
+    public QueryDiagnosticsDialog(Frame parent, Database database) {
+        super(parent, "📊 Query Diagnostics", true);
+        this.database = database;
+        setSize(950, 600);
+        setLocationRelativeTo(parent);
+
+        JPanel mainPanel = new JPanel(new BorderLayout(0, 10));
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
+
+        summaryLabel = new JLabel();
+        mainPanel.add(summaryLabel, BorderLayout.NORTH);
+
+        model = new DefaultTableModel(COLUMNS, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        table = new JTable(model);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getColumnModel().getColumn(0).setPreferredWidth(420);
+        table.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                showDetails(table.getSelectedRow());
+            }
+        });
+
+        details = new JTextArea(8, 80);
+        details.setEditable(false);
+        details.setLineWrap(true);
+        details.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(table), new JScrollPane(details));
+        split.setResizeWeight(0.7);
+        mainPanel.add(split, BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton refreshBtn = new JButton("Refresh");
+        refreshBtn.addActionListener(_ -> refresh());
+        JButton resetBtn = new JButton("Reset");
+        resetBtn.addActionListener(_ -> {
+            profiler.reset();
+            refresh();
+        });
+        JButton dumpBtn = new JButton("Save Dump...");
+        dumpBtn.addActionListener(_ -> onDump());
+        JButton closeBtn = new JButton("Close");
+        closeBtn.addActionListener(_ -> dispose());
+        buttonPanel.add(refreshBtn);
+        buttonPanel.add(resetBtn);
+        buttonPanel.add(dumpBtn);
+        buttonPanel.add(closeBtn);
+        mainPanel.add(buttonPanel, BorderLayout.SOUTH);
+
+        add(mainPanel);
+        refresh();
+    }
+
+    private void refresh() {
+        entries = profiler.snapshot();
+        model.setRowCount(0);
+        long calls = 0;
+        int scans = 0;
+        for (QueryProfiler.Entry entry : entries) {
+            model.addRow(new Object[] {
+                entry.template, entry.calls, format(entry.totalMillis()), format(entry.averageMillis()),
+                format(entry.maxNanos / 1e6), entry.rows, entry.slowCalls, entry.fullScan ? "⚠ yes" : ""
+            });
+            calls += entry.calls;
+            if (entry.fullScan) {
+                scans++;
+            }
+        }
+        String summary = profiler.isEnabled()
+            ? entries.size() + " statement(s), " + calls + " call(s), " + scans + " with a full table scan"
+              + " (plans are captured for calls over " + profiler.getSlowThresholdMillis() + " ms)"
+            : "Query profiling is turned off (-Dsecurevault.profiler=false)";
+        if (database != null) {
+            ConnectionPool pool = database.getConnectionPool();
+            CredentialCache cache = database.getCredentialCache();
+            summary = "<html>" + summary + "<br>Statement cache: " + pool.getStatementCacheHits() + " hits, "
+                      + pool.getStatementCacheMisses() + " misses  |  Credential cache: " + cache.getHits()
+                      + " hits, " + cache.getMisses() + " misses</html>";
+        }
+        summaryLabel.setText(summary);
+        details.setText("");
+    }
+
+    private void showDetails(int row) {
+        if (row < 0 || row >= entries.size()) {
+            details.setText("");
+            return;
+        }
+        QueryProfiler.Entry entry = entries.get(row);
+        StringBuilder text = new StringBuilder(entry.template).append("\n\nLatency: ").append(entry.histogramText());
+        if (entry.plan.isEmpty()) {
+            text.append("\n\nNo query plan captured (never slower than ")
+                .append(profiler.getSlowThresholdMillis()).append(" ms)");
+        } else {
+            text.append("\n\nQuery plan:");
+            for (String line : entry.plan) {
+                text.append("\n  ").append(line).append(QueryProfiler.isFullScan(line) ? "   <-- full table scan" : "");
+            }
+        }
+        details.setText(text.toString());
+        details.setCaretPosition(0);
+    }
+
+    private void onDump() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setSelectedFile(new File("securevault-queries.txt"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = fileChooser.getSelectedFile();
+        try {
+            profiler.dump(file.toPath());
+            JOptionPane.showMessageDialog(this, "Query profile saved to " + file.getName(),
+                "Saved", JOptionPane.INFORMATION_MESSAGE);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Could not save the query profile: " + e.getMessage(),
+                "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private static String format(double millis) {
+        return String.format(Locale.ROOT, "%.2f", millis);
+    }
+}
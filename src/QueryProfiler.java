@@ -0,0 +1,378 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Execution statistics per SQL template for every statement handed out by {@link StatementCache},
+ * which covers {@link Database}, {@link AttachmentManager}, {@link CategoryManager} and
+ * {@link UserManager}.
+ *
+ * Statements are wrapped in a dynamic proxy that times each execution (for queries, the
+ * {@code executeQuery} call plus every {@code next()} until the ResultSet is closed, since SQLite
+ * does its work while stepping) and counts the rows returned or changed. Calls slower than the
+ * threshold are logged, and the first time a template is slow its {@code EXPLAIN QUERY PLAN} is
+ * captured on the same connection; plans that scan a table without an index are flagged.
+ *
+ * On by default; start with {@code -Dsecurevault.profiler=false} to hand out unwrapped statements,
+ * and {@code -Dsecurevault.slowQueryMs=N} to change the threshold (default 50 ms).
+ */
+public final class QueryProfiler {
+    /** Upper bounds of the latency histogram buckets in microseconds; a last bucket holds the rest. */
+    public static final long[] BUCKET_BOUNDS_MICROS = { 100, 500, 1_000, 5_000, 10_000, 50_000, 100_000, 500_000 };
+
+    private static final QueryProfiler INSTANCE = new QueryProfiler(
+        !"false".equalsIgnoreCase(System.getProperty("securevault.profiler")),
+        Long.getLong("securevault.slowQueryMs", 50));
+
+    // Batched IN lists differ only in their number of placeholders
+    private static final Pattern IN_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Map<String, TemplateStats> templates = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+    private volatile long slowThresholdNanos;
+
+    private QueryProfiler(boolean enabled, long slowThresholdMillis) {
+        this.enabled = enabled;
+        setSlowThresholdMillis(slowThresholdMillis);
+    }
+
+    public static QueryProfiler getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Statements prepared while the profiler is off are not wrapped and stay unprofiled;
+     * wrapped statements stop recording while it is off.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getSlowThresholdMillis() {
+        return slowThresholdNanos / 1_000_000;
+    }
+
+    public void setSlowThresholdMillis(long millis) {
+        this.slowThresholdNanos = Math.max(0, millis) * 1_000_000;
+    }
+
+    /**
+     * Returns a profiling proxy for a freshly prepared statement, or the statement itself if
+     * the profiler is off.
+     */
+    public PreparedStatement wrap(PreparedStatement pstmt, String sql) {
+        if (!enabled) {
+            return pstmt;
+        }
+        TemplateStats stats = templates.computeIfAbsent(templateOf(sql), TemplateStats::new);
+        return (PreparedStatement) Proxy.newProxyInstance(QueryProfiler.class.getClassLoader(),
+            new Class<?>[] { PreparedStatement.class }, new StatementHandler(pstmt, sql, stats));
+    }
+
+    static String templateOf(String sql) {
+        return WHITESPACE.matcher(IN_LIST.matcher(sql).replaceAll("?, ...")).replaceAll(" ").trim();
+    }
+
+    /**
+     * @return Statistics of every template seen, slowest total time first
+     */
+    public List<Entry> snapshot() {
+        List<Entry> entries = new ArrayList<>();
+        for (TemplateStats stats : templates.values()) {
+            Entry entry = stats.toEntry();
+            if (entry.calls > 0) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparingLong((Entry e) -> e.totalNanos).reversed());
+        return entries;
+    }
+
+    public void reset() {
+        templates.clear();
+    }
+
+    /**
+     * Writes a plain-text report of {@link #snapshot()}: one block per template with its
+     * counters, latency histogram and captured plan.
+     */
+    public void dump(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("SecureVault query profile, " + java.time.LocalDateTime.now()
+                        + ", slow threshold " + getSlowThresholdMillis() + " ms");
+            for (Entry entry : snapshot()) {
+                out.println();
+                out.println(entry.template);
+                out.printf(Locale.ROOT, "  calls %d, total %.1f ms, avg %.3f ms, max %.1f ms, rows %d, slow %d%s%n",
+                           entry.calls, entry.totalMillis(), entry.averageMillis(), entry.maxNanos / 1e6,
+                           entry.rows, entry.slowCalls, entry.fullScan ? ", FULL SCAN" : "");
+                out.println("  latency " + entry.histogramText());
+                for (String line : entry.plan) {
+                    out.println("  plan: " + line);
+                }
+            }
+        }
+    }
+
+    private void record(TemplateStats stats, Connection conn, String sql, long nanos, long rows) {
+        boolean slow = nanos >= slowThresholdNanos;
+        boolean capture = stats.add(nanos, rows, slow);
+        if (!slow) {
+            return;
+        }
+        if (capture) {
+            stats.setPlan(explain(conn, sql));
+        }
+        Entry entry = stats.toEntry();
+        System.err.printf(Locale.ROOT, "Slow query (%.1f ms, %d rows)%s: %s%n", nanos / 1e6, rows,
+                          entry.fullScan ? " [full scan]" : "", entry.template);
+    }
+
+    // Unbound parameters are NULL, which does not change the plan's choice of index
+    private static List<String> explain(Connection conn, String sql) {
+        List<String> plan = new ArrayList<>();
+        String verb = sql.stripLeading().toUpperCase(Locale.ROOT);
+        if (!(verb.startsWith("SELECT") || verb.startsWith("WITH") || verb.startsWith("INSERT")
+              || verb.startsWith("UPDATE") || verb.startsWith("DELETE"))) {
+            return plan;
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                plan.add(rs.getString("detail"));
+            }
+        } catch (SQLException e) {
+            plan.add("(plan unavailable: " + e.getMessage() + ")");
+        }
+        return plan;
+    }
+
+    /**
+     * A plan step that reads a whole table: SQLite reports it as "SCAN table" without an index.
+     */
+    static boolean isFullScan(String planLine) {
+        return planLine.startsWith("SCAN ") && !planLine.contains(" USING ");
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private final class StatementHandler implements InvocationHandler {
+        private final PreparedStatement target;
+        private final String sql;
+        private final TemplateStats stats;
+
+        StatementHandler(PreparedStatement target, String sql, TemplateStats stats) {
+            this.target = target;
+            this.sql = sql;
+            this.stats = stats;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (!enabled || !name.startsWith("execute") || (args != null && args.length > 0)) {
+                // execute(String) and friends bypass the prepared SQL; leave them alone
+                return QueryProfiler.invoke(target, method, args);
+            }
+            long start = System.nanoTime();
+            Object result = QueryProfiler.invoke(target, method, args);
+            long elapsed = System.nanoTime() - start;
+            if (result instanceof ResultSet rs) {
+                return Proxy.newProxyInstance(QueryProfiler.class.getClassLoader(),
+                    new Class<?>[] { ResultSet.class }, new ResultSetHandler(rs, this, elapsed));
+            }
+            long rows = 0;
+            if (result instanceof Integer count) {
+                rows = count;
+            } else if (result instanceof Long count) {
+                rows = count;
+            } else if (result instanceof int[] counts) {
+                for (int count : counts) {
+                    rows += Math.max(0, count);
+                }
+            }
+            finish(elapsed, rows);
+            return result;
+        }
+
+        void finish(long nanos, long rows) {
+            try {
+                record(stats, target.getConnection(), sql, nanos, rows);
+            } catch (SQLException e) {
+                System.err.println("Warning: Query profiler could not record: " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final StatementHandler statement;
+        private long nanos;
+        private long rows;
+        private boolean recorded;
+
+        ResultSetHandler(ResultSet target, StatementHandler statement, long executeNanos) {
+            this.target = target;
+            this.statement = statement;
+            this.nanos = executeNanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next" -> {
+                    long start = System.nanoTime();
+                    Object result = QueryProfiler.invoke(target, method, args);
+                    nanos += System.nanoTime() - start;
+                    if (Boolean.TRUE.equals(result)) {
+                        rows++;
+                    }
+                    return result;
+                }
+                case "close" -> {
+                    Object result = QueryProfiler.invoke(target, method, args);
+                    if (!recorded) {
+                        recorded = true;
+                        statement.finish(nanos, rows);
+                    }
+                    return result;
+                }
+                default -> {
+                    return QueryProfiler.invoke(target, method, args);
+                }
+            }
+        }
+    }
+
+    private static final class TemplateStats {
+        private final String template;
+        private final long[] histogram = new long[BUCKET_BOUNDS_MICROS.length + 1];
+        private long calls;
+        private long totalNanos;
+        private long maxNanos;
+        private long rows;
+        private long slowCalls;
+        private List<String> plan; // null until the first slow call
+
+        TemplateStats(String template) {
+            this.template = template;
+        }
+
+        /**
+         * @return Whether the caller should capture the plan (first slow call of this template)
+         */
+        synchronized boolean add(long nanos, long rowCount, boolean slow) {
+            calls++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            rows += rowCount;
+            long micros = nanos / 1_000;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MICROS.length && micros >= BUCKET_BOUNDS_MICROS[bucket]) {
+                bucket++;
+            }
+            histogram[bucket]++;
+            if (!slow) {
+                return false;
+            }
+            slowCalls++;
+            if (plan == null) {
+                plan = List.of(); // claimed; filled in by setPlan
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void setPlan(List<String> plan) {
+            this.plan = List.copyOf(plan);
+        }
+
+        synchronized Entry toEntry() {
+            return new Entry(template, calls, totalNanos, maxNanos, rows, slowCalls, histogram.clone(),
+                             plan != null ? plan : List.of());
+        }
+    }
+
+    /**
+     * Statistics of one SQL template at the time of {@link #snapshot()}.
+     */
+    public static final class Entry {
+        public final String template;
+        public final long calls;
+        public final long totalNanos;
+        public final long maxNanos;
+        public final long rows;
+        public final long slowCalls;
+        /** Call counts per {@link #BUCKET_BOUNDS_MICROS} bucket, plus one for slower calls. */
+        public final long[] histogram;
+        /** EXPLAIN QUERY PLAN lines, empty until the template has been slow once. */
+        public final List<String> plan;
+        public final boolean fullScan;
+
+        Entry(String template, long calls, long totalNanos, long maxNanos, long rows, long slowCalls,
+              long[] histogram, List<String> plan) {
+            this.template = template;
+            this.calls = calls;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.rows = rows;
+            this.slowCalls = slowCalls;
+            this.histogram = histogram;
+            this.plan = plan;
+            this.fullScan = plan.stream().anyMatch(QueryProfiler::isFullScan);
+        }
+
+        public double totalMillis() {
+            return totalNanos / 1e6;
+        }
+
+        public double averageMillis() {
+            return calls > 0 ? totalNanos / 1e6 / calls : 0;
+        }
+
+        /**
+         * @return The histogram as "&lt;0.1ms:12 &lt;0.5ms:3 ... &gt;=500ms:0", skipping empty buckets
+         */
+        public String histogramText() {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < histogram.length; i++) {
+                if (histogram[i] == 0) {
+                    continue;
+                }
+                String label = i < BUCKET_BOUNDS_MICROS.length
+                    ? "<" + formatMicros(BUCKET_BOUNDS_MICROS[i])
+                    : ">=" + formatMicros(BUCKET_BOUNDS_MICROS[BUCKET_BOUNDS_MICROS.length - 1]);
+                text.append(text.length() > 0 ? " " : "").append(label).append(':').append(histogram[i]);
+            }
+            return text.toString();
+        }
+
+        private static String formatMicros(long micros) {
+            return micros < 1_000 ? (micros / 1000.0) + "ms" : (micros / 1_000) + "ms";
+        }
+    }
+}
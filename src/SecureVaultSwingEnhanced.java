@@ -5,7 +5,16 @@ import java.awt.event.*;
 import java.awt.datatransfer.*;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.crypto.SecretKey;
 
@@ -16,16 +25,31 @@ public class SecureVaultSwingEnhanced extends JFrame {
     private enum FilterType { ALL, FAVORITES, WEAK, MEDIUM, STRONG }
     private enum SortType { TITLE, USERNAME, DATE_CREATED, DATE_MODIFIED, FAVORITE }
     
-    private Database database;
+    private VaultDirectory directory;
+    private Database database; // the logged-in user's vault
     private UserManager userManager;
     private CategoryManager categoryManager;
     private AttachmentManager attachmentManager;
+    private AsyncVault vault;
+    private AsyncVault.Task<VaultLoad> pendingLoad;
+    // A search query running for the current filters; superseded by the next keystroke or load
+    private AsyncVault.Task<?> pendingSearch;
+    // Ids whose notes contain noteSearchText, kept in step by change events; null text = none yet
+    private String noteSearchText;
+    private Set<Integer> noteMatches = new HashSet<>();
+    // Counts change events that carried notes, so a note search that raced one is redone
+    private int noteChanges;
+    private Timer searchTimer;
+    private static final int SEARCH_DELAY_MS = 250;
     private int currentUserId = -1;
     private String currentUsername = "";
-    private final List<Database.Credential> allCredentials = new ArrayList<>();
-    private final List<Database.Credential> filteredCredentials = new ArrayList<>();
-    private final VaultTableModel tableModel = new VaultTableModel(filteredCredentials);
-    private final JTable table = new JTable(tableModel);
+    // Replaced, never mutated: readers on any thread just take the current snapshot
+    private final AtomicReference<VaultSnapshot> snapshot = new AtomicReference<>(VaultSnapshot.EMPTY);
+    private final VaultTableModel memoryModel = new VaultTableModel(() -> snapshot.get().getVisible());
+    private CredentialTableModel tableModel = memoryModel;
+    private final JTable table = new JTable(memoryModel);
+    // Vaults larger than this are shown through a paged model instead of being loaded whole
+    private static final int PAGED_MODE_THRESHOLD = 5_000;
     private JLabel userLabel;
     private JLabel statusLabel;
     private JTextField searchField;
@@ -46,10 +70,8 @@ public class SecureVaultSwingEnhanced extends JFrame {
         setLocationRelativeTo(null);
         
         try {
-            database = new Database();
-            userManager = new UserManager(database.getConnection());
-            categoryManager = new CategoryManager(database.getConnection());
-            attachmentManager = new AttachmentManager(database.getConnection());
+            directory = new VaultDirectory();
+            userManager = new UserManager(directory.getConnectionPool());
         } catch (SQLException e) {
             showError("Database initialization failed: " + e.getMessage());
             System.exit(1);
@@ -68,7 +90,7 @@ public class SecureVaultSwingEnhanced extends JFrame {
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                if (database != null) database.close();
+                closeStorage();
             }
         });
     }
@@ -115,6 +137,14 @@ public class SecureVaultSwingEnhanced extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e) { onDelete(); }
         });
+            
+        // Ctrl+Shift+D - Query diagnostics
+        rootPane.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(
+            KeyStroke.getKeyStroke(KeyEvent.VK_D, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "queryDiagnostics");
+        rootPane.getActionMap().put("queryDiagnostics", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) { new QueryDiagnosticsDialog(SecureVaultSwingEnhanced.this, database).setVisible(true); }
+        });
     }
     
     private boolean showLogin() {
@@ -144,6 +174,7 @@ public class SecureVaultSwingEnhanced extends JFrame {
                     if (userManager.createUser(username, password)) {
                         currentUserId = userManager.authenticateUser(username, password);
                         currentUsername = username;
+                        openUserVault(currentUserId);
                         setEncryptionKeyForUser(username, password);
                         JOptionPane.showMessageDialog(this,
                             "User created successfully! Welcome, " + username + "!",
@@ -157,6 +188,7 @@ public class SecureVaultSwingEnhanced extends JFrame {
                     currentUserId = userManager.authenticateUser(username, password);
                     if (currentUserId != -1) {
                         currentUsername = username;
+                        openUserVault(currentUserId);
                         setEncryptionKeyForUser(username, password);
                         // Initialize demo data for test user on first login
                         try {
@@ -176,6 +208,22 @@ public class SecureVaultSwingEnhanced extends JFrame {
         }
     }
     
+    /**
+     * Opens the user's own vault file and the managers that work on it.
+     */
+    private void openUserVault(int userId) throws SQLException {
+        database = directory.openVault(userId);
+        categoryManager = new CategoryManager(database.getVaultStore());
+        attachmentManager = new AttachmentManager(database.getVaultStore());
+        database.addChangeListener(this::onCredentialChanged);
+        vault = new AsyncVault(database, attachmentManager);
+    }
+    
+    private void closeStorage() {
+        if (vault != null) vault.close();
+        if (directory != null) directory.close();
+    }
+    
     private void setEncryptionKeyForUser(String username, String password) {
         try {
             byte[] salt = userManager.getUserSalt(username);
@@ -216,6 +264,10 @@ public class SecureVaultSwingEnhanced extends JFrame {
     }
     
     private void lockVault() {
+        if (pendingLoad != null) {
+            pendingLoad.cancel(true);
+            pendingLoad = null;
+        }
         if (database != null) {
             database.clearEncryptionKey();
         }
@@ -225,11 +277,12 @@ public class SecureVaultSwingEnhanced extends JFrame {
         
         currentUserId = -1;
         currentUsername = "";
-        allCredentials.clear();
-        filteredCredentials.clear();
-        tableModel.fireTableDataChanged();
+        snapshot.set(VaultSnapshot.EMPTY);
+        installTableModel(memoryModel);
         
         dispose();
+        // The next login opens the directory again
+        closeStorage();
         SwingUtilities.invokeLater(() -> {
             new SecureVaultSwingEnhanced().setVisible(true);
         });
@@ -343,6 +396,7 @@ public class SecureVaultSwingEnhanced extends JFrame {
         leftPanel.add(createStyledButton("🔍 Strength", _ -> onCheckStrength(), ""));
         leftPanel.add(createStyledButton("📥 Import", _ -> onImport(), ""));
         leftPanel.add(createStyledButton("📤 Export", _ -> onExport(), ""));
+        leftPanel.add(createStyledButton("💾 Backup", _ -> onBackup(), ""));
         
         JPanel rightPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 5));
         rightPanel.add(createStyledButton("📊 Health", _ -> onHealthDashboard(), ""));
@@ -387,10 +441,13 @@ public class SecureVaultSwingEnhanced extends JFrame {
             ));
         }
         
+        // Typing restarts the delay, so a search runs once the user pauses rather than per key
+        searchTimer = new Timer(SEARCH_DELAY_MS, _ -> applyFiltersAndSort());
+        searchTimer.setRepeats(false);
         searchField.addKeyListener(new KeyAdapter() {
             @Override
             public void keyReleased(KeyEvent e) {
-                applyFiltersAndSort();
+                searchTimer.restart();
             }
         });
         // Add placeholder effect
@@ -467,6 +524,8 @@ public class SecureVaultSwingEnhanced extends JFrame {
         table.getColumnModel().getColumn(4).setCellRenderer(new CategoryRenderer());
         table.getColumnModel().getColumn(5).setCellRenderer(new StrengthBarRenderer());
         table.getColumnModel().getColumn(6).setCellRenderer(new ExpiryRenderer());
+        // Keep widths and renderers when switching between the in-memory and paged models
+        table.setAutoCreateColumnsFromModel(false);
         
         table.addMouseListener(new MouseAdapter() {
             @Override
@@ -543,11 +602,9 @@ public class SecureVaultSwingEnhanced extends JFrame {
         
         // Update count in a timer
         Timer countTimer = new Timer(1000, _ -> {
-            int total = allCredentials.size();
-            int shown = filteredCredentials.size();
-            int favorites = (int) allCredentials.stream().filter(c -> c.isFavorite).count();
+            VaultSnapshot current = snapshot.get();
             countLabel.setText(String.format("📊 Total: %d  |  Showing: %d  |  ⭐ Favorites: %d", 
-                total, shown, favorites));
+                current.total, tableModel.getRowCount(), current.favorites));
         });
         countTimer.start();
         
@@ -564,82 +621,417 @@ public class SecureVaultSwingEnhanced extends JFrame {
         return btn;
     }
     
+    /**
+     * What a background load produced: the counts, plus the rows unless the vault is paged.
+     */
+    private static class VaultLoad {
+        int total;
+        int favorites;
+        List<Database.Credential> rows; // null for a large vault
+        List<String> renamed; // duplicates renamed by a schema upgrade, not yet shown
+    }
+    
+    /**
+     * Reloads the vault in the background. Any load still in flight is cancelled.
+     */
     private void loadCredentials() {
-        try {
-            List<Database.Credential> data = database.getAllCredentials(currentUserId);
-            allCredentials.clear();
-            allCredentials.addAll(data);
-            
-            // Debug: Show first credential's data
-            if (!data.isEmpty()) {
-                Database.Credential first = data.get(0);
-                System.out.println("DEBUG: First credential loaded:");
-                System.out.println("  Title: " + first.title);
-                System.out.println("  Category: " + first.category);
-                System.out.println("  Website: " + first.websiteUrl);
-                System.out.println("  Expiry: " + first.expiryDate);
+        if (pendingLoad != null) {
+            pendingLoad.cancel(true);
+        }
+        cancelPendingSearch();
+        final int userId = currentUserId;
+        updateStatus("Loading credentials...");
+        AsyncVault.Task<VaultLoad> load = vault.submit(() -> {
+            // One-time work for rows stored before password fingerprints and strength columns existed;
+            // done first so the rows loaded below carry their strength
+            database.backfillPasswordColumns(userId);
+            VaultLoad result = new VaultLoad();
+            result.total = database.countCredentials(userId, Database.CredentialQuery.ALL);
+            if (result.total > PAGED_MODE_THRESHOLD) {
+                // Rows are fetched page by page as the table scrolls
+                result.favorites = database.countCredentials(userId,
+                    new Database.CredentialQuery(null, true, null, null));
+                database.loadDuplicateIndex(userId);
+            } else {
+                // Also builds the duplicate-detection index from the same rows
+                result.rows = database.getAllCredentials(userId);
             }
-            
+            result.renamed = database.getRenamedCredentials(userId);
+            return result;
+        });
+        pendingLoad = load;
+        load.whenComplete((result, error) -> {
+            if (pendingLoad != load || load.isCancelled()) {
+                return;
+            }
+            pendingLoad = null;
+            if (error != null) {
+                showError("Failed to load credentials: " + AsyncVault.rootCause(error).getMessage());
+                return;
+            }
+            snapshot.set(result.rows == null
+                ? VaultSnapshot.paged(userId, result.total, result.favorites)
+                : VaultSnapshot.loaded(userId, result.rows));
+            noteSearchText = null;
             applyFiltersAndSort();
-            updateStatus(String.format("Loaded %d credentials", data.size()));
+            updateStatus(String.format("Loaded %d credentials", result.total));
+            if (!result.renamed.isEmpty()) {
+                showRenamedCredentials(userId, result.renamed);
+            }
+        });
+    }
+    
+    // Titles and usernames must be unique; the upgrade that enforced it renamed the later copies
+    private void showRenamedCredentials(int userId, List<String> renamed) {
+        JTextArea list = new JTextArea(String.join("\n", renamed), Math.min(renamed.size(), 12), 50);
+        list.setEditable(false);
+        JOptionPane.showMessageDialog(this, new Object[] {
+            renamed.size() + " credential(s) had the same title and username as another credential and were renamed:",
+            new JScrollPane(list)
+        }, "Renamed Credentials", JOptionPane.INFORMATION_MESSAGE);
+        vault.submit(() -> {
+            database.clearRenamedCredentials(userId);
+            return null;
+        });
+    }
+    
+    /**
+     * The current snapshot with every credential loaded, loading them on demand when the table is paged.
+     */
+    private VaultSnapshot getFullVault() throws SQLException {
+        VaultSnapshot current = snapshot.get();
+        if (!current.isFullyLoaded()) {
+            current = current.withAll(database.getAllCredentials(currentUserId));
+            snapshot.set(current);
+        }
+        return current;
+    }
+    
+    private void installTableModel(CredentialTableModel model) {
+        if (model != tableModel) {
+            tableModel = model;
+            table.setModel(model);
+        } else {
+            tableModel.fireTableDataChanged();
+        }
+    }
+    
+    private Database.SortOrder toSortOrder() {
+        return switch (currentSort) {
+            case FAVORITE -> Database.SortOrder.FAVORITE_FIRST;
+            case TITLE -> sortAscending ? Database.SortOrder.TITLE_ASC : Database.SortOrder.TITLE_DESC;
+            case USERNAME -> sortAscending ? Database.SortOrder.USERNAME_ASC : Database.SortOrder.USERNAME_DESC;
+            case DATE_MODIFIED -> sortAscending ? Database.SortOrder.MODIFIED_ASC : Database.SortOrder.MODIFIED_DESC;
+            case DATE_CREATED -> sortAscending ? Database.SortOrder.CREATED_ASC : Database.SortOrder.CREATED_DESC;
+        };
+    }
+    
+    private StrengthChecker.Strength toStrength() {
+        return switch (currentFilter) {
+            case WEAK -> StrengthChecker.Strength.WEAK;
+            case MEDIUM -> StrengthChecker.Strength.MEDIUM;
+            case STRONG -> StrengthChecker.Strength.STRONG;
+            default -> null;
+        };
+    }
+    
+    private void applyFiltersAndSort() {
+        if (pendingLoad != null) {
+            return; // the load in flight filters and sorts when it completes
+        }
+        String searchText = searchField != null ? searchField.getText().toLowerCase() : "";
+        int userId = currentUserId;
+        
+        // Strength is a stored column, so every filter runs in SQL for a paged vault
+        VaultSnapshot current = snapshot.get();
+        if (current.paged) {
+            Database.CredentialQuery query = new Database.CredentialQuery(
+                null, currentFilter == FilterType.FAVORITES, searchText, toSortOrder(), toStrength());
+            startSearch(vault.countCredentials(userId, query),
+                        count -> installTableModel(new PagedVaultTableModel(database, userId, query, count)));
+            return;
+        }
+        try {
+            current = getFullVault();
         } catch (SQLException e) {
             showError("Failed to load credentials: " + e.getMessage());
+            return;
+        }
+        
+        // List rows do not hold notes, so a new search asks the database which notes match
+        // and filters when the answer arrives
+        if (!searchText.isEmpty() && !searchText.equals(noteSearchText)) {
+            int changesBefore = noteChanges;
+            startSearch(vault.findNotesContaining(userId, searchText), ids -> {
+                if (noteChanges == changesBefore) {
+                    noteSearchText = searchText;
+                    noteMatches = new HashSet<>(ids);
+                }
+                applyFiltersAndSort();
+            });
+            return;
         }
+        cancelPendingSearch();
+        Set<Integer> matches = searchText.isEmpty() ? Set.of() : noteMatches;
+        snapshot.set(current.withVisible(current.getAll().stream()
+            .filter(c -> matchesFilters(c, searchText, matches))
+            .sorted(credentialComparator())
+            .collect(Collectors.toList())));
+        
+        installTableModel(memoryModel);
     }
     
-    private void applyFiltersAndSort() {
+    // Runs a search query in the background and applies it on the EDT unless a newer one replaced it
+    private <T> void startSearch(AsyncVault.Task<T> search, Consumer<T> apply) {
+        cancelPendingSearch();
+        pendingSearch = search;
+        search.whenComplete((result, error) -> {
+            if (pendingSearch != search || search.isCancelled()) {
+                return;
+            }
+            pendingSearch = null;
+            if (error != null) {
+                showError("Failed to search credentials: " + AsyncVault.rootCause(error).getMessage());
+                return;
+            }
+            apply.accept(result);
+        });
+    }
+    
+    private void cancelPendingSearch() {
+        if (pendingSearch != null) {
+            pendingSearch.cancel(true);
+            pendingSearch = null;
+        }
+    }
+    
+    // Inserts and updates carry the row's notes; keep the note search result in step with them
+    private void trackNoteMatch(Database.ChangeEvent event) {
+        if (event.credential == null) {
+            noteMatches.remove(event.credentialId);
+            return;
+        }
+        String notes = event.credential.getLoadedNotes();
+        if (notes == null) {
+            return; // a change that leaves the notes alone
+        }
+        noteChanges++;
+        if (noteSearchText != null && notes.toLowerCase().contains(noteSearchText)) {
+            noteMatches.add(event.credentialId);
+        } else {
+            noteMatches.remove(event.credentialId);
+        }
+    }
+    
+    /**
+     * Never reads notes from the database: a row that holds its notes is checked against them,
+     * any other row against {@code noteMatches}.
+     *
+     * @param noteMatches Ids whose notes contain the search text
+     */
+    private boolean matchesFilters(Database.Credential c, String searchText, Set<Integer> noteMatches) {
+        String notes = c.getLoadedNotes();
+        // Apply search filter
+        boolean matchesSearch = searchText.isEmpty() ||
+            c.title.toLowerCase().contains(searchText) ||
+            c.username.toLowerCase().contains(searchText) ||
+            (notes != null ? notes.toLowerCase().contains(searchText) : noteMatches.contains(c.id));
+        
+        if (!matchesSearch) return false;
+        
+        // Apply type filter
+        return switch (currentFilter) {
+            case FAVORITES -> c.isFavorite;
+            case WEAK -> c.getStrength() == StrengthChecker.Strength.WEAK;
+            case MEDIUM -> c.getStrength() == StrengthChecker.Strength.MEDIUM;
+            case STRONG -> c.getStrength() == StrengthChecker.Strength.STRONG;
+            default -> true;
+        };
+    }
+    
+    private Comparator<Database.Credential> credentialComparator() {
+        return (c1, c2) -> {
+            int result = switch (currentSort) {
+                // Every key in ascending order, as in Database.SortOrder; descending sorts negate it
+                case FAVORITE -> Boolean.compare(c1.isFavorite, c2.isFavorite);
+                case TITLE -> c1.title.compareToIgnoreCase(c2.title);
+                case USERNAME -> c1.username.compareToIgnoreCase(c2.username);
+                case DATE_CREATED -> (c1.createdDate != null && c2.createdDate != null) ?
+                    c1.createdDate.compareTo(c2.createdDate) : 0;
+                case DATE_MODIFIED -> (c1.modifiedDate != null && c2.modifiedDate != null) ?
+                    c1.modifiedDate.compareTo(c2.modifiedDate) : 0;
+            };
+            return sortAscending ? result : -result;
+        };
+    }
+    
+    /**
+     * Publishes a snapshot with a committed change applied and fires a row-level table event,
+     * instead of reloading the whole vault. Paged views patch their cached page, see
+     * {@link #applyPagedChange}.
+     */
+    private void onCredentialChanged(Database.ChangeEvent event) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> onCredentialChanged(event));
+            return;
+        }
+        if (event.userId != currentUserId) {
+            return;
+        }
+        VaultSnapshot current = snapshot.get();
+        if (event.type != Database.ChangeEvent.Type.BULK_CHANGED && pendingLoad == null
+            && tableModel instanceof PagedVaultTableModel pagedModel) {
+            applyPagedChange(pagedModel, current, event);
+            return;
+        }
+        if (event.type == Database.ChangeEvent.Type.BULK_CHANGED || !current.isFullyLoaded() || pendingLoad != null) {
+            loadCredentials();
+            return;
+        }
+        
+        Database.Credential updated = event.credential;
+        trackNoteMatch(event);
+        current = current.withCredential(event.credentialId, updated);
+        if (tableModel != memoryModel) {
+            snapshot.set(current);
+            return;
+        }
+        
+        // Each table event is fired right after the snapshot it describes is published
+        // A search still in flight filters again when it completes
         String searchText = searchField != null ? searchField.getText().toLowerCase() : "";
+        boolean visible = updated != null
+            && matchesFilters(updated, searchText, searchText.equals(noteSearchText) ? noteMatches : Set.of());
+        List<Database.Credential> rows = new ArrayList<>(current.getVisible());
+        int oldRow = indexOfId(rows, event.credentialId);
+        boolean wasSelected = oldRow >= 0 && table.getSelectedRow() == oldRow;
+        if (oldRow >= 0) {
+            if (visible && staysInPlace(rows, oldRow, updated)) {
+                rows.set(oldRow, updated);
+                snapshot.set(current.withVisible(rows));
+                memoryModel.fireTableRowsUpdated(oldRow, oldRow);
+                return;
+            }
+            rows.remove(oldRow);
+            current = current.withVisible(rows);
+            snapshot.set(current);
+            memoryModel.fireTableRowsDeleted(oldRow, oldRow);
+        }
+        if (visible) {
+            int newRow = insertionPoint(rows, updated);
+            rows.add(newRow, updated);
+            snapshot.set(current.withVisible(rows));
+            memoryModel.fireTableRowsInserted(newRow, newRow);
+            if (wasSelected || event.type == Database.ChangeEvent.Type.INSERTED) {
+                table.setRowSelectionInterval(newRow, newRow);
+                table.scrollRectToVisible(table.getCellRect(newRow, 0, true));
+            }
+        } else if (oldRow < 0) {
+            snapshot.set(current);
+        }
+    }
+    
+    /**
+     * Applies a change to the paged table without re-counting or reloading the vault. A cached
+     * row is patched in place and keeps its position until the pages are fetched again; a row
+     * that enters or leaves the view drops the cached pages from its position on. Only a change
+     * to a row that is not cached rebuilds the model, because whether it was in the view is unknown.
+     */
+    private void applyPagedChange(PagedVaultTableModel model, VaultSnapshot current, Database.ChangeEvent event) {
+        Database.Credential updated = event.credential;
+        int row = model.rowOf(event.credentialId);
+        Database.Credential old = row >= 0 ? model.getCredentialAt(row) : null;
         
-        filteredCredentials.clear();
-        filteredCredentials.addAll(allCredentials.stream()
-            .filter(c -> {
-                // Apply search filter
-                boolean matchesSearch = searchText.isEmpty() ||
-                    c.title.toLowerCase().contains(searchText) ||
-                    c.username.toLowerCase().contains(searchText) ||
-                    (c.notes != null && c.notes.toLowerCase().contains(searchText));
-                
-                if (!matchesSearch) return false;
-                
-                // Apply type filter
-                return switch (currentFilter) {
-                    case FAVORITES -> c.isFavorite;
-                    case WEAK -> StrengthChecker.checkStrength(c.password) == StrengthChecker.Strength.WEAK;
-                    case MEDIUM -> StrengthChecker.checkStrength(c.password) == StrengthChecker.Strength.MEDIUM;
-                    case STRONG -> StrengthChecker.checkStrength(c.password) == StrengthChecker.Strength.STRONG;
-                    default -> true;
-                };
-            })
-            .sorted((c1, c2) -> {
-                int result = switch (currentSort) {
-                    case FAVORITE -> Boolean.compare(c2.isFavorite, c1.isFavorite);
-                    case TITLE -> c1.title.compareToIgnoreCase(c2.title);
-                    case USERNAME -> c1.username.compareToIgnoreCase(c2.username);
-                    case DATE_CREATED -> (c1.createdDate != null && c2.createdDate != null) ?
-                        c2.createdDate.compareTo(c1.createdDate) : 0;
-                    case DATE_MODIFIED -> (c1.modifiedDate != null && c2.modifiedDate != null) ?
-                        c2.modifiedDate.compareTo(c1.modifiedDate) : 0;
-                };
-                return sortAscending ? result : -result;
-            })
-            .collect(Collectors.toList()));
+        if (current.isFullyLoaded()) {
+            snapshot.set(current.withCredential(event.credentialId, updated));
+        } else if (event.type == Database.ChangeEvent.Type.INSERTED) {
+            snapshot.set(current.withCounts(current.total + 1, current.favorites + (updated.isFavorite ? 1 : 0)));
+        } else if (old != null) {
+            int favorites = current.favorites - (old.isFavorite ? 1 : 0) + (updated != null && updated.isFavorite ? 1 : 0);
+            snapshot.set(current.withCounts(current.total - (updated == null ? 1 : 0), favorites));
+        } else {
+            refreshPagedCounts(event.userId);
+        }
         
-        tableModel.fireTableDataChanged();
+        // Events that do not carry notes leave them alone, so a cached row (one the query
+        // returned) still matches the search on its notes
+        String searchText = searchField != null ? searchField.getText().toLowerCase() : "";
+        boolean visible = updated != null
+            && matchesFilters(updated, searchText, row >= 0 ? Set.of(event.credentialId) : Set.of());
+        if (row >= 0 && visible) {
+            model.replaceRow(row, updated);
+            model.fireTableRowsUpdated(row, row);
+        } else if (row >= 0) {
+            model.shiftRows(row, -1);
+            model.fireTableDataChanged();
+        } else if (event.type == Database.ChangeEvent.Type.INSERTED) {
+            if (visible) {
+                model.shiftRows(0, 1);
+                model.fireTableDataChanged();
+            }
+        } else {
+            applyFiltersAndSort();
+        }
+    }
+    
+    // Status-bar counts of a paged vault after a change to a row that is not cached
+    private void refreshPagedCounts(int userId) {
+        vault.submit(() -> new int[] {
+            database.countCredentials(userId, Database.CredentialQuery.ALL),
+            database.countCredentials(userId, new Database.CredentialQuery(null, true, null, null))
+        }).whenComplete((counts, error) -> {
+            VaultSnapshot current = snapshot.get();
+            if (error == null && current.userId == userId && current.paged && !current.isFullyLoaded()) {
+                snapshot.set(current.withCounts(counts[0], counts[1]));
+            }
+        });
+    }
+    
+    private static int indexOfId(List<Database.Credential> list, int id) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).id == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private boolean staysInPlace(List<Database.Credential> rows, int row, Database.Credential updated) {
+        Comparator<Database.Credential> order = credentialComparator();
+        return (row == 0 || order.compare(rows.get(row - 1), updated) <= 0)
+            && (row == rows.size() - 1 || order.compare(updated, rows.get(row + 1)) <= 0);
+    }
+    
+    // Position after the last row that sorts before or equal to the credential
+    private int insertionPoint(List<Database.Credential> rows, Database.Credential cred) {
+        Comparator<Database.Credential> order = credentialComparator();
+        int low = 0;
+        int high = rows.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (order.compare(rows.get(mid), cred) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
     
     private void onAdd() {
         EnhancedCredentialDialog dialog = new EnhancedCredentialDialog(this, null, categoryManager, currentUserId);
-        if (dialog.showDialog()) {
-            try {
-                database.insertCredential(currentUserId, dialog.getTitle(),
-                    dialog.getUsername(), dialog.getPassword(), 
-                    dialog.getNotes(), dialog.isFavorite(),
-                    dialog.getCategory(), dialog.getWebsiteUrl(), dialog.getExpiryDate());
-                loadCredentials();
-                updateStatus("Credential added successfully");
-            } catch (SQLException e) {
-                showError("Failed to add credential: " + e.getMessage());
-            }
+        if (dialog.showDialog() && confirmPasswordReuse(dialog.getPassword(), -1)) {
+            vault.insertCredential(currentUserId, dialog.getTitle(),
+                dialog.getUsername(), dialog.getPassword(), 
+                dialog.getNotes(), dialog.isFavorite(),
+                dialog.getCategory(), dialog.getWebsiteUrl(), dialog.getExpiryDate())
+                .whenComplete((id, error) -> {
+                    if (error != null) {
+                        showError("Failed to add credential: " + AsyncVault.rootCause(error).getMessage());
+                    } else {
+                        updateStatus("Credential added successfully");
+                    }
+                });
         }
     }
     
@@ -650,22 +1042,53 @@ public class SecureVaultSwingEnhanced extends JFrame {
             return;
         }
         
-        Database.Credential cred = filteredCredentials.get(row);
+        Database.Credential cred = tableModel.getCredentialAt(row);
+        try {
+            // The table holds rows without notes; saving must not blank them
+            cred = database.withNotes(List.of(cred)).get(0);
+        } catch (SQLException e) {
+            showError("Failed to load credential: " + e.getMessage());
+            return;
+        }
         EnhancedCredentialDialog dialog = new EnhancedCredentialDialog(this, cred, categoryManager, currentUserId);
-        if (dialog.showDialog()) {
+        if (dialog.showDialog()
+            && (dialog.getPassword().equals(cred.getPassword()) || confirmPasswordReuse(dialog.getPassword(), cred.id))) {
             try {
-                database.updateCredential(cred.id, dialog.getTitle(),
+                // Fails instead of silently overwriting if the row changed while the dialog was open
+                database.updateCredential(cred.id, cred.version, dialog.getTitle(),
                     dialog.getUsername(), dialog.getPassword(),
                     dialog.getNotes(), dialog.isFavorite(),
                     dialog.getCategory(), dialog.getWebsiteUrl(), dialog.getExpiryDate());
-                loadCredentials();
                 updateStatus("Credential updated successfully");
+            } catch (Database.StaleCredentialException e) {
+                showError(e.getMessage());
+                loadCredentials();
             } catch (SQLException e) {
                 showError("Failed to update credential: " + e.getMessage());
             }
         }
     }
     
+    /**
+     * Asks before saving a password that other credentials already use. One index probe on the
+     * password fingerprint, see {@link Database#countPasswordReuse}.
+     */
+    private boolean confirmPasswordReuse(String password, int excludeId) {
+        int reused;
+        try {
+            reused = database.countPasswordReuse(currentUserId, password, excludeId);
+        } catch (SQLException e) {
+            System.err.println("Warning: Password reuse check failed: " + e.getMessage());
+            return true;
+        }
+        if (reused == 0) {
+            return true;
+        }
+        return JOptionPane.showConfirmDialog(this,
+            "This password is already used by " + reused + " other credential(s).\nSave it anyway?",
+            "Reused Password", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) == JOptionPane.YES_OPTION;
+    }
+    
     private void onDelete() {
         int row = table.getSelectedRow();
         if (row < 0) {
@@ -673,7 +1096,7 @@ public class SecureVaultSwingEnhanced extends JFrame {
             return;
         }
         
-        Database.Credential cred = filteredCredentials.get(row);
+        Database.Credential cred = tableModel.getCredentialAt(row);
         int confirm = JOptionPane.showConfirmDialog(this,
             "Delete credential \"" + cred.title + "\"?",
             "Confirm Delete", JOptionPane.YES_NO_OPTION);
@@ -681,7 +1104,6 @@ public class SecureVaultSwingEnhanced extends JFrame {
         if (confirm == JOptionPane.YES_OPTION) {
             try {
                 database.deleteCredential(cred.id);
-                loadCredentials();
                 updateStatus("Credential deleted");
             } catch (SQLException e) {
                 showError("Failed to delete credential: " + e.getMessage());
@@ -695,7 +1117,7 @@ public class SecureVaultSwingEnhanced extends JFrame {
             showError("Please select a credential!");
             return;
         }
-        copyToClipboardSecure(filteredCredentials.get(row).password, true);
+        copyToClipboardSecure(tableModel.getCredentialAt(row).getPassword(), true);
     }
     
     private void onCopyUsername() {
@@ -704,7 +1126,7 @@ public class SecureVaultSwingEnhanced extends JFrame {
             showError("Please select a credential!");
             return;
         }
-        copyToClipboardSecure(filteredCredentials.get(row).username, false);
+        copyToClipboardSecure(tableModel.getCredentialAt(row).username, false);
     }
     
     private void onToggleFavorite() {
@@ -714,13 +1136,13 @@ public class SecureVaultSwingEnhanced extends JFrame {
             return;
         }
         
+        // Written behind: the table updates now, the database within a couple of seconds
+        Database.Credential cred = tableModel.getCredentialAt(row);
         try {
-            Database.Credential cred = filteredCredentials.get(row);
-            database.toggleFavorite(cred.id);
-            loadCredentials();
+            database.setFavorite(currentUserId, cred, !cred.isFavorite);
             updateStatus(cred.isFavorite ? "Removed from favorites" : "Added to favorites");
         } catch (SQLException e) {
-            showError("Failed to toggle favorite: " + e.getMessage());
+            showError("Failed to update favorite: " + e.getMessage());
         }
     }
     
@@ -731,8 +1153,8 @@ public class SecureVaultSwingEnhanced extends JFrame {
     private void onCheckStrength() {
         int row = table.getSelectedRow();
         if (row >= 0) {
-            Database.Credential cred = filteredCredentials.get(row);
-            new StrengthCheckerDialog(this, cred.password).setVisible(true);
+            Database.Credential cred = tableModel.getCredentialAt(row);
+            new StrengthCheckerDialog(this, cred.getPassword()).setVisible(true);
         } else {
             new StrengthCheckerDialog(this, "").setVisible(true);
         }
@@ -805,26 +1227,32 @@ public class SecureVaultSwingEnhanced extends JFrame {
             "CSV or ZIP files", "csv", "zip"));
         
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try {
-                ImportExportManager importExport = new ImportExportManager(database, currentUserId, database.getEncryptionKey());
-                java.io.File selectedFile = fileChooser.getSelectedFile();
-                int imported = 0;
-                
-                if (selectedFile.getName().toLowerCase().endsWith(".zip")) {
-                    imported = importExport.importFromArchive(selectedFile, attachmentManager);
-                } else {
-                    imported = importExport.importFromCSV(selectedFile);
+            ImportExportManager importExport = new ImportExportManager(database, currentUserId, database.getEncryptionKey());
+            java.io.File selectedFile = fileChooser.getSelectedFile();
+            
+            String[] modes = {"Skip duplicates", "Overwrite existing", "Merge into existing"};
+            int choice = JOptionPane.showOptionDialog(this,
+                "What should happen to entries whose title and username already exist?",
+                "Import Duplicates", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE,
+                null, modes, modes[0]);
+            if (choice < 0) {
+                return;
+            }
+            Database.ImportMode mode = Database.ImportMode.values()[choice];
+            updateStatus("Importing " + selectedFile.getName() + "...");
+            
+            vault.importFile(importExport, selectedFile, mode).whenComplete((imported, error) -> {
+                if (error != null) {
+                    Throwable cause = AsyncVault.rootCause(error);
+                    showError("Import failed: " + cause.getMessage());
+                    cause.printStackTrace();
+                    return;
                 }
-                
-                loadCredentials();
                 JOptionPane.showMessageDialog(this, 
                     "Successfully imported " + imported + " credentials!",
                     "Import Complete", JOptionPane.INFORMATION_MESSAGE);
                 updateStatus("Imported " + imported + " credentials");
-            } catch (Exception e) {
-                showError("Import failed: " + e.getMessage());
-                e.printStackTrace();
-            }
+            });
         }
     }
     
@@ -837,35 +1265,99 @@ public class SecureVaultSwingEnhanced extends JFrame {
             java.time.LocalDate.now() + ".zip"));
         
         if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try {
-                ImportExportManager importExport = new ImportExportManager(database, currentUserId, database.getEncryptionKey());
-                java.io.File outputFile = fileChooser.getSelectedFile();
-                
-                // Ensure .zip extension
-                if (!outputFile.getName().toLowerCase().endsWith(".zip")) {
-                    outputFile = new java.io.File(outputFile.getAbsolutePath() + ".zip");
+            ImportExportManager importExport = new ImportExportManager(database, currentUserId, database.getEncryptionKey());
+            java.io.File selected = fileChooser.getSelectedFile();
+            
+            // Ensure .zip extension
+            final java.io.File outputFile = selected.getName().toLowerCase().endsWith(".zip")
+                ? selected : new java.io.File(selected.getAbsolutePath() + ".zip");
+            updateStatus("Exporting...");
+            
+            // Served from the session cache once the vault has been read
+            vault.getAllCredentialsDecrypted(currentUserId).thenCompose(rows -> vault.exportToArchive(importExport, outputFile, rows).thenApply(_ -> rows.size()))
+                .whenComplete((exported, error) -> {
+                    if (error != null) {
+                        Throwable cause = AsyncVault.rootCause(error);
+                        showError("Export failed: " + cause.getMessage());
+                        cause.printStackTrace();
+                        return;
+                    }
+                    JOptionPane.showMessageDialog(this, 
+                        "Successfully exported " + exported + " credentials to:\n" + outputFile.getAbsolutePath(),
+                        "Export Complete", JOptionPane.INFORMATION_MESSAGE);
+                    updateStatus("Exported " + exported + " credentials");
+                });
+        }
+    }
+    
+    /**
+     * Copies the encrypted vault file as it is, without decrypting anything; see {@link Database#backupTo}.
+     */
+    private void onBackup() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Back Up Vault");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+            "Vault Backup (*.db)", "db"));
+        fileChooser.setSelectedFile(new java.io.File("securevault_vault_" + 
+            java.time.LocalDate.now() + ".db"));
+        
+        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            java.io.File selected = fileChooser.getSelectedFile();
+            final java.io.File outputFile = selected.getName().toLowerCase().endsWith(".db")
+                ? selected : new java.io.File(selected.getAbsolutePath() + ".db");
+            updateStatus("Backing up...");
+            
+            vault.backupTo(outputFile.toPath(), (remaining, total) -> {
+                int percent = total > 0 ? (total - remaining) * 100 / total : 100;
+                SwingUtilities.invokeLater(() -> updateStatus("Backing up... " + percent + "%"));
+            }).whenComplete((_, error) -> {
+                if (error != null) {
+                    Throwable cause = AsyncVault.rootCause(error);
+                    showError("Backup failed: " + cause.getMessage());
+                    cause.printStackTrace();
+                    return;
                 }
-                
-                importExport.exportToArchive(outputFile, allCredentials, attachmentManager);
-                
                 JOptionPane.showMessageDialog(this, 
-                    "Successfully exported " + allCredentials.size() + " credentials to:\n" + outputFile.getAbsolutePath(),
-                    "Export Complete", JOptionPane.INFORMATION_MESSAGE);
-                updateStatus("Exported " + allCredentials.size() + " credentials");
-            } catch (Exception e) {
-                showError("Export failed: " + e.getMessage());
-                e.printStackTrace();
-            }
+                    "Vault backed up to:\n" + outputFile.getAbsolutePath() +
+                    "\n\nPasswords in the backup stay encrypted with your master password.",
+                    "Backup Complete", JOptionPane.INFORMATION_MESSAGE);
+                updateStatus("Backup complete");
+            });
         }
     }
     
+    /**
+     * Result of a background health scan.
+     */
+    private static class HealthScan {
+        HealthDashboard.Stats stats;
+        int needsAttention;
+    }
+    
     private void onHealthDashboard() {
-        HealthDashboard health = new HealthDashboard(allCredentials);
-        HealthDashboard.Stats stats = health.calculateStats();
-        java.util.List<Database.Credential> needsAttention = health.getPasswordsNeedingAttention();
-        
-        HealthDashboardDialog dialog = new HealthDashboardDialog(this, stats, needsAttention.size());
-        dialog.setVisible(true);
+        final int userId = currentUserId;
+        // The scan reads the snapshot published now; later edits publish new ones and cannot disturb it
+        final VaultSnapshot current = snapshot.get();
+        updateStatus("Analyzing password health...");
+        vault.submit(() -> {
+            // Strength and reuse come from stored columns, so nothing is decrypted
+            List<Database.Credential> credentials = current.isFullyLoaded() && current.userId == userId
+                ? current.getAll()
+                : database.getAllCredentials(userId);
+            HealthDashboard health = new HealthDashboard(credentials, database.findReusedPasswords(userId));
+            HealthScan scan = new HealthScan();
+            scan.stats = health.calculateStats();
+            scan.needsAttention = health.getPasswordsNeedingAttention().size();
+            return scan;
+        }).whenComplete((scan, error) -> {
+            if (error != null) {
+                showError("Failed to load credentials: " + AsyncVault.rootCause(error).getMessage());
+                return;
+            }
+            updateStatus("Health analysis complete");
+            HealthDashboardDialog dialog = new HealthDashboardDialog(this, scan.stats, scan.needsAttention);
+            dialog.setVisible(true);
+        });
     }
     
     private void onLogout() {
@@ -986,29 +1478,39 @@ public class SecureVaultSwingEnhanced extends JFrame {
         JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
     }
     
+    /**
+     * Column layout and cell values shared by the in-memory and paged table models.
+     */
     @SuppressWarnings("serial")
-    static class VaultTableModel extends AbstractTableModel {
+    abstract static class CredentialTableModel extends AbstractTableModel {
         private final String[] columns = {"⭐", "Title", "Username", "Password", "Category", "Strength", "Expiry", "Modified"};
-        private final List<Database.Credential> data;
 
-        VaultTableModel(List<Database.Credential> data) {
-            this.data = data;
-        }
+        /**
+         * @return The credential shown in this row, or null if it is not available
+         */
+        abstract Database.Credential getCredentialAt(int row);
 
-        @Override public int getRowCount() { return data.size(); }
         @Override public int getColumnCount() { return columns.length; }
         @Override public String getColumnName(int col) { return columns[col]; }
 
         @Override
         public Object getValueAt(int row, int col) {
-            Database.Credential cred = data.get(row);
+            Database.Credential cred = getCredentialAt(row);
+            if (cred == null) {
+                // Row vanished between count and fetch; renderers still need the right types
+                return switch (col) {
+                    case 0 -> Boolean.FALSE;
+                    case 5 -> StrengthChecker.Strength.WEAK;
+                    default -> "";
+                };
+            }
             return switch (col) {
                 case 0 -> cred.isFavorite;
                 case 1 -> cred.title;
                 case 2 -> cred.username;
                 case 3 -> "••••••••••••";
                 case 4 -> cred.category != null && !cred.category.isEmpty() ? cred.category : "Other";
-                case 5 -> StrengthChecker.checkStrength(cred.password);
+                case 5 -> cred.getStrength();
                 case 6 -> {
                     if (cred.expiryDate != null && !cred.expiryDate.isEmpty()) {
                         if (HealthDashboard.isExpired(cred.expiryDate)) {
@@ -1029,6 +1531,134 @@ public class SecureVaultSwingEnhanced extends JFrame {
         }
     }
     
+    @SuppressWarnings("serial")
+    static class VaultTableModel extends CredentialTableModel {
+        private final Supplier<List<Database.Credential>> rows;
+
+        /**
+         * @param rows The rows of the current snapshot; read on every call, never copied
+         */
+        VaultTableModel(Supplier<List<Database.Credential>> rows) {
+            this.rows = rows;
+        }
+
+        @Override public int getRowCount() { return rows.get().size(); }
+
+        @Override
+        Database.Credential getCredentialAt(int row) {
+            List<Database.Credential> data = rows.get();
+            return row >= 0 && row < data.size() ? data.get(row) : null;
+        }
+    }
+    
+    /**
+     * Table model for large vaults: rows are fetched from the database in fixed-size windows
+     * as the table asks for them, and only a few windows are kept in memory.
+     */
+    @SuppressWarnings("serial")
+    static class PagedVaultTableModel extends CredentialTableModel {
+        private static final int PAGE_SIZE = 200;
+        private static final int MAX_CACHED_PAGES = 10;
+        
+        private final Database database;
+        private final int userId;
+        private final Database.CredentialQuery query;
+        private final Map<Integer, List<Database.Credential>> pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<Database.Credential>> eldest) {
+                return size() > MAX_CACHED_PAGES;
+            }
+        };
+        // Cursor just past the end of each page we have seen, so the next page is a keyset lookup
+        private final Map<Integer, Database.PageCursor> pageEnds = new HashMap<>();
+        private int rowCount;
+
+        /**
+         * @param rowCount What {@link Database#countCredentials} returns for the query
+         */
+        PagedVaultTableModel(Database database, int userId, Database.CredentialQuery query, int rowCount) {
+            this.database = database;
+            this.userId = userId;
+            this.query = query;
+            this.rowCount = rowCount;
+        }
+
+        @Override public int getRowCount() { return rowCount; }
+
+        @Override
+        Database.Credential getCredentialAt(int row) {
+            if (row < 0 || row >= rowCount) {
+                return null;
+            }
+            int pageIndex = row / PAGE_SIZE;
+            List<Database.Credential> page = pages.get(pageIndex);
+            if (page == null) {
+                page = loadPage(pageIndex);
+                pages.put(pageIndex, page);
+            }
+            int offset = row % PAGE_SIZE;
+            return offset < page.size() ? page.get(offset) : null;
+        }
+
+        private List<Database.Credential> loadPage(int pageIndex) {
+            try {
+                Database.Page page;
+                if (pageIndex == 0) {
+                    page = database.getCredentialPage(userId, query, null, PAGE_SIZE);
+                } else if (pageEnds.containsKey(pageIndex - 1)) {
+                    page = database.getCredentialPage(userId, query, pageEnds.get(pageIndex - 1), PAGE_SIZE);
+                } else {
+                    // Jumped past pages we have never seen (scrollbar drag)
+                    page = database.getCredentialPageAt(userId, query, pageIndex * PAGE_SIZE, PAGE_SIZE);
+                }
+                if (page.next != null) {
+                    pageEnds.put(pageIndex, page.next);
+                }
+                return page.rows;
+            } catch (SQLException e) {
+                System.err.println("Failed to load credential page " + pageIndex + ": " + e.getMessage());
+                return new ArrayList<>();
+            }
+        }
+
+        Database.CredentialQuery getQuery() {
+            return query;
+        }
+
+        /**
+         * @return The row of the credential, or -1 if it is not in a cached page
+         */
+        int rowOf(int credentialId) {
+            for (Map.Entry<Integer, List<Database.Credential>> entry : pages.entrySet()) {
+                List<Database.Credential> page = entry.getValue();
+                for (int i = 0; i < page.size(); i++) {
+                    if (page.get(i).id == credentialId) {
+                        return entry.getKey() * PAGE_SIZE + i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Replaces the cached copy of a row found with {@link #rowOf}.
+         */
+        void replaceRow(int row, Database.Credential cred) {
+            pages.get(row / PAGE_SIZE).set(row % PAGE_SIZE, cred);
+        }
+
+        /**
+         * Adds {@code delta} rows at {@code row} and forgets the cached pages from that row on,
+         * whose rows have moved; they are fetched again when the table shows them.
+         */
+        void shiftRows(int row, int delta) {
+            rowCount = Math.max(0, rowCount + delta);
+            int firstPage = row / PAGE_SIZE;
+            pages.keySet().removeIf(pageIndex -> pageIndex >= firstPage);
+            pageEnds.keySet().removeIf(pageIndex -> pageIndex >= firstPage);
+        }
+    }
+    
     @SuppressWarnings("serial")
     static class FavoriteRenderer extends DefaultTableCellRenderer {
         @Override
@@ -1129,13 +1759,14 @@ public class SecureVaultSwingEnhanced extends JFrame {
             panel.setOpaque(true);
             panel.setBackground(isSelected ? table.getSelectionBackground() : table.getBackground());
             
-            Color color = switch (strength) {
+            // Null for a password that does not decrypt: unknown, so no bar is filled
+            Color color = strength == null ? Color.GRAY : switch (strength) {
                 case WEAK -> new Color(220, 53, 69);
                 case MEDIUM -> new Color(255, 193, 7);
                 case STRONG -> new Color(40, 167, 69);
             };
             
-            int filledBars = switch (strength) {
+            int filledBars = strength == null ? 0 : switch (strength) {
                 case WEAK -> 2;
                 case MEDIUM -> 3;
                 case STRONG -> 5;
@@ -1147,6 +1778,7 @@ public class SecureVaultSwingEnhanced extends JFrame {
                 bar.setBorder(BorderFactory.createLineBorder(Color.GRAY, 1));
                 panel.add(bar);
             }
+            panel.setToolTipText(strength == null ? "Unknown: the password could not be decrypted" : null);
             
             return panel;
         }
@@ -0,0 +1,338 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link VaultStore} on the SQLite schema. {@link Database} writes single credentials through
+ * it, and {@link CategoryManager} and {@link AttachmentManager} do all their storage through it,
+ * sharing Database's connection pool.
+ */
+public class SqliteVaultStore implements VaultStore {
+    private static final String COLUMNS =
+        "id, user_id, title, username, password, password_fp, notes, is_favorite, " +
+        "COALESCE(category, 'Other') AS category, COALESCE(website_url, '') AS website_url, " +
+        "COALESCE(expiry_date, '') AS expiry_date, created_date, modified_date, " +
+        "COALESCE(last_password_change, created_date) AS last_password_change, version, strength, strength_score";
+    private static final String INSERT_SQL =
+        "INSERT INTO credentials (user_id, title, username, password, password_fp, notes, is_favorite, category, website_url, expiry_date, strength, strength_score, created_date, modified_date, last_password_change) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, datetime('now'), datetime('now'), datetime('now')) " +
+        "ON CONFLICT (user_id, title_norm, username_norm) DO NOTHING RETURNING " + COLUMNS;
+
+    private final ConnectionPool pool;
+    private final boolean ownsPool;
+
+    /**
+     * Shares a pool whose schema is already set up. The pool is not closed with the store.
+     */
+    public SqliteVaultStore(ConnectionPool pool) {
+        this(pool, false);
+    }
+
+    private SqliteVaultStore(ConnectionPool pool, boolean ownsPool) {
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
+
+    /**
+     * Opens (and if needed creates and migrates) a vault database of its own.
+     *
+     * @param url JDBC URL, e.g. {@code jdbc:sqlite:vault.db}
+     */
+    public static SqliteVaultStore open(String url) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("SQLite JDBC driver not found. Make sure sqlite-jdbc jar is in classpath.", e);
+        }
+        ConnectionPool pool = new ConnectionPool(url);
+        try {
+            Database.createSchema(pool, false);
+        } catch (SQLException e) {
+            pool.close();
+            throw e;
+        }
+        return new SqliteVaultStore(pool, true);
+    }
+
+    @Override
+    public String getName() {
+        return "sqlite";
+    }
+
+    @Override
+    public List<CredentialRecord> getCredentials(int userId) throws SQLException {
+        String sql = "SELECT " + COLUMNS + " FROM credentials WHERE user_id = ? " +
+                     "ORDER BY is_favorite DESC, modified_date DESC";
+        List<CredentialRecord> records = new ArrayList<>();
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    records.add(readRecord(rs));
+                }
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public CredentialRecord getCredential(int id) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare("SELECT " + COLUMNS + " FROM credentials WHERE id = ?");
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? readRecord(rs) : null;
+            }
+        }
+    }
+
+    @Override
+    public CredentialRecord insertCredential(CredentialRecord record) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement pstmt = lease.prepare(INSERT_SQL);
+            bindInsert(pstmt, record);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException(Database.DUPLICATE_MESSAGE);
+                }
+                return readRecord(rs);
+            }
+        }
+    }
+
+    @Override
+    public int[] insertCredentials(List<CredentialRecord> records) throws SQLException {
+        int[] ids = new int[records.size()];
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement pstmt = lease.prepare(INSERT_SQL);
+                for (int i = 0; i < ids.length; i++) {
+                    bindInsert(pstmt, records.get(i));
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        ids[i] = rs.next() ? rs.getInt("id") : -1;
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        return ids;
+    }
+
+    private static void bindInsert(PreparedStatement pstmt, CredentialRecord record) throws SQLException {
+        pstmt.setInt(1, record.userId);
+        pstmt.setString(2, record.title);
+        pstmt.setString(3, record.username);
+        pstmt.setString(4, record.password);
+        pstmt.setString(5, record.passwordFingerprint);
+        pstmt.setString(6, record.notes);
+        pstmt.setInt(7, record.isFavorite ? 1 : 0);
+        pstmt.setString(8, record.category != null ? record.category : "Other");
+        pstmt.setString(9, record.websiteUrl);
+        pstmt.setString(10, record.expiryDate);
+        bindStrength(pstmt, 11, record);
+    }
+
+    private static void bindStrength(PreparedStatement pstmt, int index, CredentialRecord record) throws SQLException {
+        if (record.strength < 0) {
+            pstmt.setNull(index, Types.INTEGER);
+            pstmt.setNull(index + 1, Types.INTEGER);
+        } else {
+            pstmt.setInt(index, record.strength);
+            pstmt.setInt(index + 1, record.strengthScore);
+        }
+    }
+
+    @Override
+    public CredentialRecord updateCredential(CredentialRecord record, int expectedVersion) throws SQLException {
+        // Rows stored without a key have no fingerprint, and their password is the plaintext
+        String unchanged = record.passwordFingerprint != null ? "password_fp = ?" : "password = ?";
+        String sql = "UPDATE credentials SET title = ?, username = ?, password = ?, password_fp = ?, notes = ?, is_favorite = ?, " +
+                     "category = ?, website_url = ?, expiry_date = ?, strength = ?, strength_score = ?, modified_date = datetime('now'), " +
+                     "last_password_change = CASE WHEN " + unchanged + " THEN last_password_change ELSE datetime('now') END, " +
+                     "version = version + 1 " +
+                     "WHERE id = ? AND (? = " + Database.ANY_VERSION + " OR version = ?) RETURNING " + COLUMNS;
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setString(1, record.title);
+            pstmt.setString(2, record.username);
+            pstmt.setString(3, record.password);
+            pstmt.setString(4, record.passwordFingerprint);
+            pstmt.setString(5, record.notes);
+            pstmt.setInt(6, record.isFavorite ? 1 : 0);
+            pstmt.setString(7, record.category != null ? record.category : "Other");
+            pstmt.setString(8, record.websiteUrl);
+            pstmt.setString(9, record.expiryDate);
+            bindStrength(pstmt, 10, record);
+            pstmt.setString(12, record.passwordFingerprint != null ? record.passwordFingerprint : record.password);
+            pstmt.setInt(13, record.id);
+            pstmt.setInt(14, expectedVersion);
+            pstmt.setInt(15, expectedVersion);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return readRecord(rs);
+                }
+            } catch (SQLException e) {
+                if (e.getMessage() != null && e.getMessage().contains("UNIQUE constraint failed")) {
+                    throw new SQLException(Database.DUPLICATE_MESSAGE, e);
+                }
+                throw e;
+            }
+            PreparedStatement check = lease.prepare("SELECT version FROM credentials WHERE id = ?");
+            check.setInt(1, record.id);
+            try (ResultSet rs = check.executeQuery()) {
+                if (rs.next()) {
+                    throw new Database.StaleCredentialException(record.id, rs.getInt(1));
+                }
+            }
+            throw new SQLException("Credential " + record.id + " no longer exists");
+        }
+    }
+
+    @Override
+    public void deleteCredential(int id) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            // attachments go with it through ON DELETE CASCADE
+            PreparedStatement pstmt = lease.prepare("DELETE FROM credentials WHERE id = ?");
+            pstmt.setInt(1, id);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static CredentialRecord readRecord(ResultSet rs) throws SQLException {
+        int strength = rs.getInt("strength");
+        boolean rated = !rs.wasNull();
+        return new CredentialRecord(
+            rs.getInt("id"),
+            rs.getInt("user_id"),
+            rs.getString("title"),
+            rs.getString("username"),
+            rs.getString("password"),
+            rs.getString("password_fp"),
+            rs.getString("notes"),
+            rs.getInt("is_favorite") == 1,
+            rs.getString("category"),
+            rs.getString("website_url"),
+            rs.getString("expiry_date"),
+            rated ? strength : -1,
+            rated ? rs.getInt("strength_score") : -1,
+            rs.getString("created_date"),
+            rs.getString("modified_date"),
+            rs.getString("last_password_change"),
+            rs.getInt("version")
+        );
+    }
+
+    @Override
+    public List<CategoryRecord> getCustomCategories(int userId) throws SQLException {
+        List<CategoryRecord> categories = new ArrayList<>();
+        String sql = "SELECT category_name, color FROM custom_categories WHERE user_id = ? ORDER BY category_name";
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    categories.add(new CategoryRecord(userId, rs.getString(1), rs.getString(2)));
+                }
+            }
+        }
+        return categories;
+    }
+
+    @Override
+    public void addCustomCategory(int userId, String name, String color) throws SQLException {
+        String sql = "INSERT INTO custom_categories (user_id, category_name, color) VALUES (?, ?, ?)";
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, userId);
+            pstmt.setString(2, name);
+            pstmt.setString(3, color);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            if (e.getMessage() != null && e.getMessage().contains("UNIQUE")) {
+                throw new SQLException("Category already exists", e);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void deleteCustomCategory(int userId, String name) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement pstmt = lease.prepare("DELETE FROM custom_categories WHERE user_id = ? AND category_name = ?");
+            pstmt.setInt(1, userId);
+            pstmt.setString(2, name);
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public int addAttachment(int credentialId, String filename, byte[] data, long fileSize, boolean encrypted) throws SQLException {
+        String sql = "INSERT INTO attachments (credential_id, filename, file_data, file_size, encrypted, upload_date) " +
+                     "VALUES (?, ?, ?, ?, ?, datetime('now')) RETURNING id";
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, credentialId);
+            pstmt.setString(2, filename);
+            pstmt.setBytes(3, data);
+            pstmt.setLong(4, fileSize);
+            pstmt.setBoolean(5, encrypted);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    @Override
+    public List<AttachmentManager.Attachment> getAttachments(int credentialId) throws SQLException {
+        List<AttachmentManager.Attachment> attachments = new ArrayList<>();
+        String sql = "SELECT id, credential_id, filename, file_size, upload_date FROM attachments " +
+                     "WHERE credential_id = ? ORDER BY upload_date DESC, id DESC";
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, credentialId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    attachments.add(new AttachmentManager.Attachment(rs.getInt(1), rs.getInt(2), rs.getString(3),
+                                                                     rs.getLong(4), rs.getString(5)));
+                }
+            }
+        }
+        return attachments;
+    }
+
+    @Override
+    public AttachmentData readAttachment(int attachmentId) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare("SELECT file_data, encrypted FROM attachments WHERE id = ?");
+            pstmt.setInt(1, attachmentId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? new AttachmentData(rs.getBytes(1), rs.getBoolean(2)) : null;
+            }
+        }
+    }
+
+    @Override
+    public void deleteAttachment(int attachmentId) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement pstmt = lease.prepare("DELETE FROM attachments WHERE id = ?");
+            pstmt.setInt(1, attachmentId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.close();
+        }
+    }
+}
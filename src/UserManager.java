@@ -5,9 +5,9 @@ import java.sql.*;
 import java.util.Base64;
 
 public class UserManager {
-    private final Connection conn;
-    public UserManager(Connection conn) throws SQLException {
-        this.conn = conn;
+    private final ConnectionPool pool;
+    public UserManager(ConnectionPool pool) throws SQLException {
+        this.pool = pool;
         initializeUsersTable();
         createDefaultUser();
     }
@@ -21,19 +21,22 @@ public class UserManager {
                 created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
             )
             """;
-        try (Statement stmt = conn.createStatement()) {
+        try (ConnectionPool.Lease lease = pool.writer();
+             Statement stmt = lease.connection().createStatement()) {
             stmt.execute(sql);
         }
     }
     private void createDefaultUser() throws SQLException {
         // Check if default user exists
         String checkSql = "SELECT COUNT(*) FROM users WHERE username = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(checkSql)) {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(checkSql);
             pstmt.setString(1, "test");
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next() && rs.getInt(1) == 0) {
-                // Create default demo user: test / 12345
-                createUser("test", "12345");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next() && rs.getInt(1) == 0) {
+                    // Create default demo user: test / 12345
+                    createUser("test", "12345");
+                }
             }
         }
     }
@@ -46,7 +49,8 @@ public class UserManager {
         String passwordHash = hashPassword(password, salt);
         
         String sql = "INSERT INTO users (username, password_hash, salt) VALUES (?, ?, ?)";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement pstmt = lease.prepare(sql);
             pstmt.setString(1, username);
             pstmt.setString(2, passwordHash);
             pstmt.setString(3, saltStr);
@@ -61,21 +65,22 @@ public class UserManager {
     }
     public int authenticateUser(String username, String password) throws SQLException {
         String sql = "SELECT id, password_hash, salt FROM users WHERE username = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
             pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                int userId = rs.getInt("id");
-                String storedHash = rs.getString("password_hash");
-                String saltStr = rs.getString("salt");
-                byte[] salt = Base64.getDecoder().decode(saltStr);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    int userId = rs.getInt("id");
+                    String storedHash = rs.getString("password_hash");
+                    String saltStr = rs.getString("salt");
+                    byte[] salt = Base64.getDecoder().decode(saltStr);
                 
-                // Hash provided password with stored salt
-                String providedHash = hashPassword(password, salt);
+                    // Hash provided password with stored salt
+                    String providedHash = hashPassword(password, salt);
                 
-                if (storedHash.equals(providedHash)) {
-                    return userId;
+                    if (storedHash.equals(providedHash)) {
+                        return userId;
+                    }
                 }
             }
         }
@@ -83,19 +88,38 @@ public class UserManager {
     }
     public boolean userExists(String username) throws SQLException {
         String sql = "SELECT COUNT(*) FROM users WHERE username = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
             pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
-            return rs.next() && rs.getInt(1) > 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+    /**
+     * Removes a user from the directory. Their vault is deleted separately, see
+     * {@link VaultDirectory#deleteVault(int)}.
+     *
+     * @return Whether the user existed
+     */
+    public boolean deleteUser(int userId) throws SQLException {
+        String sql = "DELETE FROM users WHERE id = ?";
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement pstmt = lease.prepare(sql);
+            pstmt.setInt(1, userId);
+            return pstmt.executeUpdate() > 0;
         }
     }
+    
     public String getUsername(int userId) throws SQLException {
         String sql = "SELECT username FROM users WHERE id = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
             pstmt.setInt(1, userId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return rs.getString("username");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString("username");
+                }
             }
         }
         return null;
@@ -110,12 +134,14 @@ public class UserManager {
      */
     public byte[] getUserSalt(String username) throws SQLException {
         String sql = "SELECT salt FROM users WHERE username = ?";
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare(sql);
             pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                String saltStr = rs.getString("salt");
-                return Base64.getDecoder().decode(saltStr);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    String saltStr = rs.getString("salt");
+                    return Base64.getDecoder().decode(saltStr);
+                }
             }
         }
         return null;
@@ -0,0 +1,317 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sharded storage layout: a small directory database ({@code securevault.db}) that only holds
+ * the {@code users} table, plus one vault database per user under {@code vaults/}, opened
+ * lazily at login.
+ *
+ * Every vault has its own indexes, WAL and connection pool, so users never wait on each other's
+ * writer, and backing up or deleting a user is a matter of one file. Credentials, categories and
+ * attachments that older versions kept in the shared file are moved into the user's vault the
+ * first time it is opened.
+ */
+public class VaultDirectory implements AutoCloseable {
+    private static final String DEFAULT_DIRECTORY_FILE = "securevault.db";
+    private static final String DEFAULT_VAULT_DIR = "vaults";
+
+    private static final String CREDENTIAL_COLUMNS =
+        "id, user_id, title, username, password, notes, is_favorite, created_date, modified_date, " +
+        "category, website_url, expiry_date, last_password_change, version, password_fp, strength, strength_score";
+    private static final String CATEGORY_COLUMNS = "user_id, category_name, color";
+    private static final String ATTACHMENT_COLUMNS =
+        "id, credential_id, filename, file_data, file_size, encrypted, upload_date";
+
+    private final Path directoryFile;
+    private final Path vaultDir;
+    private final ConnectionPool pool;
+    private final Map<Integer, Database> openVaults = new HashMap<>();
+
+    public VaultDirectory() throws SQLException {
+        this(Paths.get(DEFAULT_DIRECTORY_FILE), Paths.get(DEFAULT_VAULT_DIR));
+    }
+
+    /**
+     * @param directoryFile The directory database (also the single-file database of older versions)
+     * @param vaultDir Where the per-user vault files live; created on first use
+     */
+    public VaultDirectory(Path directoryFile, Path vaultDir) throws SQLException {
+        try {
+            // Explicitly load SQLite JDBC driver
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("SQLite JDBC driver not found. Make sure sqlite-jdbc jar is in classpath.", e);
+        }
+        this.directoryFile = directoryFile;
+        this.vaultDir = vaultDir;
+        this.pool = new ConnectionPool("jdbc:sqlite:" + directoryFile);
+        System.out.println("User directory opened: " + directoryFile);
+    }
+
+    /**
+     * Connections to the directory database, for {@link UserManager}.
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    public Path getVaultFile(int userId) {
+        return vaultDir.resolve("vault_" + userId + ".db");
+    }
+
+    /**
+     * Returns the user's vault, opening (and if needed creating) it on first use.
+     * Rows the user still has in the shared legacy tables are moved into it.
+     */
+    public synchronized Database openVault(int userId) throws SQLException {
+        Database database = openVaults.get(userId);
+        if (database != null) {
+            return database;
+        }
+        try {
+            Files.createDirectories(vaultDir);
+        } catch (IOException e) {
+            throw new SQLException("Cannot create vault directory " + vaultDir + ": " + e.getMessage(), e);
+        }
+        database = new Database("jdbc:sqlite:" + getVaultFile(userId), false);
+        try {
+            migrateLegacyRows(database, userId);
+        } catch (SQLException e) {
+            database.close();
+            throw e;
+        }
+        openVaults.put(userId, database);
+        return database;
+    }
+
+    /**
+     * Closes the user's vault if it is open, e.g. at logout.
+     */
+    public synchronized void closeVault(int userId) {
+        Database database = openVaults.remove(userId);
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    /**
+     * Deletes everything stored for a user: the vault file with its WAL, and any rows still in
+     * the legacy shared tables. The user's directory entry is left to {@link UserManager}.
+     */
+    public synchronized void deleteVault(int userId) throws SQLException {
+        closeVault(userId);
+        Path file = getVaultFile(userId);
+        try {
+            for (String suffix : new String[] { "", "-wal", "-shm" }) {
+                Files.deleteIfExists(file.resolveSibling(file.getFileName() + suffix));
+            }
+        } catch (IOException e) {
+            throw new SQLException("Cannot delete vault file " + file + ": " + e.getMessage(), e);
+        }
+        deleteLegacyRows(userId);
+        System.out.println("Deleted vault of user " + userId);
+    }
+
+    // Single-file databases kept every user's credentials next to the users table
+    private boolean hasLegacyTable(String table) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?");
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private boolean hasLegacyRows(int userId) throws SQLException {
+        for (String table : new String[] { "credentials", "custom_categories" }) {
+            if (!hasLegacyTable(table)) {
+                continue;
+            }
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                PreparedStatement pstmt = lease.prepare("SELECT EXISTS (SELECT 1 FROM " + table + " WHERE user_id = ?)");
+                pstmt.setInt(1, userId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next() && rs.getBoolean(1)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the user's legacy rows into the vault (ids kept, so attachments still match).
+     *
+     * The shared file is left at whatever schema version it has: only the columns it has are
+     * copied, and the vault fills in the rest (fingerprints and strength at unlock). The copy is
+     * committed and checked in the vault before the rows are deleted from the shared file in a
+     * second transaction, since a transaction over an attached file is not atomic across both
+     * files. A move interrupted in between copies nothing twice and completes on the next login.
+     */
+    private void migrateLegacyRows(Database vault, int userId) throws SQLException {
+        if (!hasLegacyRows(userId)) {
+            return;
+        }
+        int moved = copyLegacyRows(vault, userId);
+        deleteLegacyRows(userId);
+        System.out.println("Moved " + moved + " credential(s) of user " + userId + " into " + getVaultFile(userId));
+    }
+
+    private int copyLegacyRows(Database vault, int userId) throws SQLException {
+        int moved;
+        try (ConnectionPool.Lease lease = vault.getConnectionPool().writer()) {
+            Connection conn = lease.connection();
+            try (PreparedStatement attach = conn.prepareStatement("ATTACH DATABASE ? AS legacy")) {
+                attach.setString(1, directoryFile.toAbsolutePath().toString());
+                attach.execute();
+            }
+            try (Statement stmt = conn.createStatement()) {
+                String credentialColumns = legacyColumns(stmt, "credentials", CREDENTIAL_COLUMNS);
+                String categoryColumns = legacyColumns(stmt, "custom_categories", CATEGORY_COLUMNS);
+                String attachmentColumns = legacyColumns(stmt, "attachments", ATTACHMENT_COLUMNS);
+                conn.setAutoCommit(false);
+                try {
+                    moved = credentialColumns.isEmpty() ? 0 : copyCredentials(stmt, userId, credentialColumns);
+                    if (!categoryColumns.isEmpty()) {
+                        stmt.executeUpdate("INSERT OR IGNORE INTO main.custom_categories (" + categoryColumns + ") " +
+                                           "SELECT " + categoryColumns + " FROM legacy.custom_categories WHERE user_id = " + userId);
+                    }
+                    if (!attachmentColumns.isEmpty() && !credentialColumns.isEmpty()) {
+                        stmt.executeUpdate("INSERT INTO main.attachments (" + attachmentColumns + ") " +
+                                           "SELECT " + qualified("a", attachmentColumns) + " FROM legacy.attachments a " +
+                                           "JOIN legacy.credentials c ON c.id = a.credential_id WHERE c.user_id = " + userId +
+                                           " AND a.id NOT IN (SELECT id FROM main.attachments)");
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Moving user " + userId + " into a separate vault failed: " + e.getMessage(), e);
+                } finally {
+                    conn.setAutoCommit(true);
+                    stmt.execute("DROP TABLE IF EXISTS temp.moving");
+                }
+
+                // Read back from the vault file before anything is deleted from the shared one
+                if (!credentialColumns.isEmpty()) {
+                    verifyCopied(stmt, userId, "SELECT COUNT(*) FROM legacy.credentials WHERE user_id = " + userId +
+                                 " AND id NOT IN (SELECT id FROM main.credentials)");
+                }
+                if (!attachmentColumns.isEmpty() && !credentialColumns.isEmpty()) {
+                    verifyCopied(stmt, userId, "SELECT COUNT(*) FROM legacy.attachments a JOIN legacy.credentials c " +
+                                 "ON c.id = a.credential_id WHERE c.user_id = " + userId +
+                                 " AND a.id NOT IN (SELECT id FROM main.attachments)");
+                }
+            } finally {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("DETACH DATABASE legacy");
+                }
+            }
+        }
+        return moved;
+    }
+
+    // Rows already in the vault were copied by an interrupted move. A row whose title and username
+    // duplicate an older one (the shared file may predate the unique key) is renamed as in
+    // migration 4 rather than dropped, and reported to the user the same way.
+    private static int copyCredentials(Statement stmt, int userId, String columns) throws SQLException {
+        stmt.execute("DROP TABLE IF EXISTS temp.moving");
+        stmt.execute("CREATE TEMP TABLE moving AS SELECT " + columns + " FROM legacy.credentials " +
+                     "WHERE user_id = " + userId + " AND id NOT IN (SELECT id FROM main.credentials)");
+        stmt.execute(DatabaseUpgrade.CREATE_RENAMED_TABLE);
+        DatabaseUpgrade.renameDuplicates(stmt.getConnection(), "temp.moving",
+            "SELECT m.id, m.user_id, m.title, m.username FROM temp.moving m WHERE EXISTS (" +
+            "SELECT 1 FROM main.credentials c WHERE c.user_id = m.user_id " +
+            "AND c.title_norm = LOWER(m.title) AND c.username_norm = LOWER(m.username)) OR EXISTS (" +
+            "SELECT 1 FROM temp.moving older WHERE LOWER(older.title) = LOWER(m.title) " +
+            "AND LOWER(older.username) = LOWER(m.username) AND older.id < m.id) ORDER BY m.id LIMIT 1",
+            "SELECT 1 FROM main.credentials WHERE user_id = ?1 AND title_norm = LOWER(?2) AND username_norm = LOWER(?3) " +
+            "UNION ALL SELECT 1 FROM temp.moving WHERE LOWER(title) = LOWER(?2) AND LOWER(username) = LOWER(?3)");
+        return stmt.executeUpdate("INSERT INTO main.credentials (" + columns + ") SELECT " + columns + " FROM temp.moving");
+    }
+
+    private static void verifyCopied(Statement stmt, int userId, String missingSql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(missingSql)) {
+            int missing = rs.next() ? rs.getInt(1) : 0;
+            if (missing > 0) {
+                throw new SQLException("Moving user " + userId + " into a separate vault left " + missing +
+                                       " row(s) behind; the shared file was not changed");
+            }
+        }
+    }
+
+    // The wanted columns that the legacy table has, comma separated; empty if it has no such table
+    private static String legacyColumns(Statement stmt, String table, String wanted) throws SQLException {
+        List<String> present = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery("PRAGMA legacy.table_info(" + table + ")")) {
+            while (rs.next()) {
+                present.add(rs.getString("name"));
+            }
+        }
+        List<String> columns = new ArrayList<>();
+        for (String column : wanted.split(",\\s*")) {
+            if (present.contains(column)) {
+                columns.add(column);
+            }
+        }
+        return String.join(", ", columns);
+    }
+
+    private static String qualified(String alias, String columns) {
+        return alias + "." + columns.replace(", ", ", " + alias + ".");
+    }
+
+    // One transaction on the shared file; tables the file never had are skipped
+    private void deleteLegacyRows(int userId) throws SQLException {
+        List<String> deletes = new ArrayList<>();
+        if (hasLegacyTable("credentials")) {
+            if (hasLegacyTable("attachments")) {
+                deletes.add("DELETE FROM attachments WHERE credential_id IN (SELECT id FROM credentials WHERE user_id = ?)");
+            }
+            deletes.add("DELETE FROM credentials WHERE user_id = ?");
+        }
+        if (hasLegacyTable("custom_categories")) {
+            deletes.add("DELETE FROM custom_categories WHERE user_id = ?");
+        }
+        if (deletes.isEmpty()) {
+            return;
+        }
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                for (String sql : deletes) {
+                    PreparedStatement pstmt = lease.prepare(sql);
+                    pstmt.setInt(1, userId);
+                    pstmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Closes every open vault and the directory database.
+     */
+    @Override
+    public synchronized void close() {
+        for (Database database : openVaults.values()) {
+            database.close();
+        }
+        openVaults.clear();
+        pool.close();
+    }
+}
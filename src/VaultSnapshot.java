@@ -0,0 +1,135 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable view of the vault the window is showing: every loaded credential, the filtered and
+ * sorted rows of the table, and the status-bar counts.
+ *
+ * Snapshots are never changed; a change builds a new snapshot (copying the row arrays, which is
+ * cheap below the paged-mode threshold) and the window publishes it through an
+ * {@link java.util.concurrent.atomic.AtomicReference}. Any thread can therefore take the current
+ * snapshot and read it for as long as it likes (health scan, export, status timer, renderers)
+ * without locks or defensive copies, while later changes simply publish newer snapshots.
+ */
+public final class VaultSnapshot {
+    public static final VaultSnapshot EMPTY = new VaultSnapshot(-1, 0, false, null, List.of(), 0, 0);
+
+    public final int userId;
+    /** Increases with every snapshot derived from this one. */
+    public final long version;
+    /** True when the table pages through the database instead of showing {@link #getVisible()}. */
+    public final boolean paged;
+    public final int total;
+    public final int favorites;
+    private final List<Database.Credential> all; // null until every row is loaded
+    private final List<Database.Credential> visible;
+
+    private VaultSnapshot(int userId, long version, boolean paged, List<Database.Credential> all,
+                          List<Database.Credential> visible, int total, int favorites) {
+        this.userId = userId;
+        this.version = version;
+        this.paged = paged;
+        this.all = all;
+        this.visible = visible;
+        this.total = total;
+        this.favorites = favorites;
+    }
+
+    /**
+     * A vault held in memory in full.
+     *
+     * @param rows Every credential of the user
+     */
+    public static VaultSnapshot loaded(int userId, List<Database.Credential> rows) {
+        List<Database.Credential> all = List.copyOf(rows);
+        return new VaultSnapshot(userId, 0, false, all, List.of(), all.size(), countFavorites(all));
+    }
+
+    /**
+     * A vault too large to hold; only the counts are known until {@link #withAll} is called.
+     */
+    public static VaultSnapshot paged(int userId, int total, int favorites) {
+        return new VaultSnapshot(userId, 0, true, null, List.of(), total, favorites);
+    }
+
+    /**
+     * @return Whether {@link #getAll()} holds every credential of the user
+     */
+    public boolean isFullyLoaded() {
+        return all != null;
+    }
+
+    /**
+     * @return Every credential of the user (unmodifiable), or null if the vault is paged and not loaded
+     */
+    public List<Database.Credential> getAll() {
+        return all;
+    }
+
+    /**
+     * @return The rows of the in-memory table, filtered and sorted (unmodifiable)
+     */
+    public List<Database.Credential> getVisible() {
+        return visible;
+    }
+
+    /**
+     * Same vault with every row loaded, e.g. because a paged vault needs a filter that SQL cannot do.
+     * The counts of a paged vault are kept as they came from the database.
+     */
+    public VaultSnapshot withAll(List<Database.Credential> rows) {
+        List<Database.Credential> copy = List.copyOf(rows);
+        return paged
+            ? new VaultSnapshot(userId, version + 1, true, copy, visible, total, favorites)
+            : new VaultSnapshot(userId, version + 1, false, copy, visible, copy.size(), countFavorites(copy));
+    }
+
+    public VaultSnapshot withVisible(List<Database.Credential> rows) {
+        return new VaultSnapshot(userId, version + 1, paged, all, List.copyOf(rows), total, favorites);
+    }
+
+    /**
+     * Same paged vault with new counts, after a change to rows that are not held in memory.
+     */
+    public VaultSnapshot withCounts(int total, int favorites) {
+        return new VaultSnapshot(userId, version + 1, paged, all, visible, total, favorites);
+    }
+
+    /**
+     * Same vault with one credential inserted, replaced or (if {@code updated} is null) removed.
+     * Only valid for a fully loaded vault.
+     */
+    public VaultSnapshot withCredential(int credentialId, Database.Credential updated) {
+        List<Database.Credential> rows = new ArrayList<>(all.size() + 1);
+        boolean found = false;
+        for (Database.Credential cred : all) {
+            if (cred.id != credentialId) {
+                rows.add(cred);
+            } else if (updated != null) {
+                rows.add(updated);
+                found = true;
+            } else {
+                found = true;
+            }
+        }
+        if (!found && updated != null) {
+            rows.add(updated);
+        }
+        List<Database.Credential> copy = List.copyOf(rows);
+        int favoriteCount = countFavorites(copy);
+        return paged
+            ? new VaultSnapshot(userId, version + 1, true, copy, visible,
+                                total + copy.size() - all.size(), favorites + favoriteCount - countFavorites(all))
+            : new VaultSnapshot(userId, version + 1, false, copy, visible, copy.size(), favoriteCount);
+    }
+
+    private static int countFavorites(List<Database.Credential> rows) {
+        int count = 0;
+        for (Database.Credential cred : rows) {
+            if (cred.isFavorite) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
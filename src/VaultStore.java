@@ -0,0 +1,179 @@
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Storage engine for the credentials, custom categories and attachments of a vault.
+ *
+ * A store only persists what it is given: passwords, fingerprints and attachment data arrive
+ * already encrypted by the caller, so engines can be swapped without touching the key handling.
+ * Every method reports storage failures as {@link SQLException}, whatever the engine, and keeps
+ * the SQLite schema's rules: (user, title, username) is unique ignoring case, ids are never
+ * reused, every update bumps the row version, and deleting a credential deletes its attachments.
+ *
+ * @see SqliteVaultStore
+ * @see LogVaultStore
+ */
+public interface VaultStore extends AutoCloseable {
+
+    /**
+     * Short engine name for logs and benchmarks.
+     */
+    String getName();
+
+    /**
+     * @return Every credential of the user, favorites first, then most recently modified
+     */
+    List<CredentialRecord> getCredentials(int userId) throws SQLException;
+
+    /**
+     * @return The credential, or null if it does not exist
+     */
+    CredentialRecord getCredential(int id) throws SQLException;
+
+    /**
+     * Stores a new credential. The id, dates and version of {@code record} are ignored.
+     *
+     * @return The stored row with its new id
+     * @throws SQLException If the user already has a credential with this title and username
+     */
+    CredentialRecord insertCredential(CredentialRecord record) throws SQLException;
+
+    /**
+     * Stores many new credentials at once, skipping rows whose key already exists.
+     *
+     * @return The new id of each row, or -1 for a skipped duplicate
+     */
+    int[] insertCredentials(List<CredentialRecord> records) throws SQLException;
+
+    /**
+     * Replaces the editable fields of {@code record.id}. The password change date moves only
+     * when the password fingerprint differs from the stored one (the stored password itself for
+     * rows without a fingerprint).
+     *
+     * @param expectedVersion The version the caller edited, or {@link Database#ANY_VERSION}
+     * @return The stored row
+     * @throws Database.StaleCredentialException If the row changed since {@code expectedVersion}
+     */
+    CredentialRecord updateCredential(CredentialRecord record, int expectedVersion) throws SQLException;
+
+    /**
+     * Deletes a credential together with its attachments. Unknown ids are ignored.
+     */
+    void deleteCredential(int id) throws SQLException;
+
+    List<CategoryRecord> getCustomCategories(int userId) throws SQLException;
+
+    /**
+     * @throws SQLException If the user already has a category with this name
+     */
+    void addCustomCategory(int userId, String name, String color) throws SQLException;
+
+    void deleteCustomCategory(int userId, String name) throws SQLException;
+
+    /**
+     * @param data The stored (normally encrypted) file contents
+     * @param fileSize Size of the original file
+     * @return The new attachment id
+     */
+    int addAttachment(int credentialId, String filename, byte[] data, long fileSize, boolean encrypted) throws SQLException;
+
+    /**
+     * @return The attachments of a credential, newest first, without their data
+     */
+    List<AttachmentManager.Attachment> getAttachments(int credentialId) throws SQLException;
+
+    /**
+     * @return The stored data, or null if the attachment does not exist
+     */
+    AttachmentData readAttachment(int attachmentId) throws SQLException;
+
+    void deleteAttachment(int attachmentId) throws SQLException;
+
+    /**
+     * Flushes and releases the store. Further calls fail.
+     */
+    @Override
+    void close() throws SQLException;
+
+    /**
+     * A credential row as stored: {@code password} is the encrypted value. The strength is rated
+     * by the caller, which has the plaintext; -1 in both strength fields means not rated.
+     */
+    class CredentialRecord {
+        public final int id;
+        public final int userId;
+        public final String title;
+        public final String username;
+        public final String password;
+        public final String passwordFingerprint;
+        public final String notes;
+        public final boolean isFavorite;
+        public final String category;
+        public final String websiteUrl;
+        public final String expiryDate;
+        /** {@link StrengthChecker.Strength} ordinal, or -1 */
+        public final int strength;
+        public final int strengthScore;
+        public final String createdDate;
+        public final String modifiedDate;
+        public final String lastPasswordChange;
+        public final int version;
+
+        /**
+         * A row to insert or update.
+         */
+        public CredentialRecord(int id, int userId, String title, String username, String password,
+                                String passwordFingerprint, String notes, boolean isFavorite,
+                                String category, String websiteUrl, String expiryDate,
+                                int strength, int strengthScore) {
+            this(id, userId, title, username, password, passwordFingerprint, notes, isFavorite,
+                 category, websiteUrl, expiryDate, strength, strengthScore, null, null, null, 0);
+        }
+
+        public CredentialRecord(int id, int userId, String title, String username, String password,
+                                String passwordFingerprint, String notes, boolean isFavorite,
+                                String category, String websiteUrl, String expiryDate,
+                                int strength, int strengthScore,
+                                String createdDate, String modifiedDate, String lastPasswordChange, int version) {
+            this.id = id;
+            this.userId = userId;
+            this.title = title;
+            this.username = username;
+            this.password = password;
+            this.passwordFingerprint = passwordFingerprint;
+            this.notes = notes;
+            this.isFavorite = isFavorite;
+            this.category = category;
+            this.websiteUrl = websiteUrl;
+            this.expiryDate = expiryDate;
+            this.strength = strength;
+            this.strengthScore = strengthScore;
+            this.createdDate = createdDate;
+            this.modifiedDate = modifiedDate;
+            this.lastPasswordChange = lastPasswordChange;
+            this.version = version;
+        }
+    }
+
+    class CategoryRecord {
+        public final int userId;
+        public final String name;
+        public final String color;
+
+        public CategoryRecord(int userId, String name, String color) {
+            this.userId = userId;
+            this.name = name;
+            this.color = color;
+        }
+    }
+
+    class AttachmentData {
+        public final byte[] data;
+        public final boolean encrypted;
+
+        public AttachmentData(byte[] data, boolean encrypted) {
+            this.data = data;
+            this.encrypted = encrypted;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Runs the same write-heavy workload against each {@link VaultStore} engine and prints timings.
+ *
+ * Usage: {@code java VaultStoreBenchmark [rows]} (default 20000). Works in a temporary directory
+ * and deletes it afterwards. Passwords are encrypted and rated up front so only the stores are measured.
+ */
+public class VaultStoreBenchmark {
+    private static final int USER_ID = 1;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        SecretKey key = generator.generateKey();
+        List<VaultStore.CredentialRecord> records = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            String password = "P@ss-" + i + "-" + Integer.toHexString(i * 31);
+            records.add(new VaultStore.CredentialRecord(
+                0, USER_ID, "Site " + i, "user" + i + "@example.com", PasswordEncryption.encrypt(password, key),
+                PasswordEncryption.fingerprint(password, PasswordEncryption.deriveFingerprintKey(key)),
+                "", false, "Other", "https://site" + i + ".example.com", "",
+                StrengthChecker.checkStrength(password).ordinal(), StrengthChecker.computeScore(password)));
+        }
+
+        Path dir = Files.createTempDirectory("vault-bench");
+        try {
+            Path sqlite = dir.resolve("bench.db");
+            Path log = dir.resolve("bench.log");
+            run(rows, records, () -> SqliteVaultStore.open("jdbc:sqlite:" + sqlite));
+            run(rows, records, () -> new LogVaultStore(log, key));
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Opener {
+        VaultStore open() throws SQLException;
+    }
+
+    private static void run(int rows, List<VaultStore.CredentialRecord> records, Opener opener) throws SQLException {
+        long start = System.nanoTime();
+        VaultStore store = opener.open();
+        String name = store.getName();
+        try {
+            int single = Math.min(rows, 2_000);
+            for (int i = 0; i < single; i++) {
+                store.insertCredential(records.get(i));
+            }
+            report(name, "insert one by one", single, start);
+
+            start = System.nanoTime();
+            store.insertCredentials(records.subList(single, rows));
+            report(name, "batch insert", rows - single, start);
+
+            start = System.nanoTime();
+            List<VaultStore.CredentialRecord> stored = store.getCredentials(USER_ID);
+            report(name, "read vault", stored.size(), start);
+
+            start = System.nanoTime();
+            int updates = Math.min(stored.size(), 5_000);
+            for (int i = 0; i < updates; i++) {
+                VaultStore.CredentialRecord r = stored.get(i);
+                store.updateCredential(new VaultStore.CredentialRecord(
+                    r.id, r.userId, r.title, r.username, r.password, r.passwordFingerprint, "edited", !r.isFavorite,
+                    r.category, r.websiteUrl, r.expiryDate, r.strength, r.strengthScore), r.version);
+            }
+            report(name, "update", updates, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < stored.size(); i += 2) {
+                store.deleteCredential(stored.get(i).id);
+            }
+            report(name, "delete", (stored.size() + 1) / 2, start);
+        } finally {
+            store.close();
+        }
+
+        start = System.nanoTime();
+        store = opener.open();
+        try {
+            report(name, "reopen and read", store.getCredentials(USER_ID).size(), start);
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void report(String engine, String step, int rows, long startNanos) {
+        double millis = (System.nanoTime() - startNanos) / 1_000_000.0;
+        System.out.printf("%-7s %-18s %7d rows %10.1f ms %10.0f rows/s%n",
+                          engine, step, rows, millis, rows / Math.max(millis, 0.001) * 1000);
+    }
+}
@@ -0,0 +1,31 @@
+#!/bin/bash
+# Compile SecureVault together with the test programs in test/ and run every *Test class.
+# Extra compiler and JVM flags can be passed in JAVAC_OPTS and JAVA_OPTS.
+
+cd "$(dirname "$0")"
+
+if [ ! -f "lib/sqlite-jdbc-3.44.1.0.jar" ]; then
+    echo "Downloading SQLite JDBC driver..."
+    mkdir -p lib
+    wget -q -O lib/sqlite-jdbc-3.44.1.0.jar https://repo1.maven.org/maven2/org/xerial/sqlite-jdbc/3.44.1.0/sqlite-jdbc-3.44.1.0.jar
+fi
+
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+
+javac $JAVAC_OPTS -cp "lib/*" -d "$out" src/*.java test/*.java || exit 1
+
+failed=0
+for file in test/*Test.java; do
+    name=$(basename "$file" .java)
+    echo "▶ $name"
+    if ! java $JAVA_OPTS -cp "$out:lib/*" "$name"; then
+        failed=$((failed + 1))
+    fi
+done
+
+if [ "$failed" -gt 0 ]; then
+    echo "❌ $failed test program(s) failed"
+    exit 1
+fi
+echo "✅ All tests passed"
@@ -0,0 +1,113 @@
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the whole migration chain on a database in the layout of the first release (schema
+ * version 0, credentials with only the five original columns, and a duplicate that the unique
+ * key of migration 4 cannot accept, whose first choices of new title are taken already), then
+ * opens it again to check nothing runs twice. Also checks that a migration that fails stops the
+ * database from opening.
+ */
+public class DatabaseUpgradeTest {
+    private static final int USER_ID = 1;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = TestSupport.scratchDir("upgrade-test");
+        String url = TestSupport.url(dir.resolve("securevault.db"));
+        createVersionZero(url);
+
+        Database database = new Database(url, true);
+        try {
+            TestSupport.checkEquals(List.of("mail → mail (2-3)"), database.getRenamedCredentials(USER_ID),
+                                    "the later duplicate is renamed to a free key and reported");
+            TestSupport.checkEquals(5, database.countCredentials(USER_ID, Database.CredentialQuery.ALL),
+                                    "no credential is lost");
+        } finally {
+            database.close();
+        }
+
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            TestSupport.checkEquals(DatabaseUpgrade.getLatestVersion(), DatabaseUpgrade.getSchemaVersion(conn),
+                                    "user_version is the latest schema version");
+            List<String> columns = names(stmt, "SELECT name FROM pragma_table_xinfo('credentials')");
+            for (String column : new String[] { "notes", "is_favorite", "category", "last_password_change",
+                                                "title_norm", "username_norm", "version", "password_fp",
+                                                "strength", "strength_score" }) {
+                TestSupport.check(columns.contains(column), "credentials has column " + column);
+            }
+            List<String> indexes = names(stmt, "SELECT name FROM sqlite_master WHERE type = 'index'");
+            for (String index : new String[] { "idx_credentials_user_title", "idx_credentials_user_key",
+                                               "idx_credentials_user_strength", "idx_credentials_user_fp",
+                                               "idx_attachments_credential" }) {
+                TestSupport.check(indexes.contains(index), "index " + index + " exists");
+            }
+            TestSupport.check(!indexes.contains("idx_credentials_key_scan"), "migration 4's scratch index is gone");
+            TestSupport.checkEquals(List.of("2"), names(stmt, "PRAGMA auto_vacuum"), "auto_vacuum is INCREMENTAL");
+            TestSupport.checkEquals(List.of("Other"), names(stmt, "SELECT DISTINCT category FROM credentials"),
+                                    "migration 1 fills in the default category");
+            TestSupport.checkEquals(List.of("1"), names(stmt, "SELECT DISTINCT version FROM credentials"),
+                                    "existing rows start at version 1");
+            TestSupport.checkThrows(SQLException.class, () -> stmt.executeUpdate(
+                "INSERT INTO credentials (user_id, title, username, password) VALUES (1, 'MAIL', 'Bob', 'x')"),
+                "the unique key rejects another copy of a key");
+        }
+
+        // Every migration is done, so opening again must not run any of them
+        database = new Database(url, true);
+        try {
+            TestSupport.checkEquals(5, database.countCredentials(USER_ID, Database.CredentialQuery.ALL),
+                                    "reopening keeps every credential");
+        } finally {
+            database.close();
+        }
+        try (Connection conn = DriverManager.getConnection(url)) {
+            TestSupport.checkEquals(DatabaseUpgrade.getLatestVersion(), DatabaseUpgrade.getSchemaVersion(conn),
+                                    "reopening keeps the schema version");
+        }
+
+        checkFailedUpgrade(TestSupport.url(dir.resolve("broken.db")));
+    }
+
+    // Version 3, but with a plain title_norm column that migration 4 cannot add again
+    private static void checkFailedUpgrade(String url) throws Exception {
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE credentials (id INTEGER PRIMARY KEY AUTOINCREMENT, user_id INTEGER NOT NULL, " +
+                         "title TEXT NOT NULL, username TEXT NOT NULL, password TEXT NOT NULL, title_norm TEXT)");
+            stmt.execute("PRAGMA user_version = 3");
+        }
+        SQLException error = TestSupport.checkThrows(SQLException.class, () -> new Database(url, false),
+                                                     "a failed migration stops the database from opening");
+        TestSupport.check(error.getMessage().contains("Migration 4"), "the error names the failed migration");
+        try (Connection conn = DriverManager.getConnection(url)) {
+            TestSupport.checkEquals(3, DatabaseUpgrade.getSchemaVersion(conn),
+                                    "the failed migration is rolled back");
+        }
+    }
+
+    // The schema the first release created: users, and credentials without any later column
+    private static void createVersionZero(String url) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE users (id INTEGER PRIMARY KEY AUTOINCREMENT, username TEXT UNIQUE NOT NULL, " +
+                         "password_hash TEXT NOT NULL, salt TEXT NOT NULL, created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+            stmt.execute("CREATE TABLE credentials (id INTEGER PRIMARY KEY AUTOINCREMENT, user_id INTEGER NOT NULL, " +
+                         "title TEXT NOT NULL, username TEXT NOT NULL, password TEXT NOT NULL, " +
+                         "FOREIGN KEY (user_id) REFERENCES users(id))");
+            stmt.execute("INSERT INTO users (id, username, password_hash, salt) VALUES (1, 'alice', 'hash', 'salt')");
+            stmt.execute("INSERT INTO credentials (user_id, title, username, password) VALUES " +
+                         "(1, 'Mail', 'bob', 'a'), (1, 'mail', 'BOB', 'b'), (1, 'Bank', 'bob', 'c'), " +
+                         "(1, 'mail (2)', 'bob', 'd'), (1, 'MAIL (2-2)', 'Bob', 'e')");
+        }
+    }
+
+    private static List<String> names(Statement stmt, String sql) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                names.add(rs.getString(1));
+            }
+        }
+        return names;
+    }
+}
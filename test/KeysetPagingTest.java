@@ -0,0 +1,70 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keyset pagination over sort keys with many ties (a handful of titles differing only in case,
+ * one timestamp for every row, a third of the rows favorites): walking the pages with their
+ * cursors must visit every row exactly once, in the order of the equivalent OFFSET query.
+ */
+public class KeysetPagingTest {
+    private static final int USER_ID = 1;
+    private static final int ROWS = 437; // not a multiple of the page size
+    private static final int PAGE_SIZE = 40;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = TestSupport.scratchDir("keyset-test");
+        Database database = new Database(TestSupport.url(dir.resolve("vault.db")), false);
+        try {
+            database.setEncryptionKey(TestSupport.newKey());
+            List<Database.NewCredential> rows = new ArrayList<>();
+            for (int i = 0; i < ROWS; i++) {
+                rows.add(new Database.NewCredential((i % 2 == 0 ? "Site " : "SITE ") + (i % 7), "user" + (i % 11) + "-" + i,
+                                                    "pass-" + i, "", i % 3 == 0, "Other", "", ""));
+            }
+            database.insertCredentials(USER_ID, rows);
+            // A different owner's rows must never show up in the pages
+            database.insertCredential(USER_ID + 1, "Site 0", "user0-0", "other", "", true, "Other", "", "");
+
+            for (Database.SortOrder sort : Database.SortOrder.values()) {
+                checkPages(database, new Database.CredentialQuery(null, false, null, sort), ROWS);
+            }
+            int favorites = (ROWS + 2) / 3;
+            checkPages(database, new Database.CredentialQuery(null, true, null, Database.SortOrder.TITLE_ASC), favorites);
+            checkPages(database, new Database.CredentialQuery(null, false, "site 3", Database.SortOrder.USERNAME_DESC),
+                       database.countCredentials(USER_ID, new Database.CredentialQuery(null, false, "site 3", null)));
+        } finally {
+            database.close();
+        }
+    }
+
+    private static void checkPages(Database database, Database.CredentialQuery query, int expected) throws Exception {
+        List<Integer> walked = new ArrayList<>();
+        Database.PageCursor cursor = null;
+        int pages = 0;
+        int largestPage = 0;
+        do {
+            Database.Page page = database.getCredentialPage(USER_ID, query, cursor, PAGE_SIZE);
+            largestPage = Math.max(largestPage, page.rows.size());
+            for (Database.Credential cred : page.rows) {
+                walked.add(cred.id);
+            }
+            cursor = page.next;
+            pages++;
+        } while (cursor != null && pages <= expected);
+
+        String name = query.sort + (query.favoritesOnly ? " favorites" : "") + (query.search != null ? " search" : "");
+        TestSupport.checkEquals(PAGE_SIZE, largestPage, name + ": pages are full-sized");
+        Set<Integer> distinct = new HashSet<>(walked);
+        TestSupport.checkEquals(walked.size(), distinct.size(), name + ": no row appears twice");
+        TestSupport.checkEquals(expected, walked.size(), name + ": every row appears");
+
+        List<Integer> offsetOrder = new ArrayList<>();
+        for (Database.Credential cred : database.getCredentialPageAt(USER_ID, query, 0, expected + 1).rows) {
+            offsetOrder.add(cred.id);
+        }
+        TestSupport.checkEquals(offsetOrder, walked, name + ": same order as the OFFSET query");
+    }
+}
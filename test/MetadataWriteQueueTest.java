@@ -0,0 +1,99 @@
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * The write-behind queue: repeated changes to one row collapse into a single write that bumps
+ * the row version once, a full queue flushes without waiting for the timer, and closing the
+ * queue (or the database that owns one) writes whatever is still pending.
+ */
+public class MetadataWriteQueueTest {
+    private static final int USER_ID = 1;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = TestSupport.scratchDir("queue-test");
+        String url = TestSupport.url(dir.resolve("vault.db"));
+        Database database = new Database(url, false);
+        int first;
+        int third;
+        try {
+            database.setEncryptionKey(TestSupport.newKey());
+            first = database.insertCredential(USER_ID, "A", "a", "pa", "", false, "Other", "", "");
+            int second = database.insertCredential(USER_ID, "B", "b", "pb", "", false, "Other", "", "");
+            third = database.insertCredential(USER_ID, "C", "c", "pc", "", false, "Other", "", "");
+            ConnectionPool pool = database.getConnectionPool();
+
+            // A timer long enough never to fire during the test, and room for three rows
+            MetadataWriteQueue queue = new MetadataWriteQueue(pool, 60_000, 3);
+            TestSupport.check(!queue.set(first, "is_favorite", 1), "the first change to a row starts a pending write");
+            for (int i = 0; i < 4; i++) {
+                TestSupport.check(queue.set(first, "is_favorite", i % 2), "later changes join the pending write");
+            }
+            TestSupport.checkEquals(1, queue.getPendingRows(), "five changes to one row leave one pending row");
+            TestSupport.checkEquals(4L, queue.getCoalescedWrites(), "four changes replaced a pending value");
+            TestSupport.checkEquals(0, favorite(pool, first), "nothing is written before the flush");
+
+            queue.flush();
+            TestSupport.checkEquals(1, favorite(pool, first), "the flush writes the last value");
+            TestSupport.checkEquals(2, version(pool, first), "the flush bumps the version once");
+            TestSupport.checkEquals(1L, queue.getFlushedRows(), "one row was flushed");
+
+            queue.set(first, "is_favorite", 0);
+            queue.discard(first);
+            queue.flush();
+            TestSupport.checkEquals(1, favorite(pool, first), "a discarded change is not written");
+
+            TestSupport.checkThrows(IllegalArgumentException.class, () -> queue.set(first, "password", "x"),
+                                    "only metadata columns can be written behind");
+
+            queue.set(first, "is_favorite", 0);
+            queue.set(second, "is_favorite", 1);
+            queue.set(third, "is_favorite", 1);
+            for (int i = 0; i < 100 && queue.getPendingRows() > 0; i++) {
+                Thread.sleep(20);
+            }
+            TestSupport.checkEquals(0, queue.getPendingRows(), "a full queue flushes without waiting for the timer");
+            TestSupport.checkEquals(1, favorite(pool, third), "the early flush wrote every row");
+
+            queue.set(second, "is_favorite", 0);
+            queue.close();
+            TestSupport.checkEquals(0, favorite(pool, second), "close writes what is pending");
+            TestSupport.checkThrows(IllegalStateException.class, () -> queue.set(second, "is_favorite", 1),
+                                    "a closed queue takes no more changes");
+
+            // The database's own queue, through setFavorite
+            database.setFavorite(USER_ID, database.getCredential(third), false);
+        } finally {
+            database.close();
+        }
+
+        database = new Database(url, false);
+        try {
+            ConnectionPool pool = database.getConnectionPool();
+            TestSupport.checkEquals(0, favorite(pool, third), "closing the database flushes its queue");
+            TestSupport.checkEquals(3, version(pool, third), "the flushed favorite bumped the version");
+        } finally {
+            database.close();
+        }
+    }
+
+    private static int favorite(ConnectionPool pool, int id) throws SQLException {
+        return column(pool, "is_favorite", id);
+    }
+
+    private static int version(ConnectionPool pool, int id) throws SQLException {
+        return column(pool, "version", id);
+    }
+
+    private static int column(ConnectionPool pool, String column, int id) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement pstmt = lease.prepare("SELECT " + column + " FROM credentials WHERE id = ?");
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
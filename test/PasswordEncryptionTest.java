@@ -0,0 +1,242 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Base64;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * AES-GCM round trips in every encrypt/decrypt flavour, rejection of altered values and wrong
+ * keys, and the fallback for headerless AES-CBC values written by earlier versions, including
+ * one whose IV happens to start with the GCM format byte (read as GCM only, and re-encrypted at
+ * unlock after the migration records it), and the unlock backfill of legacy and unreadable rows.
+ */
+public class PasswordEncryptionTest {
+    private static final String SECRET = "Tr0ub4dor&3 — ünïcødé";
+
+    public static void main(String[] args) throws Exception {
+        SecretKey key = TestSupport.newKey();
+
+        String encrypted = PasswordEncryption.encrypt(SECRET, key);
+        TestSupport.checkEquals(SECRET, PasswordEncryption.decrypt(encrypted, key), "GCM string round trip");
+        TestSupport.checkEquals((byte) 2, Base64.getDecoder().decode(encrypted)[0], "values start with the GCM format byte");
+        TestSupport.check(PasswordEncryption.isCurrentFormat(encrypted), "GCM values are the current format");
+        TestSupport.check(!encrypted.equals(PasswordEncryption.encrypt(SECRET, key)), "every encryption uses a new nonce");
+        TestSupport.checkEquals("", PasswordEncryption.encrypt("", key), "empty passwords stay empty");
+        TestSupport.checkEquals("", PasswordEncryption.decrypt("", key), "empty values decrypt to empty");
+
+        byte[] plain = SECRET.getBytes(StandardCharsets.UTF_8);
+        byte[] sealed = PasswordEncryption.encrypt(plain, key);
+        TestSupport.checkEquals(PasswordEncryption.encryptedLength(plain.length), sealed.length, "encryptedLength is exact");
+        byte[] padded = new byte[sealed.length + 7];
+        System.arraycopy(sealed, 0, padded, 5, sealed.length);
+        TestSupport.checkEquals(SECRET, new String(PasswordEncryption.decrypt(padded, 5, sealed.length, key),
+                                                   StandardCharsets.UTF_8), "GCM round trip from part of an array");
+
+        ByteBuffer out = ByteBuffer.allocateDirect(PasswordEncryption.encryptedLength(plain.length));
+        PasswordEncryption.encrypt(ByteBuffer.wrap(plain), out, key);
+        out.flip();
+        ByteBuffer back = ByteBuffer.allocate(out.remaining());
+        PasswordEncryption.decrypt(out, back, key);
+        TestSupport.checkEquals(SECRET, new String(back.array(), 0, back.position(), StandardCharsets.UTF_8),
+                                "GCM round trip through direct buffers");
+
+        byte[] altered = sealed.clone();
+        altered[altered.length / 2] ^= 1;
+        TestSupport.checkThrows(AEADBadTagException.class,
+                                () -> PasswordEncryption.decrypt(altered, 0, altered.length, key), "an altered value fails its tag check");
+        TestSupport.checkThrows(AEADBadTagException.class,
+                                () -> PasswordEncryption.decrypt(encrypted, TestSupport.newKey()), "a wrong key fails the tag check");
+
+        String legacy = legacyEncrypt(SECRET, key, (byte) 0x41);
+        TestSupport.check(!PasswordEncryption.isCurrentFormat(legacy), "CBC values are not the current format");
+        TestSupport.checkEquals(SECRET, PasswordEncryption.decrypt(legacy, key), "legacy CBC values still decrypt");
+        byte[] legacyBytes = Base64.getDecoder().decode(legacy);
+        ByteBuffer legacyOut = ByteBuffer.allocate(legacyBytes.length);
+        PasswordEncryption.decrypt(ByteBuffer.wrap(legacyBytes), legacyOut, key);
+        TestSupport.checkEquals(SECRET, new String(legacyOut.array(), 0, legacyOut.position(), StandardCharsets.UTF_8),
+                                "legacy CBC values decrypt through buffers");
+        String lookalike = legacyEncrypt(SECRET, key, (byte) 2);
+        TestSupport.check(PasswordEncryption.isAmbiguousFormat(lookalike), "a CBC value whose IV starts with the format byte is ambiguous");
+        TestSupport.check(!PasswordEncryption.isAmbiguousFormat(legacy), "other CBC values are not ambiguous");
+        TestSupport.checkThrows(AEADBadTagException.class, () -> PasswordEncryption.decrypt(lookalike, key),
+                                "an ambiguous value is only tried as GCM");
+        TestSupport.checkEquals(SECRET, PasswordEncryption.decryptLegacy(lookalike, key), "decryptLegacy reads it as CBC");
+        String shortGcm = PasswordEncryption.encrypt("abc", key);
+        TestSupport.check(PasswordEncryption.isAmbiguousFormat(shortGcm), "a GCM value can have a CBC length");
+        TestSupport.checkThrows(AEADBadTagException.class, () -> PasswordEncryption.decrypt(shortGcm, TestSupport.newKey()),
+                                "a GCM value with a CBC length is not retried as CBC under a wrong key");
+
+        checkLegacyRowIsUpgraded(key, legacy);
+        checkUnreadableRowIsNotRated(key);
+        checkAmbiguousValuesAreResolved(key, lookalike, shortGcm);
+    }
+
+    // A row written by an earlier version is readable and is re-encrypted as GCM at unlock
+    private static void checkLegacyRowIsUpgraded(SecretKey key, String legacy) throws Exception {
+        Path dir = TestSupport.scratchDir("encryption-test");
+        String url = TestSupport.url(dir.resolve("vault.db"));
+        int id;
+        Database database = new Database(url, false);
+        try {
+            database.setEncryptionKey(key);
+            id = database.insertCredential(1, "Old", "row", "placeholder", "", false, "Other", "", "");
+        } finally {
+            database.close();
+        }
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement pstmt = conn.prepareStatement(
+                 "UPDATE credentials SET password = ?, password_fp = NULL, strength = NULL WHERE id = ?")) {
+            pstmt.setString(1, legacy);
+            pstmt.setInt(2, id);
+            pstmt.executeUpdate();
+        }
+
+        database = new Database(url, false);
+        try {
+            database.setEncryptionKey(key);
+            TestSupport.checkEquals(SECRET, database.getCredential(id).getPassword(), "a legacy row decrypts");
+            TestSupport.checkEquals(1, database.backfillPasswordColumns(1), "the backfill fills in the legacy row");
+        } finally {
+            database.close();
+        }
+        try (Connection conn = DriverManager.getConnection(url);
+             ResultSet rs = conn.createStatement().executeQuery("SELECT password FROM credentials WHERE id = " + id)) {
+            rs.next();
+            String stored = rs.getString(1);
+            TestSupport.check(PasswordEncryption.isCurrentFormat(stored), "the backfill re-encrypts the row as GCM");
+            TestSupport.checkEquals(SECRET, PasswordEncryption.decrypt(stored, key), "the re-encrypted row decrypts");
+        }
+    }
+
+    // A row written with another key keeps no values derived from its ciphertext and is not retried
+    private static void checkUnreadableRowIsNotRated(SecretKey key) throws Exception {
+        Path dir = TestSupport.scratchDir("unreadable-test");
+        String url = TestSupport.url(dir.resolve("vault.db"));
+        String foreign = PasswordEncryption.encrypt(SECRET, TestSupport.newKey());
+        int id;
+        Database database = new Database(url, false);
+        try {
+            database.setEncryptionKey(key);
+            id = database.insertCredential(1, "Foreign", "row", "placeholder", "", false, "Other", "", "");
+        } finally {
+            database.close();
+        }
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement pstmt = conn.prepareStatement(
+                 "UPDATE credentials SET password = ?, password_fp = NULL, strength = NULL, strength_score = NULL WHERE id = ?")) {
+            pstmt.setString(1, foreign);
+            pstmt.setInt(2, id);
+            pstmt.executeUpdate();
+        }
+
+        database = new Database(url, false);
+        try {
+            database.setEncryptionKey(key);
+            TestSupport.checkEquals(0, database.backfillPasswordColumns(1), "an unreadable row is not filled in");
+            TestSupport.checkEquals(null, database.getCredential(id).getStrength(), "its strength is unknown");
+            TestSupport.checkEquals(0, database.backfillPasswordColumns(1), "a later backfill skips it");
+        } finally {
+            database.close();
+        }
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT password_fp, strength FROM credentials WHERE id = " + id)) {
+                rs.next();
+                TestSupport.checkEquals(null, rs.getString(1), "no fingerprint of the ciphertext is stored");
+                TestSupport.checkEquals(null, rs.getObject(2), "no strength of the ciphertext is stored");
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT password FROM unreadable_passwords WHERE credential_id = " + id)) {
+                TestSupport.check(rs.next(), "the row is marked unreadable");
+                TestSupport.checkEquals(foreign, rs.getString(1), "the marker holds the stored value");
+            }
+        }
+    }
+
+    // Values that look like GCM but predate it are recorded by the migration and re-encrypted at unlock
+    private static void checkAmbiguousValuesAreResolved(SecretKey key, String lookalike, String shortGcm) throws Exception {
+        Path dir = TestSupport.scratchDir("ambiguous-test");
+        String url = TestSupport.url(dir.resolve("vault.db"));
+        int legacyId;
+        int currentId;
+        Database database = new Database(url, false);
+        try {
+            database.setEncryptionKey(key);
+            legacyId = database.insertCredential(1, "Legacy", "row", SECRET, "", false, "Other", "", "");
+            currentId = database.insertCredential(1, "Current", "row", "abc", "", false, "Other", "", "");
+        } finally {
+            database.close();
+        }
+        byte[] file = "attachment contents".getBytes(StandardCharsets.UTF_8);
+        String legacyFile = legacyEncrypt(Base64.getEncoder().encodeToString(file), key, (byte) 2);
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            try (PreparedStatement pstmt = conn.prepareStatement("UPDATE credentials SET password = ? WHERE id = ?")) {
+                pstmt.setString(1, lookalike);
+                pstmt.setInt(2, legacyId);
+                pstmt.executeUpdate();
+                pstmt.setString(1, shortGcm);
+                pstmt.setInt(2, currentId);
+                pstmt.executeUpdate();
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                     "INSERT INTO attachments (credential_id, filename, file_data, file_size, encrypted) VALUES (?, 'a.txt', ?, ?, 1)")) {
+                pstmt.setInt(1, legacyId);
+                pstmt.setBytes(2, legacyFile.getBytes(StandardCharsets.UTF_8));
+                pstmt.setLong(3, file.length);
+                pstmt.executeUpdate();
+            }
+            // Reopened as a version 10 file, as written before values were decided by their structure
+            stmt.execute("PRAGMA user_version = 10");
+        }
+
+        database = new Database(url, false);
+        try {
+            database.setEncryptionKey(key);
+            database.backfillPasswordColumns(1);
+            TestSupport.checkEquals(SECRET, database.getCredential(legacyId).getPassword(), "the ambiguous legacy row decrypts");
+            TestSupport.checkEquals("abc", database.getCredential(currentId).getPassword(), "the GCM row still decrypts");
+            AttachmentManager attachments = new AttachmentManager(database.getVaultStore());
+            Path out = dir.resolve("a.txt");
+            attachments.downloadAttachment(attachments.getAttachments(legacyId).get(0).id, out.toFile(), key);
+            TestSupport.checkEquals(new String(file, StandardCharsets.UTF_8),
+                                    new String(java.nio.file.Files.readAllBytes(out), StandardCharsets.UTF_8),
+                                    "the ambiguous legacy attachment decrypts");
+        } finally {
+            database.close();
+        }
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT id, password FROM credentials ORDER BY id")) {
+                rs.next();
+                TestSupport.checkEquals(SECRET, PasswordEncryption.decrypt(rs.getString(2), key), "the legacy row is re-encrypted as GCM");
+                rs.next();
+                TestSupport.checkEquals(shortGcm, rs.getString(2), "the GCM row is left as it was");
+            }
+            try (ResultSet rs = stmt.executeQuery(
+                     "SELECT (SELECT COUNT(*) FROM legacy_passwords) + (SELECT COUNT(*) FROM legacy_attachments)")) {
+                rs.next();
+                TestSupport.checkEquals(0, rs.getInt(1), "every recorded value is resolved once");
+            }
+        }
+    }
+
+    // The format of earlier versions: Base64 of a 16-byte IV followed by the AES-CBC ciphertext
+    private static String legacyEncrypt(String plaintext, SecretKey key, byte firstIvByte) throws Exception {
+        byte[] iv = new byte[16];
+        new SecureRandom().nextBytes(iv);
+        iv[0] = firstIvByte;
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        byte[] ciphertext = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+        byte[] combined = new byte[iv.length + ciphertext.length];
+        System.arraycopy(iv, 0, combined, 0, iv.length);
+        System.arraycopy(ciphertext, 0, combined, iv.length, ciphertext.length);
+        return Base64.getEncoder().encodeToString(combined);
+    }
+}
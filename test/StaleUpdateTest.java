@@ -0,0 +1,65 @@
+import java.nio.file.Path;
+import java.sql.SQLException;
+
+/**
+ * Versioned updates: an edit based on the row as currently stored succeeds and bumps the
+ * version, an edit based on an older read is rejected without touching the row.
+ */
+public class StaleUpdateTest {
+    private static final int USER_ID = 1;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = TestSupport.scratchDir("stale-test");
+        Database database = new Database(TestSupport.url(dir.resolve("vault.db")), false);
+        try {
+            database.setEncryptionKey(TestSupport.newKey());
+            int id = database.insertCredential(USER_ID, "Mail", "bob", "first-pass", "", false, "Email", "", "");
+            Database.Credential read = database.getCredential(id);
+            TestSupport.checkEquals(1, read.version, "a new credential starts at version 1");
+
+            update(database, read, "Mail (work)");
+            Database.Credential current = database.getCredential(id);
+            TestSupport.checkEquals(2, current.version, "an update bumps the version");
+            TestSupport.checkEquals("Mail (work)", current.title, "the update is stored");
+
+            Database.StaleCredentialException stale = TestSupport.checkThrows(
+                Database.StaleCredentialException.class, () -> update(database, read, "Mail (home)"),
+                "an update from the old read is rejected");
+            TestSupport.checkEquals(id, stale.credentialId, "the exception names the credential");
+            TestSupport.checkEquals(2, stale.currentVersion, "the exception carries the stored version");
+            database.getCredentialCache().clear();
+            current = database.getCredential(id);
+            TestSupport.checkEquals("Mail (work)", current.title, "the rejected update changed nothing");
+            TestSupport.checkEquals(2, current.version, "the rejected update kept the version");
+
+            update(database, current, "Mail (home)");
+            TestSupport.checkEquals(3, database.getCredential(id).version, "an update from a fresh read succeeds");
+
+            database.updateCredential(id, "Mail", "bob", "second-pass");
+            TestSupport.checkEquals(4, database.getCredential(id).version, "an unversioned update still bumps the version");
+
+            Database.Credential beforeToggle = database.getCredential(id);
+            database.toggleFavorite(id);
+            Database.Credential toggled = database.getCredential(id);
+            TestSupport.check(toggled.isFavorite, "toggleFavorite flips the flag");
+            TestSupport.checkEquals(5, toggled.version, "toggleFavorite bumps the version");
+            TestSupport.checkThrows(Database.StaleCredentialException.class,
+                                    () -> update(database, beforeToggle, "Mail (old)"),
+                                    "an update from before the toggle is rejected");
+
+            Database.Credential deleted = database.getCredential(id);
+            database.deleteCredential(id);
+            SQLException gone = TestSupport.checkThrows(SQLException.class, () -> update(database, deleted, "Mail"),
+                                                        "updating a deleted credential fails");
+            TestSupport.check(!(gone instanceof Database.StaleCredentialException),
+                              "a deleted credential is not reported as stale");
+        } finally {
+            database.close();
+        }
+    }
+
+    private static void update(Database database, Database.Credential cred, String title) throws SQLException {
+        database.updateCredential(cred.id, cred.version, title, cred.username, cred.getPassword(), "",
+                                  cred.isFavorite, cred.category, cred.websiteUrl, cred.expiryDate);
+    }
+}